@@ -0,0 +1,49 @@
+package com.muneikh.mockcamera;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.muneikh.gles.Size;
+import com.muneikh.gles.Texture2dProgram;
+import com.muneikh.inputsource.OffscreenBenchmark;
+import com.muneikh.inputsource.TestPatternInputSource;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Renders test patterns offscreen and fails below a frame rate floor, passed as the
+ * instrumentation argument "minFps" (e.g. -e minFps 120), so CI can gate on throughput.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class OffscreenBenchmarkTest {
+    private static final int FRAMES = 300;
+
+    @Test
+    public void testPattern_meetsFrameRateFloor() throws Exception {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        double minFps = Double.parseDouble(arguments.getString("minFps", "0"));
+
+        OffscreenBenchmark benchmark = new OffscreenBenchmark(
+                new TestPatternInputSource(new Size(Size.FRAME_WIDTH, Size.FRAME_HEIGHT), 0),
+                Size.FRAME_WIDTH, Size.FRAME_HEIGHT);
+        benchmark.setProgramTypes(Texture2dProgram.ProgramType.TEXTURE_2D);
+        benchmark.setStageTiming(false);
+        OffscreenBenchmark.Result throughput = benchmark.run(FRAMES);
+
+        benchmark.setStageTiming(true);
+        OffscreenBenchmark.Result stages = benchmark.run(FRAMES);
+
+        assertEquals(FRAMES, stages.getSourceStage().getCount());
+        assertEquals(FRAMES,
+                stages.getProgramStage(Texture2dProgram.ProgramType.TEXTURE_2D).getCount());
+        assertTrue(throughput + " is below " + minFps + " fps",
+                throughput.getFramesPerSecond() >= minFps);
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.muneikh.gles;
 
+import android.opengl.GLES20;
+
 import java.nio.FloatBuffer;
 
 /**
@@ -186,6 +188,31 @@ public class Drawable2d {
         return coordsPerVertex;
     }
 
+    public Prefab getPrefab() {
+        return prefab;
+    }
+
+    /**
+     * Returns where the texture coordinates start in the buffer object made by
+     * {@link #upload(int)}, in bytes.  The positions come first.
+     */
+    public int getTexCoordOffset() {
+        return vertexCount * vertexStride;
+    }
+
+    /**
+     * Copies the positions, then the texture coordinates, into the buffer object bound to the
+     * given target.  Drawing through {@link GlStateCache#bindGeometry} does this once per
+     * context.
+     */
+    void upload(int target) {
+        int texCoordBytes = vertexCount * texCoordStride;
+        GLES20.glBufferData(target, getTexCoordOffset() + texCoordBytes, null,
+                GLES20.GL_STATIC_DRAW);
+        GLES20.glBufferSubData(target, 0, getTexCoordOffset(), vertexArray);
+        GLES20.glBufferSubData(target, getTexCoordOffset(), texCoordBytes, texCoordArray);
+    }
+
     @Override
     public String toString() {
         if (prefab != null) {
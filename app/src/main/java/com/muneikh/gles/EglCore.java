@@ -187,6 +187,7 @@ public final class EglCore {
             // every eglInitialize() we need an eglTerminate().
             EGL14.eglMakeCurrent(eGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
                     EGL14.EGL_NO_CONTEXT);
+            GlStateCache.current().onContextCurrent(null, glVersion);
             EGL14.eglDestroyContext(eGLDisplay, eGLContext);
             EGL14.eglReleaseThread();
             EGL14.eglTerminate(eGLDisplay);
@@ -273,6 +274,7 @@ public final class EglCore {
         if (!EGL14.eglMakeCurrent(eGLDisplay, eglSurface, eglSurface, eGLContext)) {
             throw new RuntimeException("eglMakeCurrent failed");
         }
+        GlStateCache.current().onContextCurrent(eGLContext, glVersion);
     }
 
     /**
@@ -286,6 +288,7 @@ public final class EglCore {
         if (!EGL14.eglMakeCurrent(eGLDisplay, drawSurface, readSurface, eGLContext)) {
             throw new RuntimeException("eglMakeCurrent(draw,read) failed");
         }
+        GlStateCache.current().onContextCurrent(eGLContext, glVersion);
     }
 
     /**
@@ -296,6 +299,7 @@ public final class EglCore {
                 EGL14.EGL_NO_CONTEXT)) {
             throw new RuntimeException("eglMakeCurrent failed");
         }
+        GlStateCache.current().onContextCurrent(null, glVersion);
     }
 
     /**
@@ -314,6 +318,16 @@ public final class EglCore {
         EGLExt.eglPresentationTimeANDROID(eGLDisplay, eglSurface, nsecs);
     }
 
+    /**
+     * Sets the minimum number of vsync periods between buffer swaps on the current surface:
+     * 1 is vsync-locked, 0 swaps without waiting (if the driver allows).
+     */
+    public void setSwapInterval(int interval) {
+        if (!EGL14.eglSwapInterval(eGLDisplay, interval)) {
+            Log.w(TAG, "eglSwapInterval(" + interval + ") failed");
+        }
+    }
+
     /**
      * Returns true if our context and the specified surface are current.
      */
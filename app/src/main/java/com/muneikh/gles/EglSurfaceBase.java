@@ -22,6 +22,9 @@ import android.opengl.EGLSurface;
 import android.opengl.GLES20;
 import android.util.Log;
 
+import com.muneikh.metrics.MetricsRegistry;
+import com.muneikh.metrics.Timer;
+
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -36,6 +39,8 @@ import java.nio.ByteOrder;
  */
 public class EglSurfaceBase {
     protected static final String TAG = GlUtil.TAG;
+    private static final Timer SAVE_FRAME_TIMER =
+            MetricsRegistry.getDefault().timer("EglSurfaceBase.saveFrame");
 
     // EglCore object we're associated with.  It may be associated with multiple surfaces.
     protected EglCore eglCore;
@@ -159,6 +164,7 @@ public class EglSurfaceBase {
         if (!eglCore.isCurrent(eGLSurface)) {
             throw new RuntimeException("Expected EGL context/surface is not current");
         }
+        long startNanos = SAVE_FRAME_TIMER.start();
 
         // glReadPixels fills in a "direct" ByteBuffer with what is essentially big-endian RGBA
         // data (i.e. a byte of red, followed by a byte of green...).  While the Bitmap
@@ -193,6 +199,7 @@ public class EglSurfaceBase {
         } finally {
             if (bos != null) bos.close();
         }
+        SAVE_FRAME_TIMER.stop(startNanos);
         Log.i(TAG, "Saved " + width + "x" + height + " frame as '" + filename + "'");
     }
 }
@@ -0,0 +1,213 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES20;
+
+import com.muneikh.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chains {@link Texture2dProgram} passes through offscreen framebuffers: each node draws the
+ * previous node's output, the first one the source texture.
+ * <p/>
+ * Add the nodes, then {@link #compile} the graph for a size; that takes its framebuffers from
+ * a {@link FramebufferPool}, at most two, which the passes ping-pong between.  After that a
+ * frame costs only the draw calls: {@link #render} and {@link #drawFrame} allocate nothing,
+ * GL objects included.  Only the first node can sample an external texture; the others read
+ * framebuffer textures, so they need a GL_TEXTURE_2D program type.
+ * <p/>
+ * GL thread only.
+ */
+public class FilterGraph {
+
+    /**
+     * One pass of the graph.
+     */
+    public static class Node {
+        private final String name;
+        private final FullFrameRect rect;
+        private final LatencyHistogram gpuTime;
+
+        Node(String name, FullFrameRect rect) {
+            this.name = name;
+            this.rect = rect;
+            gpuTime = new LatencyHistogram(name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the node's program, e.g. to change the kernel of a filter.
+         */
+        public Texture2dProgram getProgram() {
+            return rect.getProgram();
+        }
+
+        /**
+         * Returns the GPU time of the node's pass.  Empty unless node timing is on.
+         */
+        public LatencyHistogram getGpuTimeHistogram() {
+            return gpuTime;
+        }
+    }
+
+    private final FramebufferPool pool;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private Node[] compiledNodes;
+    private TextureFramebuffer[] framebuffers;
+    private int width;
+    private int height;
+    private GpuTimer timer;
+    private final int[] savedViewport = new int[4];
+
+    public FilterGraph(FramebufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Appends a pass.  The graph takes ownership of the program.
+     */
+    public Node addNode(String name, Texture2dProgram program) {
+        if (compiledNodes != null) {
+            throw new IllegalStateException("Graph already compiled");
+        }
+        Node node = new Node(name, new FullFrameRect(program));
+        nodes.add(node);
+        return node;
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Times every pass with a {@link GpuTimer}.  Off by default: the glFinish() calls it
+     * adds stall the pipeline, so turn it on to profile only.
+     */
+    public void setNodeTiming(boolean nodeTiming) {
+        timer = nodeTiming ? new GpuTimer() : null;
+    }
+
+    /**
+     * Checks the graph and takes its framebuffers from the pool.  Call again when the size
+     * changes; the previous framebuffers go back to the pool.
+     *
+     * @param width  Width of the intermediate results, usually the source's.
+     * @param height Height of the intermediate results.
+     */
+    public void compile(int width, int height) {
+        if (nodes.isEmpty()) {
+            throw new IllegalStateException("Graph has no nodes");
+        }
+        for (int i = 1; i < nodes.size(); i++) {
+            if (nodes.get(i).getProgram().getTextureTarget() != GLES20.GL_TEXTURE_2D) {
+                throw new IllegalStateException("Node " + nodes.get(i).getName()
+                        + " must sample GL_TEXTURE_2D: only the first node reads the source");
+            }
+        }
+        recycleFramebuffers();
+        compiledNodes = nodes.toArray(new Node[nodes.size()]);
+        framebuffers = new TextureFramebuffer[Math.min(compiledNodes.length, 2)];
+        for (int i = 0; i < framebuffers.length; i++) {
+            framebuffers[i] = pool.acquire(width, height);
+        }
+        this.width = width;
+        this.height = height;
+        for (Node node : compiledNodes) {
+            // Kernel filters sample neighbours by texel size.
+            node.getProgram().setTexSize(width, height);
+        }
+    }
+
+    /**
+     * Runs every node into the framebuffers and returns the texture holding the result, a
+     * GL_TEXTURE_2D of the compiled size.  It stays valid until the next frame.
+     *
+     * @param texMatrix The source's texture transform, e.g. from SurfaceTexture.
+     */
+    public int render(int textureId, float[] texMatrix) {
+        checkCompiled();
+        GlStateCache.current().getViewport(savedViewport);
+        int result = runPasses(textureId, texMatrix, compiledNodes.length);
+        restoreScreen();
+        return result;
+    }
+
+    /**
+     * Runs the graph with the last node drawing into the window surface, like
+     * {@link FullFrameRect#drawFrame}.
+     */
+    public void drawFrame(int textureId, float[] texMatrix) {
+        checkCompiled();
+        int last = compiledNodes.length - 1;
+        if (last > 0) {
+            GlStateCache.current().getViewport(savedViewport);
+            textureId = runPasses(textureId, texMatrix, last);
+            texMatrix = GlUtil.IDENTITY_MATRIX;
+            restoreScreen();
+        }
+        drawNode(compiledNodes[last], textureId, texMatrix);
+    }
+
+    private int runPasses(int textureId, float[] texMatrix, int count) {
+        GlStateCache state = GlStateCache.current();
+        state.viewport(0, 0, width, height);
+        for (int i = 0; i < count; i++) {
+            TextureFramebuffer target = framebuffers[i % framebuffers.length];
+            state.bindFramebuffer(target.getFramebufferId());
+            drawNode(compiledNodes[i], textureId, texMatrix);
+            // Framebuffer textures are upright already.
+            textureId = target.getTextureId();
+            texMatrix = GlUtil.IDENTITY_MATRIX;
+        }
+        return textureId;
+    }
+
+    private void drawNode(Node node, int textureId, float[] texMatrix) {
+        if (timer != null) {
+            timer.begin();
+        }
+        node.rect.drawFrame(textureId, texMatrix);
+        if (timer != null) {
+            node.gpuTime.record(timer.end());
+        }
+    }
+
+    private void restoreScreen() {
+        GlStateCache state = GlStateCache.current();
+        state.bindFramebuffer(0);
+        state.viewport(savedViewport[0], savedViewport[1], savedViewport[2], savedViewport[3]);
+    }
+
+    private void checkCompiled() {
+        if (compiledNodes == null) {
+            throw new IllegalStateException("Graph not compiled");
+        }
+    }
+
+    private void recycleFramebuffers() {
+        if (framebuffers != null) {
+            for (TextureFramebuffer framebuffer : framebuffers) {
+                pool.recycle(framebuffer);
+            }
+            framebuffers = null;
+        }
+    }
+
+    /**
+     * Returns the framebuffers to the pool and, with doEglCleanup, releases the programs; see
+     * {@link FullFrameRect#release(boolean)}.
+     */
+    public void release(boolean doEglCleanup) {
+        recycleFramebuffers();
+        for (Node node : nodes) {
+            node.rect.release(doEglCleanup);
+        }
+        nodes.clear();
+        compiledNodes = null;
+    }
+}
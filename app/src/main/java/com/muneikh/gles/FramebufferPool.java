@@ -0,0 +1,65 @@
+package com.muneikh.gles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps {@link TextureFramebuffer}s that are no longer used, by size, so the next user of
+ * that size gets one without allocating GL objects.
+ * <p/>
+ * GL thread only; the EGL context the framebuffers were created in must be current.
+ */
+public class FramebufferPool {
+    private final List<TextureFramebuffer> free = new ArrayList<TextureFramebuffer>();
+    private int allocatedCount;
+
+    /**
+     * Returns a free framebuffer of this size, or a new one if there is none.
+     */
+    public TextureFramebuffer acquire(int width, int height) {
+        for (int i = free.size() - 1; i >= 0; i--) {
+            TextureFramebuffer framebuffer = free.get(i);
+            if (framebuffer.getWidth() == width && framebuffer.getHeight() == height) {
+                return free.remove(i);
+            }
+        }
+        allocatedCount++;
+        return new TextureFramebuffer(width, height);
+    }
+
+    /**
+     * Takes back a framebuffer from {@link #acquire}.  Its contents are undefined from now on.
+     */
+    public void recycle(TextureFramebuffer framebuffer) {
+        free.add(framebuffer);
+    }
+
+    /**
+     * Deletes the free framebuffers, e.g. after a size change.
+     */
+    public void trim() {
+        for (TextureFramebuffer framebuffer : free) {
+            framebuffer.release();
+            allocatedCount--;
+        }
+        free.clear();
+    }
+
+    /**
+     * Deletes the framebuffers.  Call once every user recycled the ones it acquired.
+     */
+    public void release() {
+        trim();
+    }
+
+    public int getFreeCount() {
+        return free.size();
+    }
+
+    /**
+     * Returns the number of framebuffers the pool created and didn't delete yet.
+     */
+    public int getAllocatedCount() {
+        return allocatedCount;
+    }
+}
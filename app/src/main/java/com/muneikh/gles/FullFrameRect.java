@@ -16,11 +16,17 @@
 
 package com.muneikh.gles;
 
+import com.muneikh.metrics.MetricsRegistry;
+import com.muneikh.metrics.Timer;
+
 /**
  * This class essentially represents a viewport-sized sprite that will be rendered with
  * a texture, usually from an external source like the camera or video decoder.
  */
 public class FullFrameRect {
+    private static final Timer DRAW_FRAME_TIMER =
+            MetricsRegistry.getDefault().timer("FullFrameRect.drawFrame");
+
     private final Drawable2d rectDrawable = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
     private Texture2dProgram program;
 
@@ -79,11 +85,9 @@ public class FullFrameRect {
      * Draws a viewport-filling rect, texturing it with the specified texture object.
      */
     public void drawFrame(int textureId, float[] texMatrix) {
+        long startNanos = DRAW_FRAME_TIMER.start();
         // Use the identity matrix for MVP so our 2x2 FULL_RECTANGLE covers the viewport.
-        program.draw(GlUtil.IDENTITY_MATRIX, rectDrawable.getVertexArray(), 0,
-                rectDrawable.getVertexCount(), rectDrawable.getCoordsPerVertex(),
-                rectDrawable.getVertexStride(),
-                texMatrix, rectDrawable.getTexCoordArray(), textureId,
-                rectDrawable.getTexCoordStride());
+        program.draw(GlUtil.IDENTITY_MATRIX, rectDrawable, texMatrix, textureId);
+        DRAW_FRAME_TIMER.stop(startNanos);
     }
 }
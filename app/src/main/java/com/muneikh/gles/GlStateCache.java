@@ -0,0 +1,497 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.muneikh.metrics.Gauge;
+import com.muneikh.metrics.MetricsRegistry;
+
+import java.nio.Buffer;
+
+/**
+ * Shadows the GL state the draw calls in this package change, so a call that would set what
+ * is already set is skipped instead of going through the driver.
+ * <p/>
+ * There is one cache per thread, standing for the context current on it.  Everything in this
+ * package binds programs, textures, framebuffers and vertex arrays, and sets the viewport,
+ * through it, and so must anything that draws with them; a direct GLES20 call leaves the
+ * cache wrong.  EglCore resets
+ * the cache when it makes another context current; with GLSurfaceView, call
+ * {@link #onContextCreated(int)} from onSurfaceCreated().  SurfaceTexture.updateTexImage()
+ * binds its texture behind our back, so call {@link #onExternalTextureLatched()} after it.
+ * <p/>
+ * The cache also owns the context's copies of the {@link Drawable2d} prefabs: one vertex
+ * buffer object each, wrapped in a vertex array object on GLES3.  Its programs are in the
+ * {@link ProgramCache}.
+ * <p/>
+ * Draws leave their state bound rather than resetting it, so the next pass with the same
+ * program and texture costs only the draw call.
+ */
+public class GlStateCache {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_ATTRIBS = 16;
+    private static final int TARGET_2D = 0;
+    private static final int TARGET_EXTERNAL = 1;
+
+    private static final ThreadLocal<GlStateCache> CURRENT = new ThreadLocal<GlStateCache>() {
+        @Override
+        protected GlStateCache initialValue() {
+            return new GlStateCache();
+        }
+    };
+    private static final Gauge ISSUED_GAUGE =
+            MetricsRegistry.getDefault().gauge("GlStateCache.issuedPerFrame");
+    private static final Gauge ELIDED_GAUGE =
+            MetricsRegistry.getDefault().gauge("GlStateCache.elidedPerFrame");
+
+    private Object context;
+    private int glVersion = 2;
+    private int program;
+    private int activeUnit;
+    private final int[][] boundTextures = new int[MAX_TEXTURE_UNITS][2];
+    private int framebuffer;
+    private final int[] viewport = new int[4];
+    private boolean viewportKnown;
+    private int arrayBuffer;
+    private int vertexArray;
+    private int enabledAttribs;
+    private boolean attribsKnown;
+    private final Buffer[] attribBuffers = new Buffer[MAX_ATTRIBS];
+    private final int[] attribPositions = new int[MAX_ATTRIBS];
+    private final int[] attribSizes = new int[MAX_ATTRIBS];
+    private final int[] attribStrides = new int[MAX_ATTRIBS];
+    // Buffer object the attribute reads from, 0 for client memory.
+    private final int[] attribVbos = new int[MAX_ATTRIBS];
+
+    // Per context; 0 until first used.
+    private final int[] prefabBuffers = new int[Drawable2d.Prefab.values().length];
+    private final int[] prefabVertexArrays = new int[Drawable2d.Prefab.values().length];
+    private ProgramCache programCache = new ProgramCache(glVersion);
+
+    private int issued;
+    private int elided;
+    private int lastFrameIssued;
+    private int lastFrameElided;
+
+    private GlStateCache() {
+        invalidate();
+    }
+
+    /**
+     * Returns the cache for the context current on the calling thread.
+     */
+    public static GlStateCache current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Forgets the state, e.g. because GL was called directly.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        activeUnit = UNKNOWN;
+        for (int[] unit : boundTextures) {
+            unit[TARGET_2D] = UNKNOWN;
+            unit[TARGET_EXTERNAL] = UNKNOWN;
+        }
+        framebuffer = UNKNOWN;
+        viewportKnown = false;
+        arrayBuffer = UNKNOWN;
+        vertexArray = UNKNOWN;
+        attribsKnown = false;
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            attribBuffers[i] = null;
+            attribVbos[i] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Forgets the state and the objects of the previous context.  The objects stay with
+     * that context and go away with it.
+     *
+     * @param glVersion The GLES version of the new context: vertex array objects and program
+     *                  binaries need 3.
+     */
+    public void onContextCreated(int glVersion) {
+        this.glVersion = glVersion;
+        for (int i = 0; i < prefabBuffers.length; i++) {
+            prefabBuffers[i] = 0;
+            prefabVertexArrays[i] = 0;
+        }
+        programCache = new ProgramCache(glVersion);
+        invalidate();
+    }
+
+    /**
+     * Called by EglCore whenever it makes a context current, or none (null).
+     */
+    void onContextCurrent(Object context, int glVersion) {
+        if (context != this.context) {
+            this.context = context;
+            onContextCreated(glVersion);
+        }
+    }
+
+    /**
+     * Returns the programs linked in this context.
+     */
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+
+    public void useProgram(int program) {
+        if (program == this.program) {
+            elided++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        this.program = program;
+        issued++;
+    }
+
+    /**
+     * @param unit 0 for GL_TEXTURE0, and so on.
+     */
+    public void activeTexture(int unit) {
+        if (unit == activeUnit) {
+            elided++;
+            return;
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        issued++;
+    }
+
+    /**
+     * Binds a texture to the active unit.
+     */
+    public void bindTexture(int target, int texture) {
+        int targetIndex = targetIndexOf(target);
+        if (targetIndex < 0) {
+            GLES20.glBindTexture(target, texture);
+            issued++;
+            return;
+        }
+        if (activeUnit < 0 || activeUnit >= MAX_TEXTURE_UNITS) {
+            // Some unit changed, we don't know which.
+            GLES20.glBindTexture(target, texture);
+            for (int[] unit : boundTextures) {
+                unit[targetIndex] = UNKNOWN;
+            }
+            issued++;
+            return;
+        }
+        if (boundTextures[activeUnit][targetIndex] == texture) {
+            elided++;
+            return;
+        }
+        GLES20.glBindTexture(target, texture);
+        boundTextures[activeUnit][targetIndex] = texture;
+        issued++;
+    }
+
+    /**
+     * Binds a texture to the given unit, e.g. to create or fill it.
+     */
+    public void bindTexture(int unit, int target, int texture) {
+        activeTexture(unit);
+        bindTexture(target, texture);
+    }
+
+    public void bindFramebuffer(int framebuffer) {
+        if (framebuffer == this.framebuffer) {
+            elided++;
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        this.framebuffer = framebuffer;
+        issued++;
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (viewportKnown && x == viewport[0] && y == viewport[1] && width == viewport[2]
+                && height == viewport[3]) {
+            elided++;
+            return;
+        }
+        GLES20.glViewport(x, y, width, height);
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        viewportKnown = true;
+        issued++;
+    }
+
+    /**
+     * Copies the viewport into the array, e.g. to restore it after drawing off screen.  GL is
+     * only queried if nothing set the viewport through the cache since the context became
+     * current.
+     */
+    public void getViewport(int[] out) {
+        if (!viewportKnown) {
+            GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport, 0);
+            viewportKnown = true;
+        }
+        System.arraycopy(viewport, 0, out, 0, 4);
+    }
+
+    /**
+     * Enables the vertex attribute arrays whose bits are set in the mask and disables the
+     * others.  Leaving an unused array enabled would make the next draw read it.
+     */
+    public void enableVertexAttribArrays(int mask) {
+        bindVertexArray(0);
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            int bit = 1 << i;
+            boolean wanted = (mask & bit) != 0;
+            if (attribsKnown && wanted == ((enabledAttribs & bit) != 0)) {
+                if (wanted) {
+                    elided++;
+                }
+                continue;
+            }
+            if (wanted) {
+                GLES20.glEnableVertexAttribArray(i);
+            } else {
+                GLES20.glDisableVertexAttribArray(i);
+            }
+            issued++;
+        }
+        enabledAttribs = mask;
+        attribsKnown = true;
+    }
+
+    /**
+     * Points a float attribute at client memory, from the buffer's current position.
+     */
+    public void vertexAttribPointer(int location, int size, int stride, Buffer buffer) {
+        bindVertexArray(0);
+        // Client pointers only work with no buffer object bound.
+        bindArrayBuffer(0);
+        if (location < MAX_ATTRIBS && attribBuffers[location] == buffer
+                && attribPositions[location] == buffer.position()
+                && attribSizes[location] == size && attribStrides[location] == stride) {
+            elided++;
+            return;
+        }
+        GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, stride, buffer);
+        if (location < MAX_ATTRIBS) {
+            attribBuffers[location] = buffer;
+            attribPositions[location] = buffer.position();
+            attribSizes[location] = size;
+            attribStrides[location] = stride;
+            attribVbos[location] = 0;
+        }
+        issued++;
+    }
+
+    /**
+     * Points a float attribute at a buffer object, from the given offset in bytes.
+     */
+    public void vertexAttribPointer(int location, int size, int stride, int vbo, int offset) {
+        bindVertexArray(0);
+        bindArrayBuffer(vbo);
+        if (location < MAX_ATTRIBS && attribBuffers[location] == null
+                && attribVbos[location] == vbo && attribPositions[location] == offset
+                && attribSizes[location] == size && attribStrides[location] == stride) {
+            elided++;
+            return;
+        }
+        GLES20.glVertexAttribPointer(location, size, GLES20.GL_FLOAT, false, stride, offset);
+        if (location < MAX_ATTRIBS) {
+            attribBuffers[location] = null;
+            attribVbos[location] = vbo;
+            attribPositions[location] = offset;
+            attribSizes[location] = size;
+            attribStrides[location] = stride;
+        }
+        issued++;
+    }
+
+    public void bindArrayBuffer(int buffer) {
+        if (buffer == arrayBuffer) {
+            elided++;
+            return;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+        arrayBuffer = buffer;
+        issued++;
+    }
+
+    /**
+     * Binds a vertex array object; 0 goes back to the default one, whose attribute state the
+     * cache tracks.  Does nothing on GLES2, where the default is all there is.
+     */
+    public void bindVertexArray(int vertexArray) {
+        if (glVersion < 3) {
+            return;
+        }
+        if (vertexArray == this.vertexArray) {
+            elided++;
+            return;
+        }
+        GLES30.glBindVertexArray(vertexArray);
+        this.vertexArray = vertexArray;
+        issued++;
+    }
+
+    /**
+     * Sets up the attributes to draw a prefab from a buffer object, uploaded on first use in
+     * this context.  On GLES3, and with the attributes at their {@link GlUtil} locations, a
+     * vertex array object holds the whole setup and this is a single bind.
+     */
+    public void bindGeometry(Drawable2d drawable, int positionLoc, int texCoordLoc) {
+        int prefab = drawable.getPrefab().ordinal();
+        if (glVersion >= 3 && positionLoc == GlUtil.POSITION_ATTRIB
+                && texCoordLoc == GlUtil.TEXTURE_COORD_ATTRIB) {
+            if (prefabVertexArrays[prefab] == 0) {
+                prefabVertexArrays[prefab] = createVertexArray(drawable);
+            } else {
+                bindVertexArray(prefabVertexArrays[prefab]);
+            }
+            return;
+        }
+        int vbo = prefabBuffer(drawable);
+        enableVertexAttribArrays((1 << positionLoc) | (1 << texCoordLoc));
+        vertexAttribPointer(positionLoc, drawable.getCoordsPerVertex(),
+                drawable.getVertexStride(), vbo, 0);
+        vertexAttribPointer(texCoordLoc, 2, drawable.getTexCoordStride(), vbo,
+                drawable.getTexCoordOffset());
+    }
+
+    private int prefabBuffer(Drawable2d drawable) {
+        int prefab = drawable.getPrefab().ordinal();
+        if (prefabBuffers[prefab] == 0) {
+            int[] values = new int[1];
+            GLES20.glGenBuffers(1, values, 0);
+            prefabBuffers[prefab] = values[0];
+            bindArrayBuffer(values[0]);
+            drawable.upload(GLES20.GL_ARRAY_BUFFER);
+            GlUtil.checkGlError("glBufferData");
+        }
+        return prefabBuffers[prefab];
+    }
+
+    private int createVertexArray(Drawable2d drawable) {
+        int vbo = prefabBuffer(drawable);
+        int[] values = new int[1];
+        GLES30.glGenVertexArrays(1, values, 0);
+        bindVertexArray(values[0]);
+        bindArrayBuffer(vbo);
+        // Recorded in the vertex array object, not in the default state we track.
+        GLES20.glEnableVertexAttribArray(GlUtil.POSITION_ATTRIB);
+        GLES20.glVertexAttribPointer(GlUtil.POSITION_ATTRIB, drawable.getCoordsPerVertex(),
+                GLES20.GL_FLOAT, false, drawable.getVertexStride(), 0);
+        GLES20.glEnableVertexAttribArray(GlUtil.TEXTURE_COORD_ATTRIB);
+        GLES20.glVertexAttribPointer(GlUtil.TEXTURE_COORD_ATTRIB, 2, GLES20.GL_FLOAT, false,
+                drawable.getTexCoordStride(), drawable.getTexCoordOffset());
+        GlUtil.checkGlError("vertex array setup");
+        return values[0];
+    }
+
+    /**
+     * Uploads a mat4 uniform of the current program unless it already holds these values.
+     *
+     * @param uploaded The program's copy of the uniform, filled with NaN until the first
+     *                 upload.
+     */
+    public void uniformMatrix4fv(int location, float[] matrix, float[] uploaded) {
+        boolean same = true;
+        for (int i = 0; i < 16; i++) {
+            // NaN never compares equal, so the first upload always happens.
+            if (matrix[i] != uploaded[i]) {
+                same = false;
+                break;
+            }
+        }
+        if (same) {
+            elided++;
+            return;
+        }
+        GLES20.glUniformMatrix4fv(location, 1, false, matrix, 0);
+        System.arraycopy(matrix, 0, uploaded, 0, 16);
+        issued++;
+    }
+
+    /**
+     * Called after SurfaceTexture.updateTexImage(), which binds the SurfaceTexture's texture
+     * to GL_TEXTURE_EXTERNAL_OES on the active unit.
+     */
+    public void onExternalTextureLatched() {
+        if (activeUnit < 0 || activeUnit >= MAX_TEXTURE_UNITS) {
+            for (int[] unit : boundTextures) {
+                unit[TARGET_EXTERNAL] = UNKNOWN;
+            }
+        } else {
+            boundTextures[activeUnit][TARGET_EXTERNAL] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Called before glDeleteTextures(): GL unbinds a deleted texture, and may hand its name out
+     * again.
+     */
+    public void onTextureDeleted(int texture) {
+        for (int[] unit : boundTextures) {
+            if (unit[TARGET_2D] == texture) {
+                unit[TARGET_2D] = UNKNOWN;
+            }
+            if (unit[TARGET_EXTERNAL] == texture) {
+                unit[TARGET_EXTERNAL] = UNKNOWN;
+            }
+        }
+    }
+
+    public void onProgramDeleted(int program) {
+        if (this.program == program) {
+            this.program = UNKNOWN;
+        }
+    }
+
+    public void onFramebufferDeleted(int framebuffer) {
+        if (this.framebuffer == framebuffer) {
+            this.framebuffer = UNKNOWN;
+        }
+    }
+
+    /**
+     * Closes the counts of the frame drawn since the last call.  Renderers call it once per
+     * frame; the counts also go to the "GlStateCache" gauges of the metrics registry.
+     */
+    public void endFrame() {
+        lastFrameIssued = issued;
+        lastFrameElided = elided;
+        issued = 0;
+        elided = 0;
+        ISSUED_GAUGE.set(lastFrameIssued);
+        ELIDED_GAUGE.set(lastFrameElided);
+    }
+
+    /**
+     * Returns the number of state calls the last frame made to GL.
+     */
+    public int getLastFrameIssuedCount() {
+        return lastFrameIssued;
+    }
+
+    /**
+     * Returns the number of state calls the last frame skipped as redundant.
+     */
+    public int getLastFrameElidedCount() {
+        return lastFrameElided;
+    }
+
+    private static int targetIndexOf(int target) {
+        switch (target) {
+            case GLES20.GL_TEXTURE_2D:
+                return TARGET_2D;
+            case GLES11Ext.GL_TEXTURE_EXTERNAL_OES:
+                return TARGET_EXTERNAL;
+            default:
+                return -1;
+        }
+    }
+}
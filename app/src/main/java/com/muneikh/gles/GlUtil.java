@@ -21,6 +21,9 @@ import android.opengl.GLES30;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.muneikh.metrics.Counter;
+import com.muneikh.metrics.MetricsRegistry;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -43,6 +46,84 @@ public class GlUtil {
 
     private static final int SIZEOF_FLOAT = 4;
 
+    /**
+     * Attribute locations {@link #createProgram} binds "aPosition" and "aTextureCoord" to, so
+     * one vertex array object serves every program.
+     */
+    public static final int POSITION_ATTRIB = 0;
+    public static final int TEXTURE_COORD_ATTRIB = 1;
+
+    /**
+     * How {@link #checkGlError(String)} checks.  Each glGetError() may stall until the driver
+     * catches up, so release builds shouldn't check after every call.
+     */
+    public enum ErrorCheckPolicy {
+        /**
+         * Checks after every call and throws on the first error.  The default; for debug
+         * builds and CI.
+         */
+        STRICT,
+        /**
+         * Checks once per frame, in {@link #onFrameEnd()}.
+         */
+        PER_FRAME,
+        /**
+         * Checks in {@link #onFrameEnd()} every Nth frame; errors stay raised until then, so
+         * one is reported as raised within the last N frames.
+         */
+        SAMPLED,
+        /**
+         * Never checks.
+         */
+        OFF
+    }
+
+    private static final int RECENT_CALL_SITES = 16;
+    private static final Counter GL_ERROR_COUNTER =
+            MetricsRegistry.getDefault().counter("GlUtil.glErrors");
+    private static volatile ErrorCheckPolicy errorCheckPolicy = ErrorCheckPolicy.STRICT;
+    private static volatile int errorCheckInterval = 60;
+    private static final ThreadLocal<ErrorCheckState> ERROR_CHECK_STATE =
+            new ThreadLocal<ErrorCheckState>() {
+                @Override
+                protected ErrorCheckState initialValue() {
+                    return new ErrorCheckState();
+                }
+            };
+
+    /**
+     * The deferred checks of one GL thread: the call sites since the last check, and whether
+     * the current frame is checked call by call to find the one that failed.
+     */
+    private static class ErrorCheckState {
+        final String[] recentCallSites = new String[RECENT_CALL_SITES];
+        int recentCount;
+        long frame;
+        long lastCheckedFrame;
+        boolean attributing;
+
+        void record(String op) {
+            recentCallSites[recentCount % RECENT_CALL_SITES] = op;
+            recentCount++;
+        }
+
+        String recentCallSites() {
+            StringBuilder sb = new StringBuilder();
+            int first = Math.max(0, recentCount - RECENT_CALL_SITES);
+            for (int i = first; i < recentCount; i++) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(recentCallSites[i % RECENT_CALL_SITES]);
+            }
+            return sb.toString();
+        }
+
+        void clear() {
+            recentCount = 0;
+        }
+    }
+
 
     private GlUtil() {
     }     // do not instantiate
@@ -53,6 +134,17 @@ public class GlUtil {
      * @return A handle to the program, or 0 on failure.
      */
     public static int createProgram(String vertexSource, String fragmentSource) {
+        return createProgram(vertexSource, fragmentSource, false);
+    }
+
+    /**
+     * Creates a new program, optionally hinting that its binary will be retrieved with
+     * glGetProgramBinary() (GLES3 only).
+     *
+     * @return A handle to the program, or 0 on failure.
+     */
+    public static int createProgram(String vertexSource, String fragmentSource,
+                                    boolean retrievable) {
         int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
@@ -71,6 +163,12 @@ public class GlUtil {
         checkGlError("glAttachShader");
         GLES20.glAttachShader(program, pixelShader);
         checkGlError("glAttachShader");
+        GLES20.glBindAttribLocation(program, POSITION_ATTRIB, "aPosition");
+        GLES20.glBindAttribLocation(program, TEXTURE_COORD_ATTRIB, "aTextureCoord");
+        if (retrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES20.GL_TRUE);
+        }
         GLES20.glLinkProgram(program);
         int[] linkStatus = new int[1];
         GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
@@ -105,15 +203,89 @@ public class GlUtil {
     }
 
     /**
-     * Checks to see if a GLES error has been raised.
+     * Checks to see if a GLES error has been raised, as the {@link ErrorCheckPolicy} says.
+     * <p/>
+     * STRICT throws a RuntimeException naming the call site.  The other policies only note
+     * the call site; when a later check finds an error, it is logged and counted, and the
+     * next frame is checked after every call so the failing call site gets logged too.
      */
     public static void checkGlError(String op) {
+        ErrorCheckPolicy policy = errorCheckPolicy;
+        if (policy == ErrorCheckPolicy.STRICT) {
+            int error = GLES20.glGetError();
+            if (error != GLES20.GL_NO_ERROR) {
+                String msg = op + ": glError 0x" + Integer.toHexString(error);
+                Log.e(TAG, msg);
+                throw new RuntimeException(msg);
+            }
+            return;
+        }
+        if (policy == ErrorCheckPolicy.OFF) {
+            return;
+        }
+        ErrorCheckState state = ERROR_CHECK_STATE.get();
+        if (state.attributing) {
+            int error = GLES20.glGetError();
+            if (error != GLES20.GL_NO_ERROR) {
+                GL_ERROR_COUNTER.increment();
+                Log.e(TAG, op + ": glError 0x" + Integer.toHexString(error));
+            }
+        } else {
+            state.record(op);
+        }
+    }
+
+    /**
+     * Runs the deferred check of the PER_FRAME and SAMPLED policies.  Renderers call it on
+     * the GL thread once per frame, after drawing.
+     */
+    public static void onFrameEnd() {
+        ErrorCheckPolicy policy = errorCheckPolicy;
+        if (policy == ErrorCheckPolicy.STRICT || policy == ErrorCheckPolicy.OFF) {
+            return;
+        }
+        ErrorCheckState state = ERROR_CHECK_STATE.get();
+        state.frame++;
+        boolean wasAttributing = state.attributing;
+        state.attributing = false;
+        if (policy == ErrorCheckPolicy.SAMPLED && !wasAttributing
+                && state.frame % errorCheckInterval != 0) {
+            // Keep the call sites: an error raised now is only found by a later check.
+            return;
+        }
         int error = GLES20.glGetError();
         if (error != GLES20.GL_NO_ERROR) {
-            String msg = op + ": glError 0x" + Integer.toHexString(error);
-            Log.e(TAG, msg);
-            throw new RuntimeException(msg);
+            // More errors may be raised; they're reported by the next checks.
+            GL_ERROR_COUNTER.increment();
+            Log.e(TAG, "glError 0x" + Integer.toHexString(error) + " within frames "
+                    + (state.lastCheckedFrame + 1) + "-" + state.frame
+                    + ", after one of the latest call sites: " + state.recentCallSites()
+                    + "; checking every call in the next frame");
+            state.attributing = true;
         }
+        state.lastCheckedFrame = state.frame;
+        state.clear();
+    }
+
+    /**
+     * Sets the policy for every GL thread.
+     */
+    public static void setErrorCheckPolicy(ErrorCheckPolicy policy) {
+        errorCheckPolicy = policy;
+    }
+
+    public static ErrorCheckPolicy getErrorCheckPolicy() {
+        return errorCheckPolicy;
+    }
+
+    /**
+     * Sets how many frames apart the SAMPLED policy checks.  60 by default.
+     */
+    public static void setErrorCheckInterval(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("Interval must be at least 1 frame");
+        }
+        errorCheckInterval = frames;
     }
 
     /**
@@ -128,6 +300,15 @@ public class GlUtil {
         }
     }
 
+    /**
+     * Deletes a texture, keeping {@link GlStateCache} right.
+     */
+    public static void deleteTexture(int textureId) {
+        GlStateCache.current().onTextureDeleted(textureId);
+        int[] values = {textureId};
+        GLES20.glDeleteTextures(1, values, 0);
+    }
+
     /**
      * Creates a texture from raw data.
      *
@@ -146,7 +327,7 @@ public class GlUtil {
         GlUtil.checkGlError("glGenTextures");
 
         // Bind the texture handle to the 2D texture target.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+        GlStateCache.current().bindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
 
         // Configure min/mag filtering, i.e. what scaling method do we use if what we're rendering
         // is smaller or larger than the source image.
@@ -154,6 +335,11 @@ public class GlUtil {
                 GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
                 GLES20.GL_LINEAR);
+        // Non-power-of-two textures are incomplete in GLES2 unless they clamp.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
         GlUtil.checkGlError("loadImageTexture");
 
         // Load the data from the buffer into the texture handle.
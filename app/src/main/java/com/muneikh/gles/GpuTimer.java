@@ -0,0 +1,30 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES20;
+
+/**
+ * Times GL work from the CPU by draining the pipeline with glFinish() before and after it.
+ * <p/>
+ * GLES 2 has no timer queries, and software GL implementations have none at all, so this
+ * stands in for them: the result is submission plus execution time.  The stalls it adds make
+ * it a benchmarking tool only.
+ */
+public class GpuTimer {
+    private long startNanos;
+
+    /**
+     * Waits for earlier GL work to finish, then starts timing.
+     */
+    public void begin() {
+        GLES20.glFinish();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Waits for the GL work issued since begin() to finish and returns how long it took.
+     */
+    public long end() {
+        GLES20.glFinish();
+        return System.nanoTime() - startNanos;
+    }
+}
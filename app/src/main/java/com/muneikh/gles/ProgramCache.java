@@ -0,0 +1,382 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import com.muneikh.metrics.Counter;
+import com.muneikh.metrics.MetricsRegistry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares linked GL programs between everything drawing in one context, so a second
+ * FullFrameRect with the same program type doesn't compile and link its shaders again.
+ * Programs are keyed by name and a hash of their shader sources, and reference counted: the
+ * last {@link #release} deletes the program.
+ * <p/>
+ * On GLES3 contexts, and once {@link #setBinaryDirectory} was called, linked programs are
+ * also saved with glGetProgramBinary(), so later starts load them instead of compiling.
+ * Binaries are kept per GL_RENDERER and GL_VERSION: a driver update starts over.
+ * <p/>
+ * One cache per context, owned by its {@link GlStateCache}; GL thread only.
+ */
+public class ProgramCache {
+    private static final String TAG = GlUtil.TAG;
+    private static final int BINARY_MAGIC = 0x4d435042;    // "MCPB"
+    // Binaries are a few 10s of KB; anything much larger is a corrupt file.
+    private static final int MAX_BINARY_LENGTH = 16 * 1024 * 1024;
+
+    private static final Counter LINKED_COUNTER =
+            MetricsRegistry.getDefault().counter("ProgramCache.linked");
+    private static final Counter BINARY_LOADED_COUNTER =
+            MetricsRegistry.getDefault().counter("ProgramCache.binaryLoaded");
+    private static final Counter SHARED_COUNTER =
+            MetricsRegistry.getDefault().counter("ProgramCache.shared");
+
+    private static volatile File binaryDirectory;
+
+    /**
+     * A linked program, and what its users need to share with it.
+     */
+    public static class Program {
+        private final String key;
+        private final int handle;
+        private int refCount = 1;
+        private Object uniformOwner;
+        private final Map<Integer, float[]> uniformShadows = new HashMap<Integer, float[]>();
+
+        Program(String key, int handle) {
+            this.key = key;
+            this.handle = handle;
+        }
+
+        public int getHandle() {
+            return handle;
+        }
+
+        /**
+         * Returns the copy of a mat4 uniform for
+         * {@link GlStateCache#uniformMatrix4fv(int, float[], float[])}.  Uniform values belong
+         * to the program, so every user of it gets the same copy.
+         */
+        public float[] getUniformShadow(int location) {
+            float[] shadow = uniformShadows.get(location);
+            if (shadow == null) {
+                shadow = new float[16];
+                Arrays.fill(shadow, Float.NaN);
+                uniformShadows.put(location, shadow);
+            }
+            return shadow;
+        }
+
+        /**
+         * Notes who sets the uniforms a user keeps no shadow of.
+         *
+         * @return true if another user set them last, so the caller must upload its own.
+         */
+        public boolean claimUniforms(Object owner) {
+            if (owner == uniformOwner) {
+                return false;
+            }
+            uniformOwner = owner;
+            return true;
+        }
+    }
+
+    private final int glVersion;
+    private final Map<String, Program> programs = new HashMap<String, Program>();
+    // Resolved on first use, as it needs the context current; null without binaries.
+    private File driverDirectory;
+    private boolean driverDirectoryResolved;
+
+    ProgramCache(int glVersion) {
+        this.glVersion = glVersion;
+    }
+
+    /**
+     * Returns the cache for the context current on the calling thread.
+     */
+    public static ProgramCache current() {
+        return GlStateCache.current().getProgramCache();
+    }
+
+    /**
+     * Sets where program binaries go, e.g. a directory under Context.getCacheDir(); null (the
+     * default) turns them off.  Applies to caches of contexts created afterwards.  Only the
+     * per-driver directories the cache makes in it are ever deleted.
+     */
+    public static void setBinaryDirectory(File directory) {
+        binaryDirectory = directory;
+    }
+
+    /**
+     * Returns the program built from these sources, linking it (or loading its binary) unless
+     * this context already has it.  Release it with {@link #release} when done.
+     *
+     * @param name Names the program in logs and binary file names.
+     */
+    public Program acquire(String name, String vertexSource, String fragmentSource) {
+        String key = programKey(name, vertexSource, fragmentSource);
+        Program program = programs.get(key);
+        if (program != null) {
+            program.refCount++;
+            SHARED_COUNTER.increment();
+            return program;
+        }
+
+        int handle = loadBinary(key);
+        if (handle != 0) {
+            BINARY_LOADED_COUNTER.increment();
+        } else {
+            boolean saveBinary = getDriverDirectory() != null;
+            handle = GlUtil.createProgram(vertexSource, fragmentSource, saveBinary);
+            if (handle == 0) {
+                throw new RuntimeException("Unable to create program " + name);
+            }
+            LINKED_COUNTER.increment();
+            if (saveBinary) {
+                saveBinary(key, handle);
+            }
+        }
+        program = new Program(key, handle);
+        programs.put(key, program);
+        return program;
+    }
+
+    /**
+     * Drops one reference; the last one deletes the program.  The program's context must be
+     * current.
+     */
+    public void release(Program program) {
+        if (--program.refCount > 0) {
+            return;
+        }
+        if (programs.get(program.key) == program) {
+            programs.remove(program.key);
+        }
+        Log.i(TAG, "deleting program " + program.handle + " (" + program.key + ")");
+        GlStateCache.current().onProgramDeleted(program.handle);
+        GLES20.glDeleteProgram(program.handle);
+    }
+
+    /**
+     * Returns the number of distinct programs in the cache.
+     */
+    public int size() {
+        return programs.size();
+    }
+
+    private File getDriverDirectory() {
+        if (driverDirectoryResolved) {
+            return driverDirectory;
+        }
+        driverDirectoryResolved = true;
+        File root = binaryDirectory;
+        if (root == null || glVersion < 3) {
+            return null;
+        }
+        int[] formatCount = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+        GlUtil.checkGlError("glGetIntegerv");
+        if (formatCount[0] == 0) {
+            Log.i(TAG, "No program binary formats; programs are compiled every time");
+            return null;
+        }
+        String driver = driverKey(GLES20.glGetString(GLES20.GL_RENDERER),
+                GLES20.glGetString(GLES20.GL_VERSION));
+        File directory = new File(root, driver);
+        if (!directory.isDirectory()) {
+            // Binaries of other drivers will never load again.
+            deleteOtherDrivers(root, driver);
+            if (!directory.mkdirs()) {
+                Log.w(TAG, "Unable to create " + directory);
+                return null;
+            }
+        }
+        driverDirectory = directory;
+        return directory;
+    }
+
+    private int loadBinary(String key) {
+        File directory = getDriverDirectory();
+        if (directory == null) {
+            return 0;
+        }
+        File file = new File(directory, key);
+        if (!file.exists()) {
+            return 0;
+        }
+        ProgramBinary binary;
+        try {
+            binary = readBinary(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            file.delete();
+            return 0;
+        }
+        int handle = GLES20.glCreateProgram();
+        GlUtil.checkGlError("glCreateProgram");
+        GLES30.glProgramBinary(handle, binary.format, ByteBuffer.wrap(binary.data),
+                binary.data.length);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(handle, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            // A rejected binary may raise GL_INVALID_ENUM; that is expected here.
+            GLES20.glGetError();
+            Log.i(TAG, "Program binary " + key + " rejected; compiling");
+            GLES20.glDeleteProgram(handle);
+            file.delete();
+            return 0;
+        }
+        Log.i(TAG, "Loaded program " + handle + " (" + key + ") from its binary");
+        return handle;
+    }
+
+    private void saveBinary(String key, int handle) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(handle, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]);
+        int[] written = new int[1];
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(handle, length[0], written, 0, format, 0, buffer);
+        GlUtil.checkGlError("glGetProgramBinary");
+        byte[] data = new byte[written[0]];
+        buffer.get(data);
+
+        File file = new File(driverDirectory, key);
+        try {
+            writeBinary(file, new ProgramBinary(format[0], data));
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+        }
+    }
+
+    /**
+     * A program binary as glGetProgramBinary() returns it.
+     */
+    static class ProgramBinary {
+        final int format;
+        final byte[] data;
+
+        ProgramBinary(int format, byte[] data) {
+            this.format = format;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Writes the binary to a temporary file first, so a crash never leaves half a binary.
+     */
+    static void writeBinary(File file, ProgramBinary binary) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(binary.format);
+            out.writeInt(binary.data.length);
+            out.write(binary.data);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to rename " + temp);
+        }
+    }
+
+    static ProgramBinary readBinary(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != BINARY_MAGIC) {
+                throw new IOException("Not a program binary");
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_BINARY_LENGTH) {
+                throw new IOException("Bad binary length " + length);
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return new ProgramBinary(format, data);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a file-name-safe key for the program: its name, and a hash of its sources.
+     */
+    static String programKey(String name, String vertexSource, String fragmentSource) {
+        return name + "-" + hash(vertexSource + "\u0000" + fragmentSource);
+    }
+
+    static String driverKey(String renderer, String version) {
+        return hash(renderer + "\u0000" + version);
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes the binaries other drivers left in root.  Only directories named like a
+     * {@link #driverKey} go: root may be shared, e.g. the app's cache directory.
+     */
+    static void deleteOtherDrivers(File root, String driver) {
+        File[] files = root.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && isDriverKey(file.getName())
+                    && !file.getName().equals(driver)) {
+                deleteRecursively(file);
+                file.delete();
+            }
+        }
+    }
+
+    static boolean isDriverKey(String name) {
+        return name.matches("[0-9a-f]{16}");
+    }
+
+    private static void deleteRecursively(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteRecursively(file);
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.FloatBuffer;
+
+/**
+ * GL program that generates test frames procedurally, with no texture input.
+ * <p/>
+ * Every pattern carries a barcode of the frame number along the bottom edge (in GL
+ * orientation), {@link #BARCODE_BITS} black or white bars wide, least significant bit on the
+ * left.  It covers the bottom {@link #BARCODE_HEIGHT_FRACTION} of the frame.
+ */
+public class TestPatternProgram {
+    private static final String TAG = GlUtil.TAG;
+
+    public static final int BARCODE_BITS = 24;
+    public static final float BARCODE_HEIGHT_FRACTION = 1f / 16;
+
+    public enum Pattern {
+        GRADIENT, CHECKERBOARD, BARCODE, NOISE
+    }
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "    gl_Position = uMVPMatrix * aPosition;\n" +
+                    "    vTextureCoord = aTextureCoord.xy;\n" +
+                    "}\n";
+
+    // highp is needed to carry 24-bit frame numbers exactly.
+    private static final String FRAGMENT_SHADER =
+            "precision highp float;\n" +
+                    "#define BARCODE_BITS " + BARCODE_BITS + ".0\n" +
+                    "#define BARCODE_HEIGHT " + BARCODE_HEIGHT_FRACTION + "\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform int uPattern;\n" +
+                    "uniform float uFrame;\n" +
+                    "uniform float uNoiseLevels;\n" +
+                    "uniform vec2 uSize;\n" +
+                    "float barcode(vec2 uv) {\n" +
+                    "    float bit = floor(uv.x * BARCODE_BITS);\n" +
+                    "    return mod(floor(uFrame / exp2(bit)), 2.0);\n" +
+                    "}\n" +
+                    "float hash(vec2 p) {\n" +
+                    "    return fract(sin(dot(p, vec2(12.9898, 78.233))) * 43758.5453);\n" +
+                    "}\n" +
+                    "void main() {\n" +
+                    "    vec2 uv = vTextureCoord;\n" +
+                    "    vec3 color;\n" +
+                    "    if (uPattern == 0) {\n" +
+                    "        float t = uFrame / 120.0;\n" +
+                    "        color = vec3(fract(uv.x + t), fract(uv.y + t * 0.5),\n" +
+                    "                0.5 + 0.5 * sin(6.2831853 * t));\n" +
+                    "    } else if (uPattern == 1) {\n" +
+                    "        vec2 cell = floor((uv * uSize + vec2(uFrame * 2.0, uFrame)) / 32.0);\n" +
+                    "        color = vec3(mod(cell.x + cell.y, 2.0));\n" +
+                    "    } else if (uPattern == 2) {\n" +
+                    "        color = vec3(barcode(uv));\n" +
+                    "    } else {\n" +
+                    "        vec2 p = floor(uv * uSize) + vec2(mod(uFrame, 251.0), mod(uFrame, 241.0));\n" +
+                    "        vec3 n = vec3(hash(p), hash(p + 17.0), hash(p + 31.0));\n" +
+                    "        color = uNoiseLevels > 1.0\n" +
+                    "                ? floor(n * uNoiseLevels) / (uNoiseLevels - 1.0) : vec3(0.5);\n" +
+                    "    }\n" +
+                    "    if (uv.y < BARCODE_HEIGHT) {\n" +
+                    "        color = vec3(barcode(uv));\n" +
+                    "    }\n" +
+                    "    gl_FragColor = vec4(color, 1.0);\n" +
+                    "}\n";
+
+    private ProgramCache.Program program;
+    private int programHandle;
+    private final int mvpMatrixLoc;
+    private final int positionLoc;
+    private final int textureCoordLoc;
+    private final int patternLoc;
+    private final int frameLoc;
+    private final int noiseLevelsLoc;
+    private final int sizeLoc;
+    private final float[] uploadedMvpMatrix;
+
+    private Pattern pattern = Pattern.GRADIENT;
+    private float noiseLevels = 256f;
+    private long frameNumber;
+    private int width = 1;
+    private int height = 1;
+
+    /**
+     * Prepares the program in the current EGL context.
+     */
+    public TestPatternProgram() {
+        program = ProgramCache.current().acquire("TestPatternProgram", VERTEX_SHADER,
+                FRAGMENT_SHADER);
+        programHandle = program.getHandle();
+        Log.i(TAG, "Using program " + programHandle + " (test pattern)");
+
+        positionLoc = GLES20.glGetAttribLocation(programHandle, "aPosition");
+        GlUtil.checkLocation(positionLoc, "aPosition");
+        textureCoordLoc = GLES20.glGetAttribLocation(programHandle, "aTextureCoord");
+        GlUtil.checkLocation(textureCoordLoc, "aTextureCoord");
+        mvpMatrixLoc = GLES20.glGetUniformLocation(programHandle, "uMVPMatrix");
+        GlUtil.checkLocation(mvpMatrixLoc, "uMVPMatrix");
+        uploadedMvpMatrix = program.getUniformShadow(mvpMatrixLoc);
+        patternLoc = GLES20.glGetUniformLocation(programHandle, "uPattern");
+        GlUtil.checkLocation(patternLoc, "uPattern");
+        frameLoc = GLES20.glGetUniformLocation(programHandle, "uFrame");
+        GlUtil.checkLocation(frameLoc, "uFrame");
+        noiseLevelsLoc = GLES20.glGetUniformLocation(programHandle, "uNoiseLevels");
+        GlUtil.checkLocation(noiseLevelsLoc, "uNoiseLevels");
+        sizeLoc = GLES20.glGetUniformLocation(programHandle, "uSize");
+        GlUtil.checkLocation(sizeLoc, "uSize");
+    }
+
+    public void setPattern(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Sets how much information the NOISE pattern carries, in bits per color channel: 0 is a
+     * flat gray frame, 8 is uniformly random.
+     */
+    public void setNoiseEntropyBits(float bits) {
+        if (bits < 0 || bits > 8) {
+            throw new IllegalArgumentException("Entropy must be between 0 and 8 bits");
+        }
+        noiseLevels = bits == 0 ? 0 : (float) Math.pow(2, bits);
+    }
+
+    /**
+     * Sets the frame number to draw.  Only the low {@link #BARCODE_BITS} bits are encoded.
+     */
+    public void setFrameNumber(long frameNumber) {
+        this.frameNumber = frameNumber;
+    }
+
+    /**
+     * Sets the size of the target, in pixels, so patterns scale per pixel.
+     */
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Releases the program.  The EGL context used to create it must be current.
+     */
+    public void release() {
+        ProgramCache.current().release(program);
+        program = null;
+        programHandle = -1;
+    }
+
+    /**
+     * Issues the draw call.  Same geometry arguments as {@link Texture2dProgram#draw}.
+     */
+    public void draw(float[] mvpMatrix, FloatBuffer vertexBuffer, int firstVertex,
+                     int vertexCount, int coordsPerVertex, int vertexStride,
+                     FloatBuffer texBuffer, int texStride) {
+        GlStateCache state = prepareDraw(mvpMatrix);
+
+        state.enableVertexAttribArrays((1 << positionLoc) | (1 << textureCoordLoc));
+        state.vertexAttribPointer(positionLoc, coordsPerVertex, vertexStride, vertexBuffer);
+        state.vertexAttribPointer(textureCoordLoc, 2, texStride, texBuffer);
+        GlUtil.checkGlError("glVertexAttribPointer");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, firstVertex, vertexCount);
+        GlUtil.checkGlError("glDrawArrays");
+    }
+
+    /**
+     * Issues the draw call for a prefab, from its buffer object.
+     */
+    public void draw(float[] mvpMatrix, Drawable2d drawable) {
+        GlStateCache state = prepareDraw(mvpMatrix);
+
+        state.bindGeometry(drawable, positionLoc, textureCoordLoc);
+        GlUtil.checkGlError("bindGeometry");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, drawable.getVertexCount());
+        GlUtil.checkGlError("glDrawArrays");
+    }
+
+    private GlStateCache prepareDraw(float[] mvpMatrix) {
+        GlUtil.checkGlError("draw start");
+
+        GlStateCache state = GlStateCache.current();
+        state.useProgram(programHandle);
+        GlUtil.checkGlError("glUseProgram");
+
+        state.uniformMatrix4fv(mvpMatrixLoc, mvpMatrix, uploadedMvpMatrix);
+        GLES20.glUniform1i(patternLoc, pattern.ordinal());
+        GLES20.glUniform1f(frameLoc, (float) (frameNumber & ((1L << BARCODE_BITS) - 1)));
+        GLES20.glUniform1f(noiseLevelsLoc, noiseLevels);
+        GLES20.glUniform2f(sizeLoc, width, height);
+        GlUtil.checkGlError("glUniform");
+        return state;
+    }
+}
@@ -20,6 +20,9 @@ import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.util.Log;
 
+import com.muneikh.metrics.MetricsRegistry;
+import com.muneikh.metrics.Timer;
+
 import java.nio.FloatBuffer;
 
 /**
@@ -29,7 +32,7 @@ public class Texture2dProgram {
     private static final String TAG = GlUtil.TAG;
 
     public enum ProgramType {
-        TEXTURE_2D, TEXTURE_EXT, TEXTURE_EXT_BW, TEXTURE_EXT_FILT
+        TEXTURE_2D, TEXTURE_EXT, TEXTURE_EXT_BW, TEXTURE_EXT_FILT, TEXTURE_2D_BW, TEXTURE_2D_FILT
     }
 
     // Simple vertex shader, used for all programs.
@@ -113,9 +116,14 @@ public class Texture2dProgram {
                     "    gl_FragColor = sum;\n" +
                     "}\n";
 
+    // The same effects on a GL_TEXTURE_2D, e.g. the output of an earlier FilterGraph pass.
+    private static final String FRAGMENT_SHADER_2D_BW = toTexture2d(FRAGMENT_SHADER_EXT_BW);
+    private static final String FRAGMENT_SHADER_2D_FILT = toTexture2d(FRAGMENT_SHADER_EXT_FILT);
+
     private ProgramType programType;
 
     // Handles to the GL program and various components of it.
+    private ProgramCache.Program program;
     private int programHandle;
     private int mvpMatrixLoc;
     private int texMatrixLoc;
@@ -130,38 +138,54 @@ public class Texture2dProgram {
     private float[] kernel = new float[KERNEL_SIZE];
     private float[] texOffset;
     private float colorAdjust;
+    private boolean kernelDirty;
+    private final Timer drawTimer;
+    // What the program's uniforms hold; shared with every user of the program.
+    private float[] uploadedMvpMatrix;
+    private float[] uploadedTexMatrix;
 
 
     /**
-     * Prepares the program in the current EGL context.
+     * Prepares the program in the current EGL context.  Instances of the same type share one
+     * GL program, through the context's {@link ProgramCache}.
      */
     public Texture2dProgram(ProgramType programType) {
         this.programType = programType;
+        drawTimer = MetricsRegistry.getDefault().timer("Texture2dProgram.draw " + programType);
 
+        String fragmentShader;
         switch (programType) {
             case TEXTURE_2D:
                 textureTarget = GLES20.GL_TEXTURE_2D;
-                programHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_2D);
+                fragmentShader = FRAGMENT_SHADER_2D;
                 break;
             case TEXTURE_EXT:
                 textureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
-                programHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXT);
+                fragmentShader = FRAGMENT_SHADER_EXT;
                 break;
             case TEXTURE_EXT_BW:
                 textureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
-                programHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXT_BW);
+                fragmentShader = FRAGMENT_SHADER_EXT_BW;
                 break;
             case TEXTURE_EXT_FILT:
                 textureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
-                programHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXT_FILT);
+                fragmentShader = FRAGMENT_SHADER_EXT_FILT;
+                break;
+            case TEXTURE_2D_BW:
+                textureTarget = GLES20.GL_TEXTURE_2D;
+                fragmentShader = FRAGMENT_SHADER_2D_BW;
+                break;
+            case TEXTURE_2D_FILT:
+                textureTarget = GLES20.GL_TEXTURE_2D;
+                fragmentShader = FRAGMENT_SHADER_2D_FILT;
                 break;
             default:
                 throw new RuntimeException("Unhandled type " + programType);
         }
-        if (programHandle == 0) {
-            throw new RuntimeException("Unable to create program");
-        }
-        Log.i(TAG, "Created program " + programHandle + " (" + programType + ")");
+        program = ProgramCache.current().acquire("Texture2dProgram-" + programType,
+                VERTEX_SHADER, fragmentShader);
+        programHandle = program.getHandle();
+        Log.i(TAG, "Using program " + programHandle + " (" + programType + ")");
 
         // get locations of attributes and uniforms
 
@@ -173,6 +197,8 @@ public class Texture2dProgram {
         GlUtil.checkLocation(mvpMatrixLoc, "uMVPMatrix");
         texMatrixLoc = GLES20.glGetUniformLocation(programHandle, "uTexMatrix");
         GlUtil.checkLocation(texMatrixLoc, "uTexMatrix");
+        uploadedMvpMatrix = program.getUniformShadow(mvpMatrixLoc);
+        uploadedTexMatrix = program.getUniformShadow(texMatrixLoc);
         kernelLoc = GLES20.glGetUniformLocation(programHandle, "uKernel");
         if (kernelLoc < 0) {
             // no kernel in this one
@@ -193,14 +219,14 @@ public class Texture2dProgram {
     }
 
     /**
-     * Releases the program.
+     * Releases the program; the GL program goes once no other instance uses it.
      * <p/>
      * The appropriate EGL context must be current (i.e. the one that was used to create
      * the program).
      */
     public void release() {
-        Log.i(TAG, "deleting program " + programHandle);
-        GLES20.glDeleteProgram(programHandle);
+        ProgramCache.current().release(program);
+        program = null;
         programHandle = -1;
     }
 
@@ -211,6 +237,19 @@ public class Texture2dProgram {
         return programType;
     }
 
+    /**
+     * Returns the texture target the program samples: GL_TEXTURE_2D or
+     * GL_TEXTURE_EXTERNAL_OES.
+     */
+    public int getTextureTarget() {
+        return textureTarget;
+    }
+
+    private static String toTexture2d(String externalShader) {
+        return externalShader.replace("#extension GL_OES_EGL_image_external : require\n", "")
+                .replace("samplerExternalOES", "sampler2D");
+    }
+
     /**
      * Creates a texture object suitable for use with this program.
      * <p/>
@@ -222,7 +261,7 @@ public class Texture2dProgram {
         GlUtil.checkGlError("glGenTextures");
 
         int texId = textures[0];
-        GLES20.glBindTexture(textureTarget, texId);
+        GlStateCache.current().bindTexture(textureTarget, texId);
         GlUtil.checkGlError("glBindTexture " + texId);
 
         GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
@@ -250,6 +289,7 @@ public class Texture2dProgram {
         }
         System.arraycopy(values, 0, kernel, 0, KERNEL_SIZE);
         colorAdjust = colorAdj;
+        kernelDirty = true;
         //Timber.i("filt kernel: " + Arrays.toString(kernel) + ", adj=" + colorAdj);
     }
 
@@ -266,11 +306,13 @@ public class Texture2dProgram {
                 -rw, 0f, 0f, 0f, rw, 0f,
                 -rw, rh, 0f, rh, rw, rh
         };
+        kernelDirty = true;
         //Timber.i("filt size: " + width + "x" + height + ": " + Arrays.toString(texOffset));
     }
 
     /**
-     * Issues the draw call.  Does the full setup on every call.
+     * Issues the draw call.  State that is already set, e.g. by the previous pass with this
+     * program, is left alone; see {@link GlStateCache}.
      *
      * @param mvpMatrix       The 4x4 projection matrix.
      * @param vertexBuffer    Buffer with vertex position data.
@@ -287,57 +329,67 @@ public class Texture2dProgram {
     public void draw(float[] mvpMatrix, FloatBuffer vertexBuffer, int firstVertex,
                      int vertexCount, int coordsPerVertex, int vertexStride,
                      float[] texMatrix, FloatBuffer texBuffer, int textureId, int texStride) {
+        long startNanos = drawTimer.start();
+        GlStateCache state = prepareDraw(mvpMatrix, texMatrix, textureId);
+
+        // Connect vertexBuffer to "aPosition", texBuffer to "aTextureCoord".
+        state.enableVertexAttribArrays((1 << positionLoc) | (1 << textureCoordLoc));
+        state.vertexAttribPointer(positionLoc, coordsPerVertex, vertexStride, vertexBuffer);
+        state.vertexAttribPointer(textureCoordLoc, 2, texStride, texBuffer);
+        GlUtil.checkGlError("glVertexAttribPointer");
+
+        // Draw the rect.  Everything stays bound for the next pass.
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, firstVertex, vertexCount);
+        GlUtil.checkGlError("glDrawArrays");
+        drawTimer.stop(startNanos);
+    }
+
+    /**
+     * Issues the draw call for a prefab, whose geometry stays in a buffer object (and, on
+     * GLES3, a vertex array object) instead of being sent from client memory on every draw.
+     */
+    public void draw(float[] mvpMatrix, Drawable2d drawable, float[] texMatrix, int textureId) {
+        long startNanos = drawTimer.start();
+        GlStateCache state = prepareDraw(mvpMatrix, texMatrix, textureId);
+
+        state.bindGeometry(drawable, positionLoc, textureCoordLoc);
+        GlUtil.checkGlError("bindGeometry");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, drawable.getVertexCount());
+        GlUtil.checkGlError("glDrawArrays");
+        drawTimer.stop(startNanos);
+    }
+
+    /**
+     * Sets the program, texture and uniforms, leaving the vertex attributes to the caller.
+     */
+    private GlStateCache prepareDraw(float[] mvpMatrix, float[] texMatrix, int textureId) {
         GlUtil.checkGlError("draw start");
+        GlStateCache state = GlStateCache.current();
 
         // Select the program.
-        GLES20.glUseProgram(programHandle);
+        state.useProgram(programHandle);
         GlUtil.checkGlError("glUseProgram");
 
         // Set the texture.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(textureTarget, textureId);
+        state.bindTexture(0, textureTarget, textureId);
 
         // Copy the model / view / projection matrix over.
-        GLES20.glUniformMatrix4fv(mvpMatrixLoc, 1, false, mvpMatrix, 0);
+        state.uniformMatrix4fv(mvpMatrixLoc, mvpMatrix, uploadedMvpMatrix);
         GlUtil.checkGlError("glUniformMatrix4fv");
 
         // Copy the texture transformation matrix over.
-        GLES20.glUniformMatrix4fv(texMatrixLoc, 1, false, texMatrix, 0);
+        state.uniformMatrix4fv(texMatrixLoc, texMatrix, uploadedTexMatrix);
         GlUtil.checkGlError("glUniformMatrix4fv");
 
-        // Enable the "aPosition" vertex attribute.
-        GLES20.glEnableVertexAttribArray(positionLoc);
-        GlUtil.checkGlError("glEnableVertexAttribArray");
-
-        // Connect vertexBuffer to "aPosition".
-        GLES20.glVertexAttribPointer(positionLoc, coordsPerVertex,
-                GLES20.GL_FLOAT, false, vertexStride, vertexBuffer);
-        GlUtil.checkGlError("glVertexAttribPointer");
-
-        // Enable the "aTextureCoord" vertex attribute.
-        GLES20.glEnableVertexAttribArray(textureCoordLoc);
-        GlUtil.checkGlError("glEnableVertexAttribArray");
-
-        // Connect texBuffer to "aTextureCoord".
-        GLES20.glVertexAttribPointer(textureCoordLoc, 2,
-                GLES20.GL_FLOAT, false, texStride, texBuffer);
-        GlUtil.checkGlError("glVertexAttribPointer");
-
-        // Populate the convolution kernel, if present.
-        if (kernelLoc >= 0) {
+        // Populate the convolution kernel, if present.  Another instance sharing the program
+        // may have uploaded its own.
+        if (kernelLoc >= 0 && (program.claimUniforms(this) || kernelDirty)) {
             GLES20.glUniform1fv(kernelLoc, KERNEL_SIZE, kernel, 0);
             GLES20.glUniform2fv(texOffsetLoc, KERNEL_SIZE, texOffset, 0);
             GLES20.glUniform1f(colorAdjustLoc, colorAdjust);
+            kernelDirty = false;
         }
-
-        // Draw the rect.
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, firstVertex, vertexCount);
-        GlUtil.checkGlError("glDrawArrays");
-
-        // Done -- disable vertex array, texture, and program.
-        GLES20.glDisableVertexAttribArray(positionLoc);
-        GLES20.glDisableVertexAttribArray(textureCoordLoc);
-        GLES20.glBindTexture(textureTarget, 0);
-        GLES20.glUseProgram(0);
+        return state;
     }
 }
@@ -0,0 +1,111 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES20;
+
+/**
+ * A GL_TEXTURE_2D color buffer attached to a framebuffer object, for rendering off screen.
+ * <p/>
+ * Must be created, used, and released with the same EGL context current.
+ */
+public class TextureFramebuffer {
+    private final int width;
+    private final int height;
+    private int textureId;
+    private int framebufferId;
+    private final int[] savedViewport = new int[4];
+
+    /**
+     * Allocates the texture and framebuffer.
+     */
+    public TextureFramebuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        int[] values = new int[1];
+        GLES20.glGenTextures(1, values, 0);
+        GlUtil.checkGlError("glGenTextures");
+        textureId = values[0];
+        GlStateCache state = GlStateCache.current();
+        state.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GlUtil.checkGlError("glTexParameter");
+
+        GLES20.glGenFramebuffers(1, values, 0);
+        GlUtil.checkGlError("glGenFramebuffers");
+        framebufferId = values[0];
+        state.bindFramebuffer(framebufferId);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureId, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        state.bindFramebuffer(0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            release();
+            throw new RuntimeException("Framebuffer not complete, status=0x"
+                    + Integer.toHexString(status));
+        }
+    }
+
+    /**
+     * Directs rendering into the texture and sets the viewport to cover it.  The previous
+     * viewport is restored by {@link #unbind()}.
+     */
+    public void bind() {
+        GlStateCache state = GlStateCache.current();
+        state.getViewport(savedViewport);
+        state.bindFramebuffer(framebufferId);
+        state.viewport(0, 0, width, height);
+    }
+
+    /**
+     * Directs rendering back to the window surface.
+     */
+    public void unbind() {
+        GlStateCache state = GlStateCache.current();
+        state.bindFramebuffer(0);
+        state.viewport(savedViewport[0], savedViewport[1], savedViewport[2], savedViewport[3]);
+    }
+
+    public int getTextureId() {
+        return textureId;
+    }
+
+    public int getFramebufferId() {
+        return framebufferId;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Deletes the texture and framebuffer.
+     */
+    public void release() {
+        int[] values = new int[1];
+        if (framebufferId > 0) {
+            values[0] = framebufferId;
+            GlStateCache.current().onFramebufferDeleted(framebufferId);
+            GLES20.glDeleteFramebuffers(1, values, 0);
+            framebufferId = -1;
+        }
+        if (textureId > 0) {
+            values[0] = textureId;
+            GlStateCache.current().onTextureDeleted(textureId);
+            GLES20.glDeleteTextures(1, values, 0);
+            textureId = -1;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.muneikh.gles;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.FloatBuffer;
+
+/**
+ * GL program that converts planar YUV frames, uploaded as one luminance texture per plane,
+ * to RGB while drawing.
+ */
+public class YuvTextureProgram {
+    private static final String TAG = GlUtil.TAG;
+
+    public enum Layout {
+        /**
+         * Y plane, then interleaved V/U at half resolution (uploaded as GL_LUMINANCE_ALPHA).
+         */
+        NV21,
+        /**
+         * Y plane, then U, then V, both at half resolution.
+         */
+        I420
+    }
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+                    "uniform mat4 uTexMatrix;\n" +
+                    "attribute vec4 aPosition;\n" +
+                    "attribute vec4 aTextureCoord;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "void main() {\n" +
+                    "    gl_Position = uMVPMatrix * aPosition;\n" +
+                    "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
+                    "}\n";
+
+    // BT.601 video range to RGB.
+    private static final String YUV_TO_RGB =
+            "    y = 1.1643 * (y - 0.0625);\n" +
+                    "    gl_FragColor = vec4(y + 1.5958 * v,\n" +
+                    "                        y - 0.39173 * u - 0.81290 * v,\n" +
+                    "                        y + 2.017 * u, 1.0);\n";
+
+    private static final String FRAGMENT_SHADER_NV21 =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture0;\n" +
+                    "uniform sampler2D sTexture1;\n" +
+                    "void main() {\n" +
+                    "    float y = texture2D(sTexture0, vTextureCoord).r;\n" +
+                    "    vec4 vu = texture2D(sTexture1, vTextureCoord);\n" +
+                    "    float v = vu.r - 0.5;\n" +
+                    "    float u = vu.a - 0.5;\n" +
+                    YUV_TO_RGB +
+                    "}\n";
+
+    private static final String FRAGMENT_SHADER_I420 =
+            "precision mediump float;\n" +
+                    "varying vec2 vTextureCoord;\n" +
+                    "uniform sampler2D sTexture0;\n" +
+                    "uniform sampler2D sTexture1;\n" +
+                    "uniform sampler2D sTexture2;\n" +
+                    "void main() {\n" +
+                    "    float y = texture2D(sTexture0, vTextureCoord).r;\n" +
+                    "    float u = texture2D(sTexture1, vTextureCoord).r - 0.5;\n" +
+                    "    float v = texture2D(sTexture2, vTextureCoord).r - 0.5;\n" +
+                    YUV_TO_RGB +
+                    "}\n";
+
+    private final Layout layout;
+    private ProgramCache.Program program;
+    private int programHandle;
+    private final int mvpMatrixLoc;
+    private final int texMatrixLoc;
+    private final int positionLoc;
+    private final int textureCoordLoc;
+    private final int[] samplerLocs;
+    private boolean samplersSet;
+    private final float[] uploadedMvpMatrix;
+    private final float[] uploadedTexMatrix;
+
+    /**
+     * Prepares the program in the current EGL context, sharing it through the
+     * {@link ProgramCache}.
+     */
+    public YuvTextureProgram(Layout layout) {
+        this.layout = layout;
+        String fragmentShader;
+        switch (layout) {
+            case NV21:
+                fragmentShader = FRAGMENT_SHADER_NV21;
+                samplerLocs = new int[2];
+                break;
+            case I420:
+                fragmentShader = FRAGMENT_SHADER_I420;
+                samplerLocs = new int[3];
+                break;
+            default:
+                throw new RuntimeException("Unhandled layout " + layout);
+        }
+        program = ProgramCache.current().acquire("YuvTextureProgram-" + layout, VERTEX_SHADER,
+                fragmentShader);
+        programHandle = program.getHandle();
+        Log.i(TAG, "Using program " + programHandle + " (" + layout + ")");
+
+        positionLoc = GLES20.glGetAttribLocation(programHandle, "aPosition");
+        GlUtil.checkLocation(positionLoc, "aPosition");
+        textureCoordLoc = GLES20.glGetAttribLocation(programHandle, "aTextureCoord");
+        GlUtil.checkLocation(textureCoordLoc, "aTextureCoord");
+        mvpMatrixLoc = GLES20.glGetUniformLocation(programHandle, "uMVPMatrix");
+        GlUtil.checkLocation(mvpMatrixLoc, "uMVPMatrix");
+        texMatrixLoc = GLES20.glGetUniformLocation(programHandle, "uTexMatrix");
+        GlUtil.checkLocation(texMatrixLoc, "uTexMatrix");
+        uploadedMvpMatrix = program.getUniformShadow(mvpMatrixLoc);
+        uploadedTexMatrix = program.getUniformShadow(texMatrixLoc);
+        for (int i = 0; i < samplerLocs.length; i++) {
+            samplerLocs[i] = GLES20.glGetUniformLocation(programHandle, "sTexture" + i);
+            GlUtil.checkLocation(samplerLocs[i], "sTexture" + i);
+        }
+    }
+
+    /**
+     * Returns the number of plane textures draw() expects.
+     */
+    public int getPlaneCount() {
+        return samplerLocs.length;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Releases the program.  The EGL context used to create it must be current.
+     */
+    public void release() {
+        ProgramCache.current().release(program);
+        program = null;
+        programHandle = -1;
+    }
+
+    /**
+     * Issues the draw call, binding one GL_TEXTURE_2D per plane to consecutive texture units.
+     * Same arguments as {@link Texture2dProgram#draw}, except for the plane textures.
+     */
+    public void draw(float[] mvpMatrix, FloatBuffer vertexBuffer, int firstVertex,
+                     int vertexCount, int coordsPerVertex, int vertexStride,
+                     float[] texMatrix, FloatBuffer texBuffer, int[] planeTextureIds, int texStride) {
+        GlStateCache state = prepareDraw(mvpMatrix, texMatrix, planeTextureIds);
+
+        state.enableVertexAttribArrays((1 << positionLoc) | (1 << textureCoordLoc));
+        state.vertexAttribPointer(positionLoc, coordsPerVertex, vertexStride, vertexBuffer);
+        state.vertexAttribPointer(textureCoordLoc, 2, texStride, texBuffer);
+        GlUtil.checkGlError("glVertexAttribPointer");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, firstVertex, vertexCount);
+        GlUtil.checkGlError("glDrawArrays");
+    }
+
+    /**
+     * Issues the draw call for a prefab, from its buffer object.
+     */
+    public void draw(float[] mvpMatrix, Drawable2d drawable, float[] texMatrix,
+                     int[] planeTextureIds) {
+        GlStateCache state = prepareDraw(mvpMatrix, texMatrix, planeTextureIds);
+
+        state.bindGeometry(drawable, positionLoc, textureCoordLoc);
+        GlUtil.checkGlError("bindGeometry");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, drawable.getVertexCount());
+        GlUtil.checkGlError("glDrawArrays");
+    }
+
+    private GlStateCache prepareDraw(float[] mvpMatrix, float[] texMatrix, int[] planeTextureIds) {
+        GlUtil.checkGlError("draw start");
+
+        GlStateCache state = GlStateCache.current();
+        state.useProgram(programHandle);
+        GlUtil.checkGlError("glUseProgram");
+
+        for (int i = 0; i < samplerLocs.length; i++) {
+            state.bindTexture(i, GLES20.GL_TEXTURE_2D, planeTextureIds[i]);
+            if (!samplersSet) {
+                GLES20.glUniform1i(samplerLocs[i], i);
+            }
+        }
+        samplersSet = true;
+
+        state.uniformMatrix4fv(mvpMatrixLoc, mvpMatrix, uploadedMvpMatrix);
+        state.uniformMatrix4fv(texMatrixLoc, texMatrix, uploadedTexMatrix);
+        GlUtil.checkGlError("glUniformMatrix4fv");
+        return state;
+    }
+}
@@ -4,17 +4,34 @@ import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import com.muneikh.gles.GlStateCache;
 import com.muneikh.gles.Size;
 import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlUtil;
 import com.muneikh.gles.Texture2dProgram;
+import com.muneikh.gles.TextureFramebuffer;
+import com.muneikh.inputsource.camera.CameraCapabilityCache;
+import com.muneikh.inputsource.camera.CameraDevice;
+import com.muneikh.inputsource.camera.CameraParameters;
+import com.muneikh.inputsource.camera.CameraProvider;
+import com.muneikh.inputsource.camera.HardwareCameraProvider;
 import com.muneikh.inputsource.exception.UnableToOpenCameraException;
-
+import com.muneikh.metrics.FrameLatencyTracker;
+import com.muneikh.metrics.Counter;
+import com.muneikh.metrics.Gauge;
+import com.muneikh.metrics.LatencyHistogram;
+import com.muneikh.metrics.MetricsRegistry;
+import com.muneikh.metrics.StartupTrace;
+import com.muneikh.metrics.Timer;
+
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -22,40 +39,87 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
-public class CameraTextureVideoInputSource implements TextureVideoInputSource {
+public class CameraTextureVideoInputSource implements FrameNotifyingInputSource,
+        LatencyTracedInputSource {
 
     private static final String TAG = "CameraTextureVideoInput";
     
     private static final int DESIRED_PREVIEW_FPS = 15;
     private static final int FRAME_PIXELS_COUNT = Size.FRAME_HEIGHT * Size.FRAME_WIDTH;
 
+    /**
+     * Where the camera is in its lifecycle, as seen by the camera thread.
+     */
+    public enum CameraState {
+        CLOSED, OPENING, OPENED, PREVIEWING, RELEASING
+    }
+
     private volatile boolean isFrontCamera;
+    // The facing asked for by the latest switchCamera() call.
+    private volatile boolean requestedFrontCamera;
     private Activity activity;
+    private final CameraProvider cameraProvider;
+    // Lives from the first onResume() until shutdown(), across pause and resume.
     private CameraHandler cameraHandler;
+    private volatile CameraState cameraState = CameraState.CLOSED;
     private TextureVideoInputSourceErrorListener cameraOpenErrorListener;
-    private Camera.Parameters cameraParameters;
+    private CameraParameters cameraParameters;
     private Size cameraPreviewSize;
     private float[] oldTransform;
     protected OnFrameOrientationChangedListener onFrameOrientationChangedListener;
     protected OnFrameSizeChangedListener onFrameSizeChangedListener;
+    private volatile OnNewFrameListener onNewFrameListener = OnNewFrameListener.EMPTY;
+    private FrameLatencyTracker latencyTracker;
     private volatile boolean ready;
     private volatile SurfaceTexture surfaceTexture;
     private int textureId;
     private float[] transform;
     private FullFrameRect fullScreen;
+    private final LatencyHistogram openLatency = new LatencyHistogram("camera open");
+    private final LatencyHistogram switchLatency = new LatencyHistogram("camera switch");
+    private volatile StartupTrace startupTrace = new StartupTrace("camera startup");
+    private final LatencyHistogram switchFirstFrameLatency =
+            new LatencyHistogram("camera switch to first frame");
+    // Preview size and fps range negotiated per facing, indexed by facing.
+    private final Size[] negotiatedSizes = new Size[2];
+    private final int[][] negotiatedFpsRanges = new int[2][];
+    private volatile CameraCapabilityCache capabilityCache;
+    private volatile boolean holdLastFrameOnSwitch;
+    private volatile long switchRequestNanos;
+    private volatile boolean snapshotRequested;
+    private volatile boolean switchPreviewStarted;
+    private volatile boolean switchFailed;
+    private volatile boolean switchCancelled;
+    private volatile boolean switching;
+    private TextureFramebuffer heldFrame;
+    private FullFrameRect heldFrameRect;
 
     private class CameraHandler extends Handler {
         private static final int SWITCH_CAMERA_MESSAGE = 1;
         private static final int OPEN_CAMERA_AND_START_PREVIEW_MESSAGE = 2;
-        private static final int RELEASE_CAMERA_MESSAGE = 3;
-        private static final int RELEASE_SURFACE_TEXTURE_MESSAGE = 4;
+        private static final int RELEASE_MESSAGE = 3;
         public static final int STOP_CAMERA_THREAD_MESSAGE = 5;
-
-        private volatile Camera camera;
-
-        class SizeComparator implements Comparator<Camera.Size> {
+        private static final int OPEN_CAMERA_MESSAGE = 6;
+        private static final int START_PREVIEW_MESSAGE = 7;
+        private static final int VALIDATE_CAPABILITIES_MESSAGE = 8;
+
+        private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+        private final Timer switchTimer = metrics.timer("CameraHandler.switchCamera");
+        private final Timer openAndStartTimer = metrics.timer("CameraHandler.openCameraAndStartPreview");
+        private final Timer releaseTimer = metrics.timer("CameraHandler.release");
+        private final Timer openTimer = metrics.timer("CameraHandler.openCamera");
+        private final Timer startPreviewTimer = metrics.timer("CameraHandler.startPreview");
+        private final Timer validateTimer = metrics.timer("CameraHandler.validateCapabilities");
+        private final Counter openErrors = metrics.counter("CameraHandler.openErrors");
+        private final Gauge stateGauge = metrics.gauge("CameraHandler.state");
+
+        private volatile CameraDevice camera;
+        // Set by an open that used or missed the capability cache; checked after the preview starts.
+        private Message pendingValidation;
+
+        class SizeComparator implements Comparator<Size> {
             @Override
-            public int compare(Camera.Size lhs, Camera.Size rhs) {
+            public int compare(Size lhs, Size rhs) {
                 return CameraTextureVideoInputSource.compareInts(Math.abs((lhs.width * lhs.height) - FRAME_PIXELS_COUNT), Math.abs((rhs.width * rhs.height) - FRAME_PIXELS_COUNT));
             }
         }
@@ -65,33 +129,65 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
         }
 
         public void handleMessage(Message msg) {
+            Timer timer = operationTimer(msg.what);
+            long startNanos = timer != null ? timer.start() : 0;
             switch (msg.what) {
                 case SWITCH_CAMERA_MESSAGE /*1*/:
                     if (ready) {
                         handleSwitchCamera();
+                    } else {
+                        // Dropped: the requested facing must match the camera again.
+                        requestedFrontCamera = isFrontCamera;
                     }
                     break;
                 case OPEN_CAMERA_AND_START_PREVIEW_MESSAGE /*2*/:
                     handleOpenCameraAndStartPreview();
                     break;
-                case RELEASE_CAMERA_MESSAGE /*3*/:
-                    removeMessages(OPEN_CAMERA_AND_START_PREVIEW_MESSAGE);
-                    removeMessages(SWITCH_CAMERA_MESSAGE);
-                    handleReleaseCamera();
-                    break;
-                case RELEASE_SURFACE_TEXTURE_MESSAGE /*4*/:
-                    removeMessages(OPEN_CAMERA_AND_START_PREVIEW_MESSAGE);
-                    removeMessages(SWITCH_CAMERA_MESSAGE);
-                    handleReleaseSurfaceTexture();
+                case RELEASE_MESSAGE /*3*/:
+                    handleRelease((PendingRelease) msg.obj);
                     break;
                 case STOP_CAMERA_THREAD_MESSAGE /*5*/:
                     getLooper().quitSafely();
                     break;
+                case OPEN_CAMERA_MESSAGE /*6*/:
+                    handleOpenCameraOnly();
+                    break;
+                case START_PREVIEW_MESSAGE /*7*/:
+                    startupTrace.end("waiting for camera");
+                    handleStartPreviewWhenOpen();
+                    break;
+                case VALIDATE_CAPABILITIES_MESSAGE /*8*/:
+                    handleValidateCapabilities(msg.arg1, msg.arg2, (Integer) msg.obj);
+                    break;
                 default:
             }
+            if (timer != null) {
+                timer.stop(startNanos);
+            }
+            stateGauge.set(cameraState.ordinal());
+        }
+
+        private Timer operationTimer(int what) {
+            switch (what) {
+                case SWITCH_CAMERA_MESSAGE:
+                    return switchTimer;
+                case OPEN_CAMERA_AND_START_PREVIEW_MESSAGE:
+                    return openAndStartTimer;
+                case RELEASE_MESSAGE:
+                    return releaseTimer;
+                case OPEN_CAMERA_MESSAGE:
+                    return openTimer;
+                case START_PREVIEW_MESSAGE:
+                    return startPreviewTimer;
+                case VALIDATE_CAPABILITIES_MESSAGE:
+                    return validateTimer;
+                default:
+                    return null;
+            }
         }
 
         private void handleUnableToOpenCameraException(Exception e) {
+            openErrors.increment();
             if (cameraOpenErrorListener != null) {
                 cameraOpenErrorListener.onError(e, !doesUserHaveCameraPermission());
             }
@@ -106,12 +202,37 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
             sendEmptyMessage(OPEN_CAMERA_AND_START_PREVIEW_MESSAGE);
         }
 
-        public void releaseCamera() {
-            sendEmptyMessage(RELEASE_CAMERA_MESSAGE);
+        /**
+         * Opens the camera and negotiates its parameters, without a preview texture yet.
+         */
+        public void openCamera() {
+            removeMessages(OPEN_CAMERA_MESSAGE);
+            sendEmptyMessage(OPEN_CAMERA_MESSAGE);
+        }
+
+        /**
+         * Starts the preview into the SurfaceTexture.  Messages run in order, so this waits
+         * for a pending {@link #openCamera()}: the camera queue is the point where camera and
+         * GL startup meet.
+         */
+        public void startPreview() {
+            removeMessages(START_PREVIEW_MESSAGE);
+            sendEmptyMessage(START_PREVIEW_MESSAGE);
         }
 
-        public void releaseSurfaceTexture() {
-            sendEmptyMessage(RELEASE_SURFACE_TEXTURE_MESSAGE);
+        /**
+         * Releases the camera, then the given SurfaceTexture.  Requests that haven't run yet
+         * belong to the session being released, so they are dropped here, not when the release
+         * runs: by then the queue may already hold the next session's.
+         */
+        public ReleaseHandle release(SurfaceTexture texture) {
+            removeMessages(OPEN_CAMERA_AND_START_PREVIEW_MESSAGE);
+            removeMessages(OPEN_CAMERA_MESSAGE);
+            removeMessages(START_PREVIEW_MESSAGE);
+            removeMessages(SWITCH_CAMERA_MESSAGE);
+            PendingRelease release = new PendingRelease(texture);
+            obtainMessage(RELEASE_MESSAGE, release).sendToTarget();
+            return release.handle;
         }
 
         public void stopCameraThread() {
@@ -129,17 +250,25 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
 
         @CameraThread
         private void handleSwitchCamera() {
-            boolean cameraFacing = true;
+            boolean front = requestedFrontCamera;
+            if (front == isFrontCamera) {
+                // An even number of switches arrived while we were busy.
+                switchCancelled = true;
+                return;
+            }
             try {
                 handleReleaseCamera();
-                handleOpenCamera(getCameraFacing(!isFrontCamera));
-                CameraTextureVideoInputSource cameraTextureVideoInputSource = CameraTextureVideoInputSource.this;
-                if (isFrontCamera) {
-                    cameraFacing = false;
-                }
-                cameraTextureVideoInputSource.isFrontCamera = cameraFacing;
+                handleOpenCamera(getCameraFacing(front));
+                isFrontCamera = front;
+                // Same SurfaceTexture and GL objects; only the camera changes.
                 handleStartPreview();
-            } catch (UnableToOpenCameraException e) {
+                switchLatency.record(System.nanoTime() - switchRequestNanos);
+                switchPreviewStarted = true;
+            } catch (Exception e) {
+                // Also a RuntimeException from starting the preview, which would otherwise end
+                // the camera thread.
+                requestedFrontCamera = isFrontCamera;
+                switchFailed = true;
                 handleUnableToOpenCameraException(e);
             }
         }
@@ -149,34 +278,100 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
             if (camera != null) {
                 throw new UnableToOpenCameraException("Camera already initialized.");
             }
+            cameraState = CameraState.OPENING;
+            long startNanos = System.nanoTime();
+            CameraCapabilityCache cache = capabilityCache;
+            int cameraIndex = getCameraIndexByFacing(cameraFacing);
+            int screenRotation = getScreenRotation();
+            CameraCapabilityCache.Entry cached = null;
             try {
-                camera = Camera.open(getCameraIndexByFacing(cameraFacing));
+                startupTrace.begin("camera open");
+                camera = cameraProvider.open(cameraIndex);
+                startupTrace.end("camera open");
                 Log.d(TAG, "Camera opened.");
 
-                cameraParameters = camera.getParameters();
-                Size size = choosePreviewSize(cameraParameters);
+                startupTrace.begin("parameters");
 
-                Log.w(TAG, "Camera using size: " + size);
-                setCameraPreviewSize(size);
-                cameraParameters.setRecordingHint(true);
-                int[] fpsRange = choosePreviewFpsRange(cameraParameters);
-                cameraParameters.setPreviewFpsRange(fpsRange[0], fpsRange[1]);
+                cameraParameters = camera.getParameters();
+                if (negotiatedSizes[cameraFacing] == null && cache != null) {
+                    cached = cache.get(cameraIndex, screenRotation);
+                    if (cached != null && !cached.isSupportedBy(cameraParameters)) {
+                        Log.w(TAG, "Cached camera config no longer supported: " + cached);
+                        cached = null;
+                    }
+                    if (cached != null) {
+                        Log.d(TAG, "Using cached camera config: " + cached);
+                        negotiatedSizes[cameraFacing] = cached.previewSize;
+                        negotiatedFpsRanges[cameraFacing] = cached.previewFpsRange;
+                    }
+                }
+                boolean negotiated = negotiatedSizes[cameraFacing] != null;
+                Size size = negotiated
+                        ? negotiatedSizes[cameraFacing] : choosePreviewSize(cameraParameters);
+                int[] fpsRange = negotiated
+                        ? negotiatedFpsRanges[cameraFacing] : choosePreviewFpsRange(cameraParameters);
                 try {
-                    camera.setParameters(cameraParameters);
-                    chooseOrientation(cameraFacing);
-                    logCameraParams(fpsRange);
+                    applyParameters(size, fpsRange);
                 } catch (Exception e) {
-                    throw new UnableToOpenCameraException("Can't set params.", e, cameraParameters.flatten());
+                    if (cached == null) {
+                        throw new UnableToOpenCameraException("Can't set params.", e,
+                                cameraParameters.flatten());
+                    }
+                    // The camera refused what worked before; negotiate from scratch.
+                    Log.w(TAG, "Camera refused cached config " + cached + "; negotiating", e);
+                    cache.remove(cameraIndex, screenRotation);
+                    cached = null;
+                    negotiated = false;
+                    cameraParameters = camera.getParameters();
+                    size = choosePreviewSize(cameraParameters);
+                    fpsRange = choosePreviewFpsRange(cameraParameters);
+                    try {
+                        applyParameters(size, fpsRange);
+                    } catch (Exception retryError) {
+                        negotiatedSizes[cameraFacing] = null;
+                        negotiatedFpsRanges[cameraFacing] = null;
+                        throw new UnableToOpenCameraException("Can't set params.", retryError,
+                                cameraParameters.flatten());
+                    }
+                }
+                camera.setDisplayOrientation(cached != null ? cached.displayOrientation
+                        : chooseDisplayOrientation(cameraFacing, screenRotation));
+                if (!negotiated) {
+                    logCameraParams(fpsRange);
+                    // Reopening this camera, e.g. switching back, skips the search.
+                    negotiatedSizes[cameraFacing] = size;
+                    negotiatedFpsRanges[cameraFacing] = fpsRange;
                 }
+                if (cache != null && (cached != null || !negotiated)) {
+                    pendingValidation = obtainMessage(VALIDATE_CAPABILITIES_MESSAGE,
+                            cameraIndex, screenRotation, cameraFacing);
+                }
+                startupTrace.end("parameters");
+                openLatency.record(System.nanoTime() - startNanos);
+                cameraState = CameraState.OPENED;
             } catch (Throwable t) {
+                // Never leave a half-configured camera for the preview to pick up.
+                if (camera != null) {
+                    camera.release();
+                    camera = null;
+                }
+                cameraState = CameraState.CLOSED;
                 throw new UnableToOpenCameraException("Unable to open camera", t);
             }
         }
 
+        private void applyParameters(Size size, int[] fpsRange) {
+            Log.w(TAG, "Camera using size: " + size);
+            setCameraPreviewSize(size);
+            cameraParameters.setRecordingHint(true);
+            cameraParameters.setPreviewFpsRange(fpsRange[0], fpsRange[1]);
+            camera.setParameters(cameraParameters);
+        }
+
         private int getCameraIndexByFacing(int cameraFacing) {
             Camera.CameraInfo info = new Camera.CameraInfo();
-            for (int i = 0; i < Camera.getNumberOfCameras(); i += 1) {
-                Camera.getCameraInfo(i, info);
+            for (int i = 0; i < cameraProvider.getNumberOfCameras(); i += 1) {
+                cameraProvider.getCameraInfo(i, info);
                 if (info.facing == cameraFacing) {
                     return i;
                 }
@@ -197,11 +392,55 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
 
         @CameraThread
         private void handleReleaseCamera() {
+            // Validation needs the camera it was posted for.
+            removeMessages(VALIDATE_CAPABILITIES_MESSAGE);
+            pendingValidation = null;
             if (camera != null) {
                 camera.stopPreview();
                 camera.release();
                 camera = null;
             }
+            cameraState = CameraState.CLOSED;
+        }
+
+        @CameraThread
+        private void handleRelease(PendingRelease release) {
+            cameraState = CameraState.RELEASING;
+            handleReleaseCamera();
+            if (release.surfaceTexture != null) {
+                release.surfaceTexture.release();
+            }
+            release.handle.complete();
+            Log.d(TAG, "Released in " + release.handle.getDurationNanos() / 1000000 + "ms");
+        }
+
+        @CameraThread
+        private void handleOpenCameraOnly() {
+            if (camera != null) {
+                // Resumed again before anything released it.
+                return;
+            }
+            try {
+                handleOpenCamera();
+            } catch (Exception e) {
+                handleUnableToOpenCameraException(e);
+            }
+        }
+
+        @CameraThread
+        private void handleStartPreviewWhenOpen() {
+            if (surfaceTexture == null) {
+                return;
+            }
+            try {
+                if (camera == null) {
+                    // The early open failed or the camera was released since; try again.
+                    handleOpenCamera();
+                }
+                handleStartPreview();
+            } catch (Exception e) {
+                handleUnableToOpenCameraException(e);
+            }
         }
 
         public void handleOpenCameraAndStartPreview() {
@@ -216,23 +455,23 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
         @CameraThread
         private void handleStartPreview() {
             try {
+                startupTrace.begin("start preview");
                 camera.setPreviewTexture(surfaceTexture);
                 camera.startPreview();
+                startupTrace.end("start preview");
+                startupTrace.begin("first frame");
+                cameraState = CameraState.PREVIEWING;
                 ready = true;
+                if (pendingValidation != null) {
+                    // Off the startup path: runs after everything queued so far.
+                    pendingValidation.sendToTarget();
+                    pendingValidation = null;
+                }
             } catch (IOException ioe) {
                 throw new RuntimeException(ioe);
             }
         }
 
-        @CameraThread
-        private void handleReleaseSurfaceTexture() {
-            if (surfaceTexture != null) {
-                surfaceTexture.release();
-                surfaceTexture = null;
-            }
-            ready = false;
-        }
-
         @CameraThread
         private void setCameraPreviewSize(Size size) {
             Log.d(TAG, "Camera size set to: " + size.width + "x" + size.height);
@@ -241,33 +480,62 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
             onFrameSizeChangedListener.onFrameSizeChanged(size);
         }
 
-        private Size choosePreviewSize(Camera.Parameters params) {
-            for (Camera.Size size : params.getSupportedPreviewSizes()) {
+        private Size choosePreviewSize(CameraParameters params) {
+            for (Size size : params.getSupportedPreviewSizes()) {
                 Log.d(TAG, "Camera supported size: " + size.width + "x" + size.height);
             }
-            List<Camera.Size> sizes = new ArrayList(params.getSupportedPreviewSizes());
+            List<Size> sizes = new ArrayList<Size>(params.getSupportedPreviewSizes());
             Collections.sort(sizes, new SizeComparator());
-            Camera.Size bestMatchSize = sizes.get(0);
+            Size bestMatchSize = sizes.get(0);
             return new Size(bestMatchSize.width, bestMatchSize.height);
         }
 
-        private void chooseOrientation(int facing) {
+        private int chooseDisplayOrientation(int facing, int screenRotationDegrees) {
             int resultRotation;
             Camera.CameraInfo info = new Camera.CameraInfo();
-            Camera.getCameraInfo(getCameraIndexByFacing(facing), info);
+            cameraProvider.getCameraInfo(getCameraIndexByFacing(facing), info);
             int cameraRotationDegree = info.orientation;
             Log.d(TAG, "Camera facing: " + info.facing + " orientation: " + cameraRotationDegree);
-            int screenRotationDegrees = getScreenRotation();
             if (info.facing == 1) {
                 resultRotation = (360 - ((cameraRotationDegree + screenRotationDegrees) % 360)) % 360;
             } else {
                 resultRotation = ((cameraRotationDegree - screenRotationDegrees) + 360) % 360;
             }
             Log.d(TAG, "Camera result rotation: " + resultRotation);
-            camera.setDisplayOrientation(resultRotation);
+            return resultRotation;
+        }
+
+        /**
+         * Negotiates the configuration from the open camera's parameters, as a cold start
+         * would, and stores it if the cache doesn't hold exactly that.  A changed result is
+         * used from the next open on.
+         */
+        @CameraThread
+        private void handleValidateCapabilities(int cameraIndex, int screenRotation, int facing) {
+            CameraCapabilityCache cache = capabilityCache;
+            if (camera == null || cache == null) {
+                return;
+            }
+            CameraCapabilityCache.Entry fresh = new CameraCapabilityCache.Entry(
+                    choosePreviewSize(cameraParameters), choosePreviewFpsRange(cameraParameters),
+                    chooseDisplayOrientation(facing, screenRotation));
+            CameraCapabilityCache.Entry stored = cache.get(cameraIndex, screenRotation);
+            if (fresh.sameAs(stored)) {
+                return;
+            }
+            if (stored != null) {
+                Log.w(TAG, "Cached camera config " + stored + " is stale, now " + fresh);
+            }
+            negotiatedSizes[facing] = fresh.previewSize;
+            negotiatedFpsRanges[facing] = fresh.previewFpsRange;
+            try {
+                cache.put(cameraIndex, screenRotation, fresh);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to cache camera config", e);
+            }
         }
 
-        private int[] choosePreviewFpsRange(Camera.Parameters params) {
+        private int[] choosePreviewFpsRange(CameraParameters params) {
             int[] maxRange = null;
             for (int[] range : params.getSupportedPreviewFpsRange()) {
                 if (maxRange == null || range[0] + range[1] > maxRange[0] + maxRange[1]) {
@@ -278,10 +546,30 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
         }
     }
 
+    private static class PendingRelease {
+        final SurfaceTexture surfaceTexture;
+        final ReleaseHandle handle = new ReleaseHandle();
+
+        PendingRelease(SurfaceTexture surfaceTexture) {
+            this.surfaceTexture = surfaceTexture;
+        }
+    }
+
     public CameraTextureVideoInputSource(Activity activity) {
+        this(activity, new HardwareCameraProvider());
+    }
+
+    /**
+     * Uses the given cameras instead of the device's, e.g. a FakeCameraProvider.
+     */
+    public CameraTextureVideoInputSource(Activity activity, CameraProvider cameraProvider) {
+        this.cameraProvider = cameraProvider;
         onFrameOrientationChangedListener = OnFrameOrientationChangedListener.EMPTY;
         onFrameSizeChangedListener = OnFrameSizeChangedListener.EMPTY;
         isFrontCamera = true;
+        requestedFrontCamera = true;
+        capabilityCache = new CameraCapabilityCache(
+                new File(activity.getCacheDir(), "camera-capabilities"), Build.FINGERPRINT);
         transform = new float[16];
         oldTransform = new float[16];
         ready = false;
@@ -290,21 +578,76 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
 
     @Override
     public void onGlContextCreated() {
+        // Runs while the camera thread opens the camera.
+        startupTrace.begin("gl setup");
         fullScreen = new FullFrameRect(
                 new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT));
         textureId = fullScreen.createTextureObject();
         surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+            @Override
+            public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                onNewFrameListener.onNewFrame();
+            }
+        });
+        startupTrace.end("gl setup");
         startPreview();
     }
 
+    /**
+     * Starts the preview on the camera thread, once the camera opened in onResume() is ready.
+     * Never blocks the GL thread.
+     */
     @Override
     public void startPreview() {
-        cameraHandler.handleOpenCameraAndStartPreview();
+        startupTrace.begin("waiting for camera");
+        cameraHandler.startPreview();
+    }
+
+    /**
+     * Returns the timing of the latest startup, from onResume() to the first frame, per stage.
+     * Camera open and parameter negotiation overlap with GL setup.
+     */
+    public StartupTrace getStartupTrace() {
+        return startupTrace;
     }
 
+    /**
+     * Switches between the front and back camera.  Requests that arrive while a switch is
+     * still being handled are coalesced: only the facing asked for last gets opened.  Does
+     * nothing until the preview runs.
+     */
     @Override
     public void switchCamera() {
-        cameraHandler.switchCamera();
+        if (!ready) {
+            return;
+        }
+        requestedFrontCamera = !requestedFrontCamera;
+        switchRequestNanos = System.nanoTime();
+        switchPreviewStarted = false;
+        if (holdLastFrameOnSwitch) {
+            // The GL thread copies the frame on screen, then starts the switch.
+            snapshotRequested = true;
+        } else {
+            cameraHandler.switchCamera();
+        }
+    }
+
+    /**
+     * Replaces the cache of negotiated camera configurations, or disables it with null, so
+     * every start negotiates from scratch.
+     */
+    public void setCapabilityCache(CameraCapabilityCache capabilityCache) {
+        this.capabilityCache = capabilityCache;
+    }
+
+    /**
+     * Keeps the last frame of the old camera on screen during a switch, until the new camera
+     * delivers its first frame, instead of whatever the SurfaceTexture shows meanwhile.
+     * Costs one offscreen copy per switch.
+     */
+    public void setHoldLastFrameOnSwitch(boolean holdLastFrameOnSwitch) {
+        this.holdLastFrameOnSwitch = holdLastFrameOnSwitch;
     }
 
     @Override
@@ -316,10 +659,57 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
         }
     }
 
+    /**
+     * Returns the time from Camera.open() until the parameters were set, per open.
+     */
+    public LatencyHistogram getOpenLatencyHistogram() {
+        return openLatency;
+    }
+
+    /**
+     * Returns the time from switchCamera() until the other camera's preview was started.
+     */
+    public LatencyHistogram getSwitchLatencyHistogram() {
+        return switchLatency;
+    }
+
+    /**
+     * Returns the time from switchCamera() until the first frame of the other camera was
+     * drawn.
+     */
+    public LatencyHistogram getSwitchFirstFrameLatencyHistogram() {
+        return switchFirstFrameLatency;
+    }
+
     public int getFrameRate() {
         return chooseFixedPreviewFps(cameraParameters, DESIRED_PREVIEW_FPS * 1000);
     }
 
+    /**
+     * Copies the frame on screen into an offscreen texture, drawn until the switch is done.
+     */
+    private void holdCurrentFrame() {
+        Size size = cameraPreviewSize;
+        if (size == null) {
+            return;
+        }
+        if (heldFrame == null || heldFrame.getWidth() != size.width
+                || heldFrame.getHeight() != size.height) {
+            if (heldFrame != null) {
+                heldFrame.release();
+            }
+            heldFrame = new TextureFramebuffer(size.width, size.height);
+        }
+        if (heldFrameRect == null) {
+            heldFrameRect = new FullFrameRect(
+                    new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        }
+        heldFrame.bind();
+        fullScreen.drawFrame(textureId, transform);
+        heldFrame.unbind();
+        switching = true;
+    }
+
     @Override
     public void checkOrientationChanged() {
         if (!Arrays.equals(transform, oldTransform)) {
@@ -354,25 +744,130 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
     @Override
     public void nextFrame() {
         if (surfaceTexture != null) {
+            long previousTimestamp = surfaceTexture.getTimestamp();
+            long latchStartNanos = System.nanoTime();
             surfaceTexture.updateTexImage();
+            GlStateCache.current().onExternalTextureLatched();
+            if (latencyTracker != null && surfaceTexture.getTimestamp() != previousTimestamp) {
+                // Camera timestamps are on the monotonic clock, as System.nanoTime() is.
+                latencyTracker.onFrameLatched(latchStartNanos, surfaceTexture.getTimestamp());
+            }
+            if (!startupTrace.isFinished() && surfaceTexture.getTimestamp() != 0) {
+                startupTrace.end("first frame");
+                startupTrace.finish();
+                Log.i(TAG, startupTrace.toString());
+            }
             surfaceTexture.getTransformMatrix(transform);
-            fullScreen.drawFrame(textureId, transform);
+            if (snapshotRequested) {
+                snapshotRequested = false;
+                holdCurrentFrame();
+                cameraHandler.switchCamera();
+            }
+            if (switchPreviewStarted && surfaceTexture.getTimestamp() != previousTimestamp) {
+                // First frame from the new camera.
+                switchPreviewStarted = false;
+                switching = false;
+                switchFirstFrameLatency.record(System.nanoTime() - switchRequestNanos);
+            }
+            if (switchFailed || switchCancelled) {
+                switchFailed = false;
+                switchCancelled = false;
+                switching = false;
+            }
+            if (latencyTracker != null) {
+                latencyTracker.beginDraw();
+            }
+            if (switching) {
+                heldFrameRect.drawFrame(heldFrame.getTextureId(), GlUtil.IDENTITY_MATRIX);
+            } else {
+                fullScreen.drawFrame(textureId, transform);
+            }
+            if (latencyTracker != null) {
+                latencyTracker.endDraw();
+            }
             checkOrientationChanged();
         }
     }
 
     @Override
     public void onResume() {
-        HandlerThread cameraThread = new HandlerThread(":CameraThread");
-        cameraThread.start();
-        cameraHandler = new CameraHandler(cameraThread.getLooper());
+        startupTrace = new StartupTrace("camera startup");
+        if (cameraHandler == null) {
+            HandlerThread cameraThread = new HandlerThread(":CameraThread");
+            cameraThread.start();
+            cameraHandler = new CameraHandler(cameraThread.getLooper());
+        }
+        // Get the slow part going before the GL context even exists.
+        cameraHandler.openCamera();
     }
 
+    @Override
+    public void releaseGlObjects() {
+        if (heldFrame != null) {
+            heldFrame.release();
+            heldFrame = null;
+        }
+        if (heldFrameRect != null) {
+            heldFrameRect.release(true);
+            heldFrameRect = null;
+        }
+        if (fullScreen != null) {
+            fullScreen.release(true);
+            fullScreen = null;
+        }
+        if (textureId != 0) {
+            // The SurfaceTexture goes with release(), on the camera thread.
+            GlUtil.deleteTexture(textureId);
+            textureId = 0;
+        }
+    }
+
+    /**
+     * Same as {@link #releaseAsync()}: never blocks on the camera.
+     */
     @Override
     public void release() {
-        cameraHandler.handleReleaseSurfaceTexture();
-        cameraHandler.handleReleaseCamera();
-        cameraHandler.stopCameraThread();
+        releaseAsync();
+    }
+
+    /**
+     * Releases the camera and the SurfaceTexture on the camera thread and returns at once.
+     * The camera thread stays up, so the next onResume() queues its open behind the release.
+     */
+    public ReleaseHandle releaseAsync() {
+        ready = false;
+        switching = false;
+        snapshotRequested = false;
+        requestedFrontCamera = isFrontCamera;
+        heldFrame = null;
+        heldFrameRect = null;
+        SurfaceTexture texture = surfaceTexture;
+        // The next onGlContextCreated() may make a new one before the release runs.
+        surfaceTexture = null;
+        if (cameraHandler == null) {
+            if (texture != null) {
+                texture.release();
+            }
+            ReleaseHandle handle = new ReleaseHandle();
+            handle.complete();
+            return handle;
+        }
+        return cameraHandler.release(texture);
+    }
+
+    /**
+     * Stops the camera thread once everything queued on it has run.  Call when the source is
+     * no longer needed, after release(); a later onResume() starts a new thread.
+     */
+    public void shutdown() {
+        if (cameraHandler != null) {
+            cameraHandler.stopCameraThread();
+            cameraHandler = null;
+        }
+    }
+
+    public CameraState getCameraState() {
+        return cameraState;
     }
 
     @Override
@@ -380,6 +875,21 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
         this.cameraOpenErrorListener = cameraOpenErrorListener;
     }
 
+    @Override
+    public void setOnNewFrameListener(OnNewFrameListener onNewFrameListener) {
+        this.onNewFrameListener = onNewFrameListener;
+    }
+
+    @Override
+    public void setFrameLatencyTracker(FrameLatencyTracker frameLatencyTracker) {
+        this.latencyTracker = frameLatencyTracker;
+    }
+
+    @Override
+    public boolean isNotifyingNewFrames() {
+        return true;
+    }
+
     @Override
     public void setOnFrameOrientationChangedListener(OnFrameOrientationChangedListener onFrameOrientationChangedListener) {
         this.onFrameOrientationChangedListener = onFrameOrientationChangedListener;
@@ -416,7 +926,7 @@ public class CameraTextureVideoInputSource implements TextureVideoInputSource {
         }
     }
 
-    public static int chooseFixedPreviewFps(Camera.Parameters parms, int desiredThousandFps) {
+    public static int chooseFixedPreviewFps(CameraParameters parms, int desiredThousandFps) {
         List<int[]> supported = parms.getSupportedPreviewFpsRange();
 
         for (int[] entry : supported) {
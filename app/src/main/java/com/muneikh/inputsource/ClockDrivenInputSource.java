@@ -0,0 +1,28 @@
+package com.muneikh.inputsource;
+
+/**
+ * An input source whose frames follow a {@link FrameClock} instead of the wall clock, so tests
+ * can ask for a given frame or time and get the same pixels on every run.
+ * <p/>
+ * With a virtual clock, nextFrame() presents the latest frame whose presentation time has been
+ * reached, blocking until it is ready rather than showing whatever happens to be decoded.
+ */
+public interface ClockDrivenInputSource extends TextureVideoInputSource {
+
+    /**
+     * Sets the clock frames are presented by.  Defaults to {@link FrameClock#SYSTEM}.  Must be
+     * called before the GL context is created.
+     */
+    void setFrameClock(FrameClock frameClock);
+
+    /**
+     * Makes the given frame the one presented at the clock's current time; later frames follow
+     * as the clock advances.
+     */
+    void seekToFrame(int frame);
+
+    /**
+     * Returns the index of the frame on screen, or -1 before the first one.
+     */
+    long getFrameIndex();
+}
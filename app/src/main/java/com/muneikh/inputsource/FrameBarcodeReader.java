@@ -0,0 +1,123 @@
+package com.muneikh.inputsource;
+
+import android.opengl.GLES20;
+
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.TestPatternProgram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the frame-number barcode drawn by {@link TestPatternProgram} back from rendered
+ * frames, and counts dropped, duplicated and out-of-order frames.
+ * <p/>
+ * Not thread-safe; use it on the thread that reads the frames.
+ */
+public class FrameBarcodeReader {
+    private static final long FRAME_NUMBER_MASK = (1L << TestPatternProgram.BARCODE_BITS) - 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private ByteBuffer row;
+    private long lastFrameNumber = -1;
+    private long frames;
+    private long dropped;
+    private long duplicated;
+    private long outOfOrder;
+
+    /**
+     * Decodes the frame number from one row of RGBA pixels crossing the barcode.
+     *
+     * @param rgbaRow Tightly packed RGBA pixels, starting at the buffer's position.
+     * @param width   Width of the row, in pixels.
+     */
+    public static long decode(ByteBuffer rgbaRow, int width) {
+        int base = rgbaRow.position();
+        long frameNumber = 0;
+        for (int bit = 0; bit < TestPatternProgram.BARCODE_BITS; bit++) {
+            // Sample the middle of each bar, away from filtered edges.
+            int x = (int) ((bit + 0.5f) * width / TestPatternProgram.BARCODE_BITS);
+            int offset = base + x * BYTES_PER_PIXEL;
+            int luma = (rgbaRow.get(offset) & 0xff) + (rgbaRow.get(offset + 1) & 0xff)
+                    + (rgbaRow.get(offset + 2) & 0xff);
+            if (luma > 3 * 127) {
+                frameNumber |= 1L << bit;
+            }
+        }
+        return frameNumber;
+    }
+
+    /**
+     * Reads the barcode from the framebuffer currently bound for reading, and records the
+     * frame number.
+     *
+     * @param width  Width of the framebuffer.
+     * @param height Height of the framebuffer.
+     * @return The frame number.
+     */
+    public long readFromFramebuffer(int width, int height) {
+        if (row == null || row.capacity() < width * BYTES_PER_PIXEL) {
+            row = ByteBuffer.allocateDirect(width * BYTES_PER_PIXEL).order(ByteOrder.nativeOrder());
+        }
+        int y = (int) (height * TestPatternProgram.BARCODE_HEIGHT_FRACTION / 2);
+        row.clear();
+        GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
+        GLES20.glReadPixels(0, y, width, 1, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, row);
+        GlUtil.checkGlError("glReadPixels");
+        long frameNumber = decode(row, width);
+        onFrameNumber(frameNumber);
+        return frameNumber;
+    }
+
+    /**
+     * Records a decoded frame number and compares it with the previous one.
+     */
+    public void onFrameNumber(long frameNumber) {
+        frames++;
+        if (lastFrameNumber >= 0) {
+            long delta = (frameNumber - lastFrameNumber) & FRAME_NUMBER_MASK;
+            if (delta == 0) {
+                duplicated++;
+            } else if (delta > FRAME_NUMBER_MASK / 2) {
+                outOfOrder++;
+            } else {
+                dropped += delta - 1;
+            }
+        }
+        lastFrameNumber = frameNumber;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of frame numbers skipped between consecutive reads.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Returns the number of reads that saw the same frame number as the read before.
+     */
+    public long getDuplicatedCount() {
+        return duplicated;
+    }
+
+    /**
+     * Returns the number of reads that went backwards.
+     */
+    public long getOutOfOrderCount() {
+        return outOfOrder;
+    }
+
+    public long getLastFrameNumber() {
+        return lastFrameNumber;
+    }
+
+    public void reset() {
+        lastFrameNumber = -1;
+        frames = dropped = duplicated = outOfOrder = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.muneikh.inputsource;
+
+/**
+ * Time base that decides which frame a {@link ClockDrivenInputSource} presents.
+ * <p/>
+ * {@link #SYSTEM} follows real time; a {@link VirtualFrameClock} only moves when told to, which
+ * makes nextFrame() deterministic and lets tests run faster than real time.
+ */
+public interface FrameClock {
+    FrameClock SYSTEM = new FrameClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * A frame counts as due when the clock is within this much of its presentation time, so
+     * advancing a virtual clock by a rounded frame duration (say 33 ms at 30 fps) still steps
+     * exactly one frame.
+     */
+    long PRESENTATION_TOLERANCE_NANOS = 1000000L;
+
+    /**
+     * Returns the current time in nanoseconds.  Only differences between values are
+     * meaningful.
+     */
+    long nanoTime();
+}
@@ -0,0 +1,17 @@
+package com.muneikh.inputsource;
+
+/**
+ * An input source that can tell when it has a new frame, so the renderer only has to draw
+ * then instead of on every vsync.
+ */
+public interface FrameNotifyingInputSource extends TextureVideoInputSource {
+
+    void setOnNewFrameListener(OnNewFrameListener onNewFrameListener);
+
+    /**
+     * Returns true while new frames are announced through the listener.  When false, e.g.
+     * because frames are produced on demand by nextFrame() itself, the source needs a draw on
+     * every vsync.
+     */
+    boolean isNotifyingNewFrames();
+}
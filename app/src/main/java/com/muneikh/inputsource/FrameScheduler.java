@@ -0,0 +1,173 @@
+package com.muneikh.inputsource;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asks for a draw, from a GLSurfaceView in RENDERMODE_WHEN_DIRTY or a {@link RenderThread}, on
+ * the vsync after a new frame arrives, instead of drawing at display rate.
+ * <p/>
+ * Sources that announce their frames ({@link FrameNotifyingInputSource}) are drawn once per
+ * frame; a 15fps camera costs 15 draws a second, not 60.  Other sources are drawn on every
+ * vsync, as with RENDERMODE_CONTINUOUSLY.
+ */
+public class FrameScheduler implements Choreographer.FrameCallback, OnNewFrameListener {
+
+    /**
+     * Whatever does the drawing, e.g. a GLSurfaceView or a {@link RenderThread}.
+     */
+    public interface RenderRequester {
+        void requestRender();
+    }
+
+    private final RenderRequester renderRequester;
+    private final TextureVideoInputSource source;
+    private final long lateThresholdNanos;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable armRunnable = new Runnable() {
+        @Override
+        public void run() {
+            arm();
+        }
+    };
+
+    private Choreographer choreographer;
+    // main thread
+    private boolean armed;
+    private volatile boolean running;
+    private final AtomicBoolean newFramePending = new AtomicBoolean();
+    private final AtomicBoolean redrawPending = new AtomicBoolean();
+    private volatile long newFrameNanos;
+
+    private final AtomicLong renderedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong lateFrames = new AtomicLong();
+
+    /**
+     * @param refreshRate Display refresh rate in Hz.  A frame drawn more than two refresh
+     *                    periods after it arrived counts as late.
+     */
+    public FrameScheduler(final GLSurfaceView surfaceView, TextureVideoInputSource source,
+                          float refreshRate) {
+        this(new RenderRequester() {
+            @Override
+            public void requestRender() {
+                surfaceView.requestRender();
+            }
+        }, source, refreshRate);
+    }
+
+    public FrameScheduler(RenderRequester renderRequester, TextureVideoInputSource source,
+                          float refreshRate) {
+        this.renderRequester = renderRequester;
+        this.source = source;
+        this.lateThresholdNanos = (long) (2 * 1000000000L / refreshRate);
+    }
+
+    /**
+     * Starts scheduling draws.  Must be called on the main thread.
+     */
+    public void start() {
+        choreographer = Choreographer.getInstance();
+        running = true;
+        arm();
+    }
+
+    /**
+     * Stops scheduling draws, e.g. while the view is paused.  Must be called on the main
+     * thread.
+     */
+    public void stop() {
+        running = false;
+        if (armed) {
+            choreographer.removeFrameCallback(this);
+            armed = false;
+        }
+        mainHandler.removeCallbacks(armRunnable);
+    }
+
+    @Override
+    public void onNewFrame() {
+        if (!newFramePending.compareAndSet(false, true)) {
+            // Replaced before it was drawn; the next draw latches the newer one.
+            skippedFrames.incrementAndGet();
+            return;
+        }
+        newFrameNanos = System.nanoTime();
+        mainHandler.post(armRunnable);
+    }
+
+    /**
+     * Draws on the next vsync like {@link #onNewFrame()}, but leaves the frame counters alone.
+     */
+    @Override
+    public void requestRedraw() {
+        if (redrawPending.compareAndSet(false, true)) {
+            mainHandler.post(armRunnable);
+        }
+    }
+
+    private void arm() {
+        if (running && !armed) {
+            choreographer.postFrameCallback(this);
+            armed = true;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        armed = false;
+        if (!running) {
+            return;
+        }
+        if (!isNotifying()) {
+            renderRequester.requestRender();
+            arm();
+        } else if (newFramePending.get() || redrawPending.get()) {
+            renderRequester.requestRender();
+        }
+    }
+
+    /**
+     * Called by the renderer on the GL thread before it draws.
+     */
+    public void onDrawFrame() {
+        redrawPending.set(false);
+        if (newFramePending.getAndSet(false)) {
+            renderedFrames.incrementAndGet();
+            if (System.nanoTime() - newFrameNanos > lateThresholdNanos) {
+                lateFrames.incrementAndGet();
+            }
+        } else if (!isNotifying()) {
+            renderedFrames.incrementAndGet();
+        }
+    }
+
+    private boolean isNotifying() {
+        return source instanceof FrameNotifyingInputSource
+                && ((FrameNotifyingInputSource) source).isNotifyingNewFrames();
+    }
+
+    public long getRenderedFrameCount() {
+        return renderedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames replaced by a newer one before they could be drawn.
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames drawn more than two refresh periods after they arrived.
+     */
+    public long getLateFrameCount() {
+        return lateFrames.get();
+    }
+}
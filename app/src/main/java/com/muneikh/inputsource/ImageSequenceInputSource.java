@@ -0,0 +1,342 @@
+package com.muneikh.inputsource;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlStateCache;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.Size;
+import com.muneikh.gles.Texture2dProgram;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays a directory of PNG or JPEG images, in file name order, as a looping frame sequence.
+ * <p/>
+ * Images are decoded ahead of time on a small worker pool into a ring of reusable Bitmaps,
+ * and only uploaded on the GL thread.  If the next image isn't decoded yet when nextFrame()
+ * runs, the previous frame stays on screen and a prefetch miss is counted; the render loop
+ * never waits for a decode.
+ */
+public class ImageSequenceInputSource implements TextureVideoInputSource {
+
+    private static final String TAG = "ImageSequenceInput";
+    private static final int INVALID = -1;
+
+    private static final int SLOT_EMPTY = 0;
+    private static final int SLOT_DECODING = 1;
+    private static final int SLOT_READY = 2;
+    private static final int SLOT_FAILED = 3;
+
+    /**
+     * One entry of the prefetch ring.  Frame n always goes into slot n % depth.
+     */
+    private static class Slot {
+        // guarded by the source
+        int state = SLOT_EMPTY;
+        long frame = INVALID;
+        Bitmap bitmap;
+    }
+
+    private final File[] files;
+    private final int prefetchDepth;
+    private final int workerCount;
+    private final Slot[] slots;
+    private Size frameSize;
+    private final float[] transform;
+    private float[] oldTransform;
+    private OnFrameOrientationChangedListener onFrameOrientationChangedListener;
+    private OnFrameSizeChangedListener onFrameSizeChangedListener;
+    private TextureVideoInputSourceErrorListener errorListener;
+    private volatile boolean ready;
+
+    private ExecutorService decodeExecutor;
+    private int generation;
+    private FullFrameRect fullScreen;
+    private int textureId;
+    private long frameCounter = INVALID;
+    private final AtomicLong prefetchMisses = new AtomicLong();
+    private final AtomicLong decodedFrames = new AtomicLong();
+
+    /**
+     * @param directory     Directory holding the images.
+     * @param prefetchDepth Number of frames decoded ahead (and Bitmaps kept in memory).
+     * @param workerCount   Number of decoding threads.
+     */
+    public ImageSequenceInputSource(File directory, int prefetchDepth, int workerCount) {
+        if (prefetchDepth < 1 || workerCount < 1) {
+            throw new IllegalArgumentException("Need at least one slot and one worker");
+        }
+        File[] images = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName().toLowerCase();
+                return file.isFile() && (name.endsWith(".png") || name.endsWith(".jpg")
+                        || name.endsWith(".jpeg"));
+            }
+        });
+        if (images == null || images.length == 0) {
+            throw new IllegalArgumentException("No PNG or JPEG images in " + directory);
+        }
+        Arrays.sort(images);
+        this.files = images;
+        this.prefetchDepth = Math.min(prefetchDepth, images.length);
+        this.workerCount = workerCount;
+        slots = new Slot[this.prefetchDepth];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        onFrameOrientationChangedListener = OnFrameOrientationChangedListener.EMPTY;
+        onFrameSizeChangedListener = OnFrameSizeChangedListener.EMPTY;
+        oldTransform = new float[16];
+        // Bitmaps are stored top row first, GL textures start at the bottom.
+        transform = new float[16];
+        Matrix.setIdentityM(transform, 0);
+        Matrix.translateM(transform, 0, 0f, 1f, 0f);
+        Matrix.scaleM(transform, 0, 1f, -1f, 1f);
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void onGlContextCreated() {
+        fullScreen = new FullFrameRect(
+                new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        startPreview();
+    }
+
+    @Override
+    public void startPreview() {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(files[0].getPath(), bounds);
+        frameSize = new Size(bounds.outWidth, bounds.outHeight);
+        textureId = GlUtil.createImageTexture(null, frameSize.width, frameSize.height,
+                GLES20.GL_RGBA);
+
+        decodeExecutor = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + count++);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        frameCounter = INVALID;
+        synchronized (this) {
+            generation++;
+            for (int i = 0; i < prefetchDepth; i++) {
+                slots[i].state = SLOT_EMPTY;
+                scheduleDecode(i);
+            }
+        }
+        onFrameSizeChangedListener.onFrameSizeChanged(frameSize);
+        ready = true;
+        Log.d(TAG, "Playing " + files.length + " images of " + frameSize + ", prefetching "
+                + prefetchDepth + " on " + workerCount + " threads");
+    }
+
+    // Must hold the lock.
+    private void scheduleDecode(final long frame) {
+        final Slot slot = slots[(int) (frame % prefetchDepth)];
+        final int scheduledGeneration = generation;
+        slot.state = SLOT_DECODING;
+        slot.frame = frame;
+        final Bitmap reuse = slot.bitmap;
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = decode(files[(int) (frame % files.length)], reuse);
+                synchronized (ImageSequenceInputSource.this) {
+                    if (scheduledGeneration != generation || slot.frame != frame) {
+                        return;
+                    }
+                    if (bitmap != null) {
+                        slot.bitmap = bitmap;
+                        slot.state = SLOT_READY;
+                    } else {
+                        slot.state = SLOT_FAILED;
+                    }
+                }
+                if (bitmap == null) {
+                    onDecodeFailed(files[(int) (frame % files.length)]);
+                } else {
+                    decodedFrames.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void onDecodeFailed(File file) {
+        if (errorListener != null) {
+            errorListener.onError(new IOException("Unable to decode " + file), false);
+        }
+    }
+
+    private Bitmap decode(File file, Bitmap reuse) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        options.inBitmap = reuse;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+            if (bitmap == null) {
+                Log.w(TAG, "Unable to decode " + file);
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap doesn't fit this image; decode into a fresh one.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    @Override
+    public void nextFrame() {
+        long next = frameCounter + 1;
+        Slot slot = slots[(int) (next % prefetchDepth)];
+        Bitmap bitmap = null;
+        synchronized (this) {
+            if (slot.frame == next && slot.state == SLOT_READY) {
+                bitmap = slot.bitmap;
+            } else if (slot.frame == next && slot.state == SLOT_FAILED) {
+                // Skip images that can't be decoded.
+                frameCounter = next;
+                scheduleDecode(next + prefetchDepth);
+            }
+        }
+        if (bitmap != null) {
+            // Only the GL thread frees slots, so the bitmap can't change under us.
+            GlStateCache.current().bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+            GlUtil.checkGlError("texSubImage2D");
+            frameCounter = next;
+            synchronized (this) {
+                scheduleDecode(next + prefetchDepth);
+            }
+        } else if (slot.frame == next) {
+            prefetchMisses.incrementAndGet();
+        }
+        fullScreen.drawFrame(textureId, transform);
+        checkOrientationChanged();
+    }
+
+    /**
+     * Returns the number of nextFrame() calls that found the next image still decoding, and
+     * repeated the previous frame.
+     */
+    public long getPrefetchMissCount() {
+        return prefetchMisses.get();
+    }
+
+    public long getDecodedFrameCount() {
+        return decodedFrames.get();
+    }
+
+    /**
+     * Returns the index, in the directory listing, of the image on screen.
+     */
+    public int getFrameIndex() {
+        return frameCounter < 0 ? INVALID : (int) (frameCounter % files.length);
+    }
+
+    @Override
+    public void checkOrientationChanged() {
+        if (!Arrays.equals(transform, oldTransform)) {
+            onFrameOrientationChangedListener.onFrameOrientationChanged();
+            System.arraycopy(transform, 0, oldTransform, 0, transform.length);
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public int getTextureId() {
+        return textureId;
+    }
+
+    @Override
+    public float[] getTextureTransform() {
+        return transform;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void releaseGlObjects() {
+        if (fullScreen != null) {
+            fullScreen.release(true);
+            fullScreen = null;
+        }
+        if (textureId != 0) {
+            GlUtil.deleteTexture(textureId);
+            textureId = 0;
+        }
+    }
+
+    @Override
+    public void release() {
+        ready = false;
+        if (decodeExecutor != null) {
+            decodeExecutor.shutdownNow();
+            decodeExecutor = null;
+        }
+        synchronized (this) {
+            // Stale decodes still running are ignored by generation.
+            generation++;
+            for (Slot slot : slots) {
+                slot.state = SLOT_EMPTY;
+                slot.frame = INVALID;
+                // A stale decode may still be writing into it.
+                slot.bitmap = null;
+            }
+        }
+    }
+
+    @Override
+    public void setCameraOpenErrorListener(TextureVideoInputSourceErrorListener textureVideoInputSourceErrorListener) {
+        this.errorListener = textureVideoInputSourceErrorListener;
+    }
+
+    @Override
+    public void setOnFrameOrientationChangedListener(OnFrameOrientationChangedListener onFrameOrientationChangedListener) {
+        this.onFrameOrientationChangedListener = onFrameOrientationChangedListener;
+    }
+
+    @Override
+    public void setOnFrameSizeChangedListener(OnFrameSizeChangedListener onFrameSizeChangedListener) {
+        this.onFrameSizeChangedListener = onFrameSizeChangedListener;
+    }
+
+    @Override
+    public void switchCamera() {
+        Log.d(TAG, "Switch Camera");
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return INVALID;
+    }
+}
@@ -0,0 +1,16 @@
+package com.muneikh.inputsource;
+
+import com.muneikh.metrics.FrameLatencyTracker;
+
+/**
+ * An input source that reports when it latches a new frame, and when it captured it, so the
+ * frame's age can be followed up to the swap.
+ */
+public interface LatencyTracedInputSource extends TextureVideoInputSource {
+
+    /**
+     * Sets the tracker the source reports latches and draw passes to, on the GL thread, or
+     * null to stop.
+     */
+    void setFrameLatencyTracker(FrameLatencyTracker frameLatencyTracker);
+}
@@ -0,0 +1,234 @@
+package com.muneikh.inputsource;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.muneikh.gles.EglCore;
+import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlStateCache;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.GpuTimer;
+import com.muneikh.gles.OffscreenSurface;
+import com.muneikh.gles.Texture2dProgram;
+import com.muneikh.metrics.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Renders an input source into a pbuffer as fast as it can, with no display and no vsync, to
+ * measure raw pipeline throughput.  Needs nothing but EGL, so it runs on an emulator with
+ * software GL, e.g. to catch performance regressions in CI.
+ * <p/>
+ * Each frame is nextFrame() on the source, then one extra pass over the source texture per
+ * selected {@link Texture2dProgram.ProgramType}, then a swap.  With stage timing on, every
+ * stage is bracketed by a {@link GpuTimer}; turn it off to measure frames/s without the
+ * stalls that adds.
+ */
+public class OffscreenBenchmark {
+    private static final String TAG = "OffscreenBenchmark";
+    private static final long READY_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * What one run measured.
+     */
+    public static class Result {
+        private final long frameCount;
+        private final long elapsedNanos;
+        private final LatencyHistogram sourceStage;
+        private final LatencyHistogram swapStage;
+        private final Map<Texture2dProgram.ProgramType, LatencyHistogram> programStages;
+
+        Result(long frameCount, long elapsedNanos, LatencyHistogram sourceStage,
+               LatencyHistogram swapStage,
+               Map<Texture2dProgram.ProgramType, LatencyHistogram> programStages) {
+            this.frameCount = frameCount;
+            this.elapsedNanos = elapsedNanos;
+            this.sourceStage = sourceStage;
+            this.swapStage = swapStage;
+            this.programStages = programStages;
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getFramesPerSecond() {
+            return elapsedNanos > 0 ? frameCount * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * Returns the time of the source's nextFrame(), latch and draw included.  Empty
+         * without stage timing.
+         */
+        public LatencyHistogram getSourceStage() {
+            return sourceStage;
+        }
+
+        public LatencyHistogram getSwapStage() {
+            return swapStage;
+        }
+
+        /**
+         * Returns the time of one full-frame pass with the given program, or null if it
+         * wasn't selected.
+         */
+        public LatencyHistogram getProgramStage(Texture2dProgram.ProgramType programType) {
+            return programStages.get(programType);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d frames in %.1fms: %.1f fps", frameCount,
+                    elapsedNanos / 1e6, getFramesPerSecond()));
+            sb.append("\n  ").append(sourceStage);
+            for (LatencyHistogram stage : programStages.values()) {
+                sb.append("\n  ").append(stage);
+            }
+            sb.append("\n  ").append(swapStage);
+            return sb.toString();
+        }
+    }
+
+    private final TextureVideoInputSource source;
+    private final int width;
+    private final int height;
+    private Texture2dProgram.ProgramType[] programTypes = new Texture2dProgram.ProgramType[0];
+    private boolean stageTiming = true;
+    private int warmupFrames = 10;
+
+    /**
+     * @param width  Width of the pbuffer.
+     * @param height Height of the pbuffer.
+     */
+    public OffscreenBenchmark(TextureVideoInputSource source, int width, int height) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Selects the programs to time on the source texture.  They must match its texture
+     * target: TEXTURE_EXT types for camera and video sources, TEXTURE_2D for generated ones.
+     */
+    public void setProgramTypes(Texture2dProgram.ProgramType... programTypes) {
+        this.programTypes = programTypes.clone();
+    }
+
+    /**
+     * Turns the per-stage GpuTimer on or off.  On by default.
+     */
+    public void setStageTiming(boolean stageTiming) {
+        this.stageTiming = stageTiming;
+    }
+
+    /**
+     * Sets the number of frames rendered, and not measured, before the run.
+     */
+    public void setWarmupFrames(int warmupFrames) {
+        this.warmupFrames = warmupFrames;
+    }
+
+    /**
+     * Creates an EGL context on the calling thread, runs the benchmark and tears it all down.
+     * Blocks; call it from a thread that has no EGL context of its own.
+     */
+    public Result run(int frameCount) {
+        EglCore eglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+        OffscreenSurface surface = new OffscreenSurface(eglCore, width, height);
+        Map<Texture2dProgram.ProgramType, FullFrameRect> rects =
+                new EnumMap<Texture2dProgram.ProgramType, FullFrameRect>(
+                        Texture2dProgram.ProgramType.class);
+        try {
+            surface.makeCurrent();
+            eglCore.setSwapInterval(0);
+            for (Texture2dProgram.ProgramType programType : programTypes) {
+                rects.put(programType, new FullFrameRect(new Texture2dProgram(programType)));
+            }
+            source.onResume();
+            source.onGlContextCreated();
+            awaitReady();
+
+            for (int i = 0; i < warmupFrames; i++) {
+                renderFrame(surface, rects, null, null, null, null);
+            }
+            LatencyHistogram sourceStage = new LatencyHistogram("source nextFrame");
+            LatencyHistogram swapStage = new LatencyHistogram("swap");
+            Map<Texture2dProgram.ProgramType, LatencyHistogram> programStages =
+                    new EnumMap<Texture2dProgram.ProgramType, LatencyHistogram>(
+                            Texture2dProgram.ProgramType.class);
+            for (Texture2dProgram.ProgramType programType : programTypes) {
+                programStages.put(programType, new LatencyHistogram(programType.toString()));
+            }
+            GpuTimer timer = stageTiming ? new GpuTimer() : null;
+
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < frameCount; i++) {
+                renderFrame(surface, rects, timer, sourceStage, programStages, swapStage);
+            }
+            // Count the frames as done once the GPU is.
+            GLES20.glFinish();
+            Result result = new Result(frameCount, System.nanoTime() - startNanos, sourceStage,
+                    swapStage, programStages);
+            Log.i(TAG, width + "x" + height + ": " + result);
+            return result;
+        } finally {
+            source.release();
+            for (FullFrameRect rect : rects.values()) {
+                rect.release(true);
+            }
+            surface.release();
+            eglCore.release();
+        }
+    }
+
+    private void awaitReady() {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        while (!source.isReady()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("Source not ready after " + READY_TIMEOUT_MILLIS + "ms");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for the source", e);
+            }
+        }
+    }
+
+    private void renderFrame(OffscreenSurface surface,
+                             Map<Texture2dProgram.ProgramType, FullFrameRect> rects,
+                             GpuTimer timer, LatencyHistogram sourceStage,
+                             Map<Texture2dProgram.ProgramType, LatencyHistogram> programStages,
+                             LatencyHistogram swapStage) {
+        if (timer != null) {
+            timer.begin();
+        }
+        source.nextFrame();
+        if (timer != null) {
+            sourceStage.record(timer.end());
+        }
+        for (Map.Entry<Texture2dProgram.ProgramType, FullFrameRect> entry : rects.entrySet()) {
+            if (timer != null) {
+                timer.begin();
+            }
+            entry.getValue().drawFrame(source.getTextureId(), source.getTextureTransform());
+            if (timer != null) {
+                programStages.get(entry.getKey()).record(timer.end());
+            }
+        }
+        GlStateCache.current().endFrame();
+        GlUtil.onFrameEnd();
+        long swapStartNanos = System.nanoTime();
+        surface.swapBuffers();
+        if (swapStage != null) {
+            swapStage.record(System.nanoTime() - swapStartNanos);
+        }
+    }
+}
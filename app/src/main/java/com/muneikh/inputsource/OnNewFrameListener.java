@@ -0,0 +1,26 @@
+package com.muneikh.inputsource;
+
+public interface OnNewFrameListener {
+    OnNewFrameListener EMPTY = new OnNewFrameListener() {
+        @Override
+        public void onNewFrame() {
+
+        }
+
+        @Override
+        public void requestRedraw() {
+
+        }
+    };
+
+    /**
+     * Called, on any thread, when a frame nextFrame() hasn't shown yet becomes available.
+     */
+    void onNewFrame();
+
+    /**
+     * Called, on any thread, when the source needs another nextFrame() without a new frame
+     * having arrived, e.g. to show the next queued one.
+     */
+    void requestRedraw();
+}
@@ -0,0 +1,382 @@
+package com.muneikh.inputsource;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import com.muneikh.gles.Drawable2d;
+import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlStateCache;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.Size;
+import com.muneikh.gles.Texture2dProgram;
+import com.muneikh.gles.YuvTextureProgram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Plays an uncompressed frame-sequence file: frames of a fixed size and pixel format stored
+ * back to back, top row first, with no header.
+ * <p/>
+ * The file is memory-mapped and every frame is uploaded with glTexSubImage2D straight from the
+ * mapping, so no codec and no intermediate copy is involved.  Each nextFrame() shows the next
+ * frame, which makes this a way to measure GL upload and draw throughput on its own.
+ */
+public class RawFrameSequenceInputSource implements TextureVideoInputSource {
+
+    private static final String TAG = "RawFrameSequenceInput";
+    private static final int INVALID = -1;
+    private static final long MAX_MAPPING_BYTES = 256L * 1024 * 1024;
+    private static final int STATS_LOG_INTERVAL_FRAMES = 300;
+
+    public enum PixelFormat {
+        RGBA, NV21, I420;
+
+        /**
+         * Returns the number of bytes of one frame.
+         */
+        public long getFrameBytes(int width, int height) {
+            long pixels = (long) width * height;
+            return this == RGBA ? pixels * 4 : pixels + 2L * (width / 2) * (height / 2);
+        }
+    }
+
+    private final File file;
+    private final Size frameSize;
+    private final PixelFormat pixelFormat;
+    private final long frameBytes;
+    private final float[] transform;
+    private float[] oldTransform;
+    private OnFrameOrientationChangedListener onFrameOrientationChangedListener;
+    private OnFrameSizeChangedListener onFrameSizeChangedListener;
+    private TextureVideoInputSourceErrorListener errorListener;
+    private volatile boolean ready;
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private long mappingStart;
+    private long mappingEnd;
+    private int frameCount;
+    private int frameIndex = INVALID;
+
+    private int[] planeTextureIds;
+    private FullFrameRect rgbaRect;
+    private YuvTextureProgram yuvProgram;
+    private final Drawable2d rectDrawable = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+
+    private long uploadedFrames;
+    private long uploadedBytes;
+    private long firstUploadNanos;
+    private long lastUploadNanos;
+
+    public RawFrameSequenceInputSource(File file, int width, int height, PixelFormat pixelFormat) {
+        if (pixelFormat != PixelFormat.RGBA && (width % 2 != 0 || height % 2 != 0)) {
+            throw new IllegalArgumentException("YUV frames need even dimensions");
+        }
+        this.file = file;
+        this.frameSize = new Size(width, height);
+        this.pixelFormat = pixelFormat;
+        this.frameBytes = pixelFormat.getFrameBytes(width, height);
+        onFrameOrientationChangedListener = OnFrameOrientationChangedListener.EMPTY;
+        onFrameSizeChangedListener = OnFrameSizeChangedListener.EMPTY;
+        oldTransform = new float[16];
+        // Frames are stored top row first, GL textures start at the bottom.
+        transform = new float[16];
+        Matrix.setIdentityM(transform, 0);
+        Matrix.translateM(transform, 0, 0f, 1f, 0f);
+        Matrix.scaleM(transform, 0, 1f, -1f, 1f);
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void onGlContextCreated() {
+        if (pixelFormat == PixelFormat.RGBA) {
+            rgbaRect = new FullFrameRect(
+                    new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        } else {
+            yuvProgram = new YuvTextureProgram(pixelFormat == PixelFormat.NV21
+                    ? YuvTextureProgram.Layout.NV21 : YuvTextureProgram.Layout.I420);
+        }
+        startPreview();
+    }
+
+    @Override
+    public void startPreview() {
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            channel = randomAccessFile.getChannel();
+            frameCount = (int) (channel.size() / frameBytes);
+            if (frameCount == 0) {
+                throw new IOException(file + " holds no complete " + pixelFormat + " frame of "
+                        + frameSize);
+            }
+            frameIndex = INVALID;
+            mapping = null;
+            createTextures();
+            onFrameSizeChangedListener.onFrameSizeChanged(frameSize);
+            ready = true;
+            Log.d(TAG, "Playing " + frameCount + " " + pixelFormat + " frames of " + frameSize);
+        } catch (IOException e) {
+            if (errorListener != null) {
+                errorListener.onError(e, false);
+            }
+            closeFile();
+        }
+    }
+
+    private void createTextures() throws IOException {
+        mapFrame(0);
+        int width = frameSize.width;
+        int height = frameSize.height;
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        switch (pixelFormat) {
+            case RGBA:
+                planeTextureIds = new int[]{
+                        GlUtil.createImageTexture(mapping, width, height, GLES20.GL_RGBA)
+                };
+                break;
+            case NV21:
+                planeTextureIds = new int[]{
+                        GlUtil.createImageTexture(mapping, width, height, GLES20.GL_LUMINANCE),
+                        GlUtil.createImageTexture(null, width / 2, height / 2,
+                                GLES20.GL_LUMINANCE_ALPHA)
+                };
+                break;
+            case I420:
+                planeTextureIds = new int[]{
+                        GlUtil.createImageTexture(mapping, width, height, GLES20.GL_LUMINANCE),
+                        GlUtil.createImageTexture(null, width / 2, height / 2, GLES20.GL_LUMINANCE),
+                        GlUtil.createImageTexture(null, width / 2, height / 2, GLES20.GL_LUMINANCE)
+                };
+                break;
+        }
+    }
+
+    /**
+     * Makes sure the given frame lies inside the current mapping.  Large files are mapped in
+     * windows of whole frames.
+     */
+    private void mapFrame(int index) throws IOException {
+        long start = index * frameBytes;
+        if (mapping != null && start >= mappingStart && start + frameBytes <= mappingEnd) {
+            return;
+        }
+        long framesPerWindow = Math.max(1, MAX_MAPPING_BYTES / frameBytes);
+        long length = Math.min(framesPerWindow * frameBytes, (frameCount - index) * frameBytes);
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        mappingStart = start;
+        mappingEnd = start + length;
+    }
+
+    @Override
+    public void nextFrame() {
+        if (!ready) {
+            return;
+        }
+        int index = (frameIndex + 1) % frameCount;
+        try {
+            uploadFrame(index);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to map frame " + index, e);
+            ready = false;
+            if (errorListener != null) {
+                errorListener.onError(e, false);
+            }
+            return;
+        }
+        frameIndex = index;
+
+        if (pixelFormat == PixelFormat.RGBA) {
+            rgbaRect.drawFrame(planeTextureIds[0], transform);
+        } else {
+            yuvProgram.draw(GlUtil.IDENTITY_MATRIX, rectDrawable, transform, planeTextureIds);
+        }
+        checkOrientationChanged();
+    }
+
+    private void uploadFrame(int index) throws IOException {
+        mapFrame(index);
+        int offset = (int) (index * frameBytes - mappingStart);
+        int width = frameSize.width;
+        int height = frameSize.height;
+        int chromaBytes = (width / 2) * (height / 2);
+
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        switch (pixelFormat) {
+            case RGBA:
+                uploadPlane(planeTextureIds[0], offset, width, height, GLES20.GL_RGBA);
+                break;
+            case NV21:
+                uploadPlane(planeTextureIds[0], offset, width, height, GLES20.GL_LUMINANCE);
+                uploadPlane(planeTextureIds[1], offset + width * height, width / 2, height / 2,
+                        GLES20.GL_LUMINANCE_ALPHA);
+                break;
+            case I420:
+                uploadPlane(planeTextureIds[0], offset, width, height, GLES20.GL_LUMINANCE);
+                uploadPlane(planeTextureIds[1], offset + width * height, width / 2, height / 2,
+                        GLES20.GL_LUMINANCE);
+                uploadPlane(planeTextureIds[2], offset + width * height + chromaBytes,
+                        width / 2, height / 2, GLES20.GL_LUMINANCE);
+                break;
+        }
+        GlUtil.checkGlError("glTexSubImage2D");
+
+        long now = System.nanoTime();
+        if (uploadedFrames == 0) {
+            firstUploadNanos = now;
+        }
+        lastUploadNanos = now;
+        uploadedFrames++;
+        uploadedBytes += frameBytes;
+        if (uploadedFrames % STATS_LOG_INTERVAL_FRAMES == 0) {
+            Log.d(TAG, String.format("Uploaded %d frames: %.1f fps, %.1f MB/s", uploadedFrames,
+                    getUploadFramesPerSecond(), getUploadMegabytesPerSecond()));
+        }
+    }
+
+    private void uploadPlane(int textureId, int offset, int width, int height, int format) {
+        // The GL bindings read from the buffer's position, so no slice is needed.
+        mapping.position(offset);
+        GlStateCache.current().bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format,
+                GLES20.GL_UNSIGNED_BYTE, mapping);
+    }
+
+    /**
+     * Returns the average number of frames uploaded per second since the first upload.
+     */
+    public double getUploadFramesPerSecond() {
+        long elapsed = lastUploadNanos - firstUploadNanos;
+        return elapsed > 0 ? (uploadedFrames - 1) * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Returns the average upload rate since the first upload, in megabytes (2^20 bytes) per
+     * second.
+     */
+    public double getUploadMegabytesPerSecond() {
+        return getUploadFramesPerSecond() * frameBytes / (1024.0 * 1024.0);
+    }
+
+    public long getUploadedFrameCount() {
+        return uploadedFrames;
+    }
+
+    public long getUploadedByteCount() {
+        return uploadedBytes;
+    }
+
+    /**
+     * Returns the index of the frame on screen.
+     */
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public void checkOrientationChanged() {
+        if (!Arrays.equals(transform, oldTransform)) {
+            onFrameOrientationChangedListener.onFrameOrientationChanged();
+            System.arraycopy(transform, 0, oldTransform, 0, transform.length);
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Returns the texture holding the frame (for YUV formats, the Y plane).
+     */
+    @Override
+    public int getTextureId() {
+        return planeTextureIds != null ? planeTextureIds[0] : 0;
+    }
+
+    @Override
+    public float[] getTextureTransform() {
+        return transform;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void releaseGlObjects() {
+        if (rgbaRect != null) {
+            rgbaRect.release(true);
+            rgbaRect = null;
+        }
+        if (yuvProgram != null) {
+            yuvProgram.release();
+            yuvProgram = null;
+        }
+        if (planeTextureIds != null) {
+            for (int planeTextureId : planeTextureIds) {
+                GlUtil.deleteTexture(planeTextureId);
+            }
+            planeTextureIds = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        ready = false;
+        planeTextureIds = null;
+        closeFile();
+    }
+
+    private void closeFile() {
+        mapping = null;
+        channel = null;
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to close " + file, e);
+            }
+            randomAccessFile = null;
+        }
+    }
+
+    @Override
+    public void setCameraOpenErrorListener(TextureVideoInputSourceErrorListener textureVideoInputSourceErrorListener) {
+        this.errorListener = textureVideoInputSourceErrorListener;
+    }
+
+    @Override
+    public void setOnFrameOrientationChangedListener(OnFrameOrientationChangedListener onFrameOrientationChangedListener) {
+        this.onFrameOrientationChangedListener = onFrameOrientationChangedListener;
+    }
+
+    @Override
+    public void setOnFrameSizeChangedListener(OnFrameSizeChangedListener onFrameSizeChangedListener) {
+        this.onFrameSizeChangedListener = onFrameSizeChangedListener;
+    }
+
+    @Override
+    public void switchCamera() {
+        Log.d(TAG, "Switch Camera");
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return INVALID;
+    }
+}
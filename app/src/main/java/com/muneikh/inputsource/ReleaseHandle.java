@@ -0,0 +1,36 @@
+package com.muneikh.inputsource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a release that runs on another thread, so the caller doesn't have to wait for it.
+ */
+public class ReleaseHandle {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final long requestNanos = System.nanoTime();
+    private volatile long completionNanos;
+
+    void complete() {
+        completionNanos = System.nanoTime();
+        done.countDown();
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits for the release to finish.  Returns false on timeout.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Returns the time the release took from the request, or -1 if it isn't done yet.
+     */
+    public long getDurationNanos() {
+        return isDone() ? completionNanos - requestNanos : -1;
+    }
+}
@@ -0,0 +1,376 @@
+package com.muneikh.inputsource;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.muneikh.gles.EglCore;
+import com.muneikh.gles.GlStateCache;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.OffscreenSurface;
+import com.muneikh.gles.WindowSurface;
+import com.muneikh.metrics.FrameLatencyTracker;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Draws an input source into a window surface on a thread of our own, instead of
+ * GLSurfaceView's.
+ * <p/>
+ * The EGL context is created once, with a 1x1 pbuffer to keep it current while there is no
+ * window, and lives until {@link #quit()}.  Losing the window (surfaceDestroyed()) only
+ * releases the EGL window surface, so GL objects survive and a new window is drawn to
+ * right away.  Use it as the SurfaceHolder.Callback of a plain SurfaceView, and as the
+ * FrameScheduler's {@link FrameScheduler.RenderRequester}.
+ * <p/>
+ * As the context outlives a pause, {@link #onPause()} has the source delete its GL objects;
+ * call it from the activity's onPause(), before the source's.
+ * <p/>
+ * Calls made before the thread takes messages are queued until it does.
+ */
+public class RenderThread extends Thread implements SurfaceHolder.Callback,
+        FrameScheduler.RenderRequester {
+
+    private static final String TAG = "RenderThread";
+
+    private static final int RESUME_MESSAGE = 1;
+    private static final int SURFACE_AVAILABLE_MESSAGE = 2;
+    private static final int SURFACE_CHANGED_MESSAGE = 3;
+    private static final int SURFACE_DESTROYED_MESSAGE = 4;
+    private static final int RENDER_MESSAGE = 5;
+    private static final int SWAP_INTERVAL_MESSAGE = 6;
+    private static final int QUIT_MESSAGE = 7;
+    private static final int PAUSE_MESSAGE = 8;
+
+    private final TextureVideoInputSource source;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final Object handlerLock = new Object();
+    // Messages sent before the thread ran; guarded by handlerLock.
+    private final List<Message> pendingMessages = new ArrayList<Message>();
+    // Set once no more messages will be handled; guarded by handlerLock.
+    private boolean quit;
+    private volatile Handler handler;
+    private FrameScheduler frameScheduler;
+    private volatile long presentationOffsetNanos;
+    private final FrameLatencyTracker frameLatencyTracker = new FrameLatencyTracker();
+
+    // Render thread only.
+    private EglCore eglCore;
+    private OffscreenSurface pbuffer;
+    private WindowSurface windowSurface;
+    private int swapInterval = 1;
+    private long swapCount;
+    private boolean resumed;
+
+    public RenderThread(TextureVideoInputSource source) {
+        super(TAG);
+        this.source = source;
+        if (source instanceof LatencyTracedInputSource) {
+            ((LatencyTracedInputSource) source).setFrameLatencyTracker(frameLatencyTracker);
+        }
+    }
+
+    /**
+     * Lets the scheduler's counters see every draw.  Set before start().
+     */
+    public void setFrameScheduler(FrameScheduler frameScheduler) {
+        this.frameScheduler = frameScheduler;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Looper.prepare();
+            eglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+            pbuffer = new OffscreenSurface(eglCore, 1, 1);
+            pbuffer.makeCurrent();
+            Handler looperHandler = new Handler() {
+                @Override
+                public void handleMessage(Message msg) {
+                    RenderThread.this.handleMessage(msg);
+                }
+            };
+            synchronized (handlerLock) {
+                for (Message msg : pendingMessages) {
+                    looperHandler.sendMessage(msg);
+                }
+                pendingMessages.clear();
+                handler = looperHandler;
+            }
+        } finally {
+            synchronized (handlerLock) {
+                if (handler == null) {
+                    // EGL setup failed: nothing will ever be handled.
+                    quit = true;
+                    pendingMessages.clear();
+                }
+            }
+            started.countDown();
+        }
+        Looper.loop();
+
+        // Sources delete their GL objects while the context is still there.
+        handlePause();
+        if (windowSurface != null) {
+            windowSurface.release();
+            windowSurface = null;
+        }
+        pbuffer.release();
+        eglCore.release();
+        Log.d(TAG, "Render thread done after " + swapCount + " swaps");
+    }
+
+    /**
+     * Starts the thread and waits until it takes messages, or failed to set up EGL.
+     */
+    public void startAndWait() {
+        start();
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleMessage(Message msg) {
+        switch (msg.what) {
+            case RESUME_MESSAGE:
+                handleResume();
+                break;
+            case PAUSE_MESSAGE:
+                handlePause();
+                ((CountDownLatch) msg.obj).countDown();
+                break;
+            case SURFACE_AVAILABLE_MESSAGE:
+                handleSurfaceAvailable((Surface) msg.obj);
+                break;
+            case SURFACE_CHANGED_MESSAGE:
+                GlStateCache.current().viewport(0, 0, msg.arg1, msg.arg2);
+                break;
+            case SURFACE_DESTROYED_MESSAGE:
+                handleSurfaceDestroyed();
+                ((CountDownLatch) msg.obj).countDown();
+                break;
+            case RENDER_MESSAGE:
+                handleRender();
+                break;
+            case SWAP_INTERVAL_MESSAGE:
+                swapInterval = msg.arg1;
+                if (windowSurface != null) {
+                    eglCore.setSwapInterval(swapInterval);
+                }
+                break;
+            case QUIT_MESSAGE:
+                Looper.myLooper().quit();
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Sends the message, or queues it if the thread doesn't take messages yet.
+     *
+     * @return false if the thread has quit, so the message will never be handled.
+     */
+    private boolean send(Message msg) {
+        synchronized (handlerLock) {
+            if (quit) {
+                msg.recycle();
+                return false;
+            }
+            if (msg.what == QUIT_MESSAGE) {
+                // Under the lock, so nothing that waits for an answer is sent after it.
+                quit = true;
+            }
+            if (handler == null) {
+                pendingMessages.add(msg);
+                return true;
+            }
+            return handler.sendMessage(msg);
+        }
+    }
+
+    /**
+     * Sends a message carrying a latch, and waits until the thread counts it down.  Returns
+     * at once if the thread has quit.
+     */
+    private void sendAndWait(int what) {
+        CountDownLatch done = new CountDownLatch(1);
+        if (!send(Message.obtain(null, what, done))) {
+            return;
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops queued messages of these kinds.  Returns false if the thread takes messages
+     * already, so there is no queue; true also once it has quit.
+     */
+    private boolean removePendingMessages(int... whats) {
+        synchronized (handlerLock) {
+            if (handler != null) {
+                return quit;
+            }
+            for (Iterator<Message> it = pendingMessages.iterator(); it.hasNext(); ) {
+                Message msg = it.next();
+                for (int what : whats) {
+                    if (msg.what == what) {
+                        it.remove();
+                        msg.recycle();
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private void handleResume() {
+        if (resumed) {
+            // Resumed without a pause: don't leak the previous session's objects.
+            source.releaseGlObjects();
+        }
+        // Sources create their per-session objects here; the context stays.
+        source.onGlContextCreated();
+        resumed = true;
+    }
+
+    private void handlePause() {
+        if (resumed) {
+            source.releaseGlObjects();
+            resumed = false;
+        }
+    }
+
+    private void handleSurfaceAvailable(Surface surface) {
+        if (windowSurface != null) {
+            windowSurface.release();
+        }
+        windowSurface = new WindowSurface(eglCore, surface, false);
+        windowSurface.makeCurrent();
+        eglCore.setSwapInterval(swapInterval);
+        GlStateCache.current().viewport(0, 0, windowSurface.getWidth(),
+                windowSurface.getHeight());
+    }
+
+    private void handleSurfaceDestroyed() {
+        if (windowSurface != null) {
+            pbuffer.makeCurrent();
+            windowSurface.release();
+            windowSurface = null;
+        }
+    }
+
+    private void handleRender() {
+        if (windowSurface == null || !resumed || !source.isReady()) {
+            return;
+        }
+        if (frameScheduler != null) {
+            frameScheduler.onDrawFrame();
+        }
+        source.nextFrame();
+        frameLatencyTracker.onFrameDrawn();
+        GlStateCache.current().endFrame();
+        GlUtil.onFrameEnd();
+        long offsetNanos = presentationOffsetNanos;
+        if (offsetNanos > 0) {
+            windowSurface.setPresentationTime(System.nanoTime() + offsetNanos);
+        }
+        frameLatencyTracker.beginSwap();
+        windowSurface.swapBuffers();
+        frameLatencyTracker.endSwap();
+        swapCount++;
+    }
+
+    /**
+     * Calls the source's onGlContextCreated(), as GLSurfaceView does on every resume.  Call
+     * after the source's onResume().
+     */
+    public void onResume() {
+        send(Message.obtain(null, RESUME_MESSAGE));
+    }
+
+    /**
+     * Has the source delete its GL objects, and waits until it did.  Call before the source's
+     * onPause() and release(); nothing is drawn until the next {@link #onResume()}.
+     */
+    public void onPause() {
+        if (removePendingMessages(RESUME_MESSAGE)) {
+            // Nothing was created yet, or quit() released it.
+            return;
+        }
+        sendAndWait(PAUSE_MESSAGE);
+    }
+
+    /**
+     * Sets how many vsync periods each swap waits for: 1 (the default) is vsync-locked, 0
+     * trades tearing for latency.
+     */
+    public void setSwapInterval(int interval) {
+        send(Message.obtain(null, SWAP_INTERVAL_MESSAGE, interval, 0));
+    }
+
+    /**
+     * Asks the compositor to show each frame this long after it was drawn, through
+     * EglSurfaceBase.setPresentationTime(), so latency is the same for every frame.  0 (the
+     * default) shows frames as soon as possible.
+     */
+    public void setPresentationOffsetNanos(long offsetNanos) {
+        presentationOffsetNanos = offsetNanos;
+    }
+
+    /**
+     * Returns the per-frame latency, from capture to the end of eglSwapBuffers().
+     */
+    public FrameLatencyTracker getFrameLatencyTracker() {
+        return frameLatencyTracker;
+    }
+
+    @Override
+    public void requestRender() {
+        if (!removePendingMessages(RENDER_MESSAGE)) {
+            handler.removeMessages(RENDER_MESSAGE);
+        }
+        send(Message.obtain(null, RENDER_MESSAGE));
+    }
+
+    /**
+     * Ends the thread once queued messages have run, releasing the source's GL objects and
+     * EGL.  Later calls do nothing.
+     */
+    public void quit() {
+        send(Message.obtain(null, QUIT_MESSAGE));
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        send(Message.obtain(null, SURFACE_AVAILABLE_MESSAGE, holder.getSurface()));
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        send(Message.obtain(null, SURFACE_CHANGED_MESSAGE, width, height));
+    }
+
+    /**
+     * Waits until the EGL window surface is released: the Surface is gone once this returns.
+     */
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        if (removePendingMessages(SURFACE_AVAILABLE_MESSAGE, SURFACE_CHANGED_MESSAGE)) {
+            // The thread never saw the Surface, or is done with it.
+            return;
+        }
+        sendAndWait(SURFACE_DESTROYED_MESSAGE);
+    }
+}
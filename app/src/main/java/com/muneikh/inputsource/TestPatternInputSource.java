@@ -0,0 +1,229 @@
+package com.muneikh.inputsource;
+
+import android.util.Log;
+
+import com.muneikh.gles.Drawable2d;
+import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.Size;
+import com.muneikh.gles.Texture2dProgram;
+import com.muneikh.gles.TestPatternProgram;
+import com.muneikh.gles.TextureFramebuffer;
+
+import java.util.Arrays;
+
+/**
+ * Generates frames on the GPU with {@link TestPatternProgram}: no decoding and no file I/O.
+ * <p/>
+ * Frames are rendered into an offscreen texture of the configured size, then drawn to the
+ * screen like any other source, so the renderer and the Texture2dProgram filters can be loaded
+ * at any resolution.  Each frame carries its frame number as a barcode, which
+ * {@link FrameBarcodeReader} can read back to detect dropped or duplicated frames.
+ * <p/>
+ * With a frame rate set, frame n is presented n / fps seconds after the start of the
+ * {@link FrameClock}, so a virtual clock gives the same frame sequence on every run.
+ */
+public class TestPatternInputSource implements ClockDrivenInputSource {
+
+    private static final String TAG = "TestPatternInputSource";
+    private static final int INVALID = -1;
+
+    private final Size frameSize;
+    private final int framesPerSecond;
+    private TestPatternProgram.Pattern pattern = TestPatternProgram.Pattern.GRADIENT;
+    private float noiseEntropyBits = 8f;
+    private final float[] transform;
+    private float[] oldTransform;
+    private OnFrameOrientationChangedListener onFrameOrientationChangedListener;
+    private OnFrameSizeChangedListener onFrameSizeChangedListener;
+    private volatile boolean ready;
+
+    private TestPatternProgram patternProgram;
+    private TextureFramebuffer framebuffer;
+    private FullFrameRect fullScreen;
+    private final Drawable2d rectDrawable = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+    private FrameClock frameClock = FrameClock.SYSTEM;
+    private long clockOriginNanos;
+    private long frameNumber = INVALID;
+
+    /**
+     * @param frameSize       Size of the generated frames.
+     * @param framesPerSecond Rate at which the frame number advances with the clock, or 0 to
+     *                        produce a new frame on every nextFrame() call.
+     */
+    public TestPatternInputSource(Size frameSize, int framesPerSecond) {
+        this.frameSize = frameSize;
+        this.framesPerSecond = framesPerSecond;
+        onFrameOrientationChangedListener = OnFrameOrientationChangedListener.EMPTY;
+        onFrameSizeChangedListener = OnFrameSizeChangedListener.EMPTY;
+        transform = GlUtil.IDENTITY_MATRIX.clone();
+        oldTransform = new float[16];
+    }
+
+    /**
+     * Selects the pattern.  Can be changed at any time.
+     */
+    public void setPattern(TestPatternProgram.Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Sets the information content of the NOISE pattern, from 0 (flat) to 8 (uniformly random)
+     * bits per color channel.  Can be changed at any time.
+     */
+    public void setNoiseEntropyBits(float bits) {
+        if (bits < 0 || bits > 8) {
+            throw new IllegalArgumentException("Entropy must be between 0 and 8 bits");
+        }
+        this.noiseEntropyBits = bits;
+    }
+
+    @Override
+    public void setFrameClock(FrameClock frameClock) {
+        this.frameClock = frameClock;
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void onGlContextCreated() {
+        patternProgram = new TestPatternProgram();
+        patternProgram.setSize(frameSize.width, frameSize.height);
+        framebuffer = new TextureFramebuffer(frameSize.width, frameSize.height);
+        fullScreen = new FullFrameRect(
+                new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        startPreview();
+    }
+
+    @Override
+    public void startPreview() {
+        clockOriginNanos = frameClock.nanoTime();
+        frameNumber = INVALID;
+        onFrameSizeChangedListener.onFrameSizeChanged(frameSize);
+        ready = true;
+        Log.d(TAG, "Generating " + pattern + " at " + frameSize
+                + (framesPerSecond > 0 ? " @" + framesPerSecond + "fps" : ", one frame per draw"));
+    }
+
+    @Override
+    public void nextFrame() {
+        long next;
+        if (framesPerSecond > 0) {
+            long elapsedNanos = frameClock.nanoTime() - clockOriginNanos
+                    + FrameClock.PRESENTATION_TOLERANCE_NANOS;
+            next = Math.max(0, elapsedNanos * framesPerSecond / 1000000000L);
+        } else {
+            next = frameNumber + 1;
+        }
+        if (next != frameNumber) {
+            frameNumber = next;
+            renderPattern();
+        }
+        fullScreen.drawFrame(framebuffer.getTextureId(), transform);
+        checkOrientationChanged();
+    }
+
+    private void renderPattern() {
+        patternProgram.setPattern(pattern);
+        patternProgram.setNoiseEntropyBits(noiseEntropyBits);
+        patternProgram.setFrameNumber(frameNumber);
+        framebuffer.bind();
+        patternProgram.draw(GlUtil.IDENTITY_MATRIX, rectDrawable);
+        framebuffer.unbind();
+    }
+
+    @Override
+    public void seekToFrame(int frame) {
+        if (framesPerSecond > 0) {
+            clockOriginNanos = frameClock.nanoTime() - frame * 1000000000L / framesPerSecond;
+        } else {
+            frameNumber = frame - 1;
+        }
+    }
+
+    /**
+     * Returns the number of the frame on screen, as encoded in its barcode.
+     */
+    @Override
+    public long getFrameIndex() {
+        return frameNumber;
+    }
+
+    @Override
+    public void checkOrientationChanged() {
+        if (!Arrays.equals(transform, oldTransform)) {
+            onFrameOrientationChangedListener.onFrameOrientationChanged();
+            System.arraycopy(transform, 0, oldTransform, 0, transform.length);
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public int getTextureId() {
+        return framebuffer != null ? framebuffer.getTextureId() : 0;
+    }
+
+    @Override
+    public float[] getTextureTransform() {
+        return transform;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void releaseGlObjects() {
+        if (patternProgram != null) {
+            patternProgram.release();
+        }
+        if (framebuffer != null) {
+            framebuffer.release();
+        }
+        if (fullScreen != null) {
+            fullScreen.release(true);
+        }
+        patternProgram = null;
+        framebuffer = null;
+        fullScreen = null;
+    }
+
+    @Override
+    public void release() {
+        ready = false;
+        patternProgram = null;
+        framebuffer = null;
+        fullScreen = null;
+    }
+
+    @Override
+    public void setCameraOpenErrorListener(TextureVideoInputSourceErrorListener textureVideoInputSourceErrorListener) {
+    }
+
+    @Override
+    public void setOnFrameOrientationChangedListener(OnFrameOrientationChangedListener onFrameOrientationChangedListener) {
+        this.onFrameOrientationChangedListener = onFrameOrientationChangedListener;
+    }
+
+    @Override
+    public void setOnFrameSizeChangedListener(OnFrameSizeChangedListener onFrameSizeChangedListener) {
+        this.onFrameSizeChangedListener = onFrameSizeChangedListener;
+    }
+
+    @Override
+    public void switchCamera() {
+        Log.d(TAG, "Switch Camera");
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return INVALID;
+    }
+}
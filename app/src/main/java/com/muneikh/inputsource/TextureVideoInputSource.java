@@ -20,6 +20,13 @@ public interface TextureVideoInputSource {
 
     void onGlContextCreated();
 
+    /**
+     * Deletes the GL objects the source made since onGlContextCreated().  Called on the GL
+     * thread, before {@link #release()}, by renderers whose EGL context outlives a pause, e.g.
+     * {@link RenderThread}.  GLSurfaceView destroys its context instead.
+     */
+    void releaseGlObjects();
+
     void onResume();
 
     void release();
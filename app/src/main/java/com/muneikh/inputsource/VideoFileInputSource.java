@@ -3,70 +3,824 @@ package com.muneikh.inputsource;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.SurfaceTexture;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
+import android.opengl.Matrix;
 import android.util.Log;
 import android.view.Surface;
 
+import com.muneikh.gles.GlStateCache;
 import com.muneikh.gles.Size;
 import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlUtil;
 import com.muneikh.gles.Texture2dProgram;
+import com.muneikh.gles.TextureFramebuffer;
+import com.muneikh.inputsource.cache.CachedClip;
+import com.muneikh.inputsource.cache.ClipPlayer;
+import com.muneikh.inputsource.cache.ClipRecorder;
+import com.muneikh.inputsource.cache.DecodedFrameCache;
+import com.muneikh.inputsource.decoder.FramePacer;
+import com.muneikh.inputsource.decoder.LoopGapStats;
+import com.muneikh.inputsource.decoder.OnDemandFramePacer;
+import com.muneikh.inputsource.decoder.QueueingFramePacer;
+import com.muneikh.inputsource.decoder.RealtimeFramePacer;
+import com.muneikh.inputsource.decoder.VideoDecoder;
+import com.muneikh.inputsource.mp4.SampleIndexStore;
+import com.muneikh.inputsource.mp4.SampleTable;
+import com.muneikh.inputsource.queue.FrameQueue;
+import com.muneikh.metrics.Counter;
+import com.muneikh.metrics.FrameLatencyTracker;
+import com.muneikh.metrics.Gauge;
+import com.muneikh.metrics.MetricsRegistry;
+import com.muneikh.metrics.Timer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
-public class VideoFileInputSource implements TextureVideoInputSource, MediaPlayer.OnPreparedListener {
+/**
+ * Plays video files from the app's assets as if they came from a camera.
+ * <p/>
+ * Driven by a virtual {@link FrameClock}, every nextFrame() presents exactly the frame whose
+ * time stamp the clock has reached: it steps the decoder forward, or seeks when the target lies
+ * behind the current frame or past the next keyframe.
+ */
+public class VideoFileInputSource implements ClockDrivenInputSource, FrameNotifyingInputSource,
+        LatencyTracedInputSource {
 
     private static final String TAG = "VideoFileInputSource";
     private static final int INVALID = -1;
+    private static final long FRAME_WAIT_TIMEOUT_MS = 2500;
+    private static final Timer NEXT_FRAME_TIMER =
+            MetricsRegistry.getDefault().timer("VideoFileInputSource.nextFrame");
+    private static final Counter NEW_FRAME_COUNTER =
+            MetricsRegistry.getDefault().counter("VideoFileInputSource.newFrames");
+    private static final Gauge FRAME_QUEUE_GAUGE =
+            MetricsRegistry.getDefault().gauge("VideoFileInputSource.frameQueue.size");
+
+    /**
+     * How frames are paced.
+     */
+    public enum PlaybackMode {
+        /**
+         * Frames are shown at the rate given by their time stamps.
+         */
+        REALTIME,
+        /**
+         * Every nextFrame() call waits for and shows the next decoded frame, regardless of
+         * time stamps.
+         */
+        ON_DEMAND
+    }
+
+    /**
+     * A decoder together with the SurfaceTexture it renders into.
+     * <p/>
+     * With gapless looping there are two of these: the active one is on screen while the
+     * standby one has pre-rolled the first frame of the next pass.
+     */
+    private class DecoderSlot implements SurfaceTexture.OnFrameAvailableListener, VideoDecoder.Callback {
+        private final int textureId;
+        private final SurfaceTexture surfaceTexture;
+        private final Surface surface;
+        private VideoDecoder decoder;
+        private int clipIndex;
+        // guarded by frameSyncObject
+        private boolean frameAvailable;
+
+        DecoderSlot() {
+            textureId = fullScreen.createTextureObject();
+            surfaceTexture = new SurfaceTexture(textureId);
+            surfaceTexture.setOnFrameAvailableListener(this);
+            surface = new Surface(surfaceTexture);
+        }
+
+        VideoDecoder load(int clipIndex) throws IOException {
+            AssetFileDescriptor afd = context.getAssets().openFd(playlist[clipIndex]);
+            this.clipIndex = clipIndex;
+            decoder = new VideoDecoder(afd, pacer);
+            decoder.setLooping(!gaplessLooping);
+            synchronized (frameSyncObject) {
+                frameAvailable = false;
+            }
+            return decoder;
+        }
+
+        boolean hasFrame() {
+            synchronized (frameSyncObject) {
+                return frameAvailable;
+            }
+        }
+
+        /**
+         * Latches the most recent frame.
+         *
+         * @return true if the texture now holds a different frame than before.
+         */
+        boolean latch() {
+            synchronized (frameSyncObject) {
+                frameAvailable = false;
+            }
+            long previousTimestamp = surfaceTexture.getTimestamp();
+            long latchStartNanos = System.nanoTime();
+            surfaceTexture.updateTexImage();
+            GlStateCache.current().onExternalTextureLatched();
+            boolean newFrame = surfaceTexture.getTimestamp() != previousTimestamp;
+            if (newFrame) {
+                NEW_FRAME_COUNTER.increment();
+            }
+            if (newFrame && latencyTracker != null) {
+                // The timestamp is the media time; the frame's age starts at its release.
+                latencyTracker.onFrameLatched(latchStartNanos, decoder.getLastReleaseNanos());
+            }
+            return newFrame;
+        }
+
+        @Override
+        public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+            synchronized (frameSyncObject) {
+                frameAvailable = true;
+                frameSyncObject.notifyAll();
+            }
+            onNewFrameListener.onNewFrame();
+        }
+
+        @Override
+        public void onEndOfStream() {
+            onClipEnded(this);
+        }
+
+        @Override
+        public void onDecoderError(Exception e) {
+            VideoFileInputSource.this.onDecoderError(e);
+        }
+
+        void releaseDecoder() {
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
+        }
+
+        void release() {
+            releaseDecoder();
+            surface.release();
+            surfaceTexture.release();
+        }
+
+        /**
+         * Deletes the texture as well.  GL thread only.
+         */
+        void releaseWithTexture() {
+            release();
+            GlUtil.deleteTexture(textureId);
+        }
+    }
 
     private Context context;
-    private final String filename;
+    private final String[] playlist;
     private Size frameSize;
     private float[] oldTransform;
     private OnFrameOrientationChangedListener onFrameOrientationChangedListener;
     private OnFrameSizeChangedListener onFrameSizeChangedListener;
-    private MediaPlayer player;
+    private volatile OnNewFrameListener onNewFrameListener = OnNewFrameListener.EMPTY;
+    private FrameLatencyTracker latencyTracker;
+    private final PlaybackMode playbackMode;
+    private boolean gaplessLooping;
+    private FramePacer pacer;
+    private volatile DecoderSlot activeSlot;
+    private volatile DecoderSlot standbySlot;
+    private volatile DecoderSlot pendingSlot;
+    private int passCount;
+    private final LoopGapStats loopGapStats = new LoopGapStats();
+    private DecodedFrameCache frameCache;
+    private Size cacheFrameSize;
+    private ClipRecorder clipRecorder;
+    private int recordingLoopCount;
+    private ClipPlayer clipPlayer;
+    private long replayStartNanos;
+    private long replayFrameCount;
+    private SampleIndexStore sampleIndexStore;
+    private SampleTable[] sampleTables;
+    private volatile int pendingSeekFrame = INVALID;
+    private FrameClock frameClock = FrameClock.SYSTEM;
+    private long clockOriginNanos;
+    private SampleTable clockSampleTable;
+    private long clipDurationUs;
+    private int presentedFrame = INVALID;
+    private int displayRotation;
+    private final float[] rotationMatrix = GlUtil.IDENTITY_MATRIX.clone();
+    private final float[] scratchMatrix = new float[16];
+    private TextureVideoInputSourceErrorListener errorListener;
+    private final Object frameSyncObject = new Object();
     private volatile boolean ready;
-    private SurfaceTexture surfaceTexture;
-    private int textureId;
     private float[] transform;
     private FullFrameRect fullScreen;
+    private int frameQueueDepth;
+    private FrameQueue.Policy frameQueuePolicy;
+    // GL thread, like the textures in it.
+    private FrameQueue<TextureFramebuffer> frameQueue;
+    private final ArrayDeque<TextureFramebuffer> freeQueueFrames = new ArrayDeque<TextureFramebuffer>();
+    private TextureFramebuffer queueFrameOnScreen;
+    private FullFrameRect queueFrameRect;
 
-    class VideoOnCompletionListener implements OnCompletionListener {
-        public void onCompletion(MediaPlayer mp) {
-            VideoFileInputSource.this.player.start();
-        }
+    public VideoFileInputSource(Context context, String assertFilename) {
+        this(context, assertFilename, PlaybackMode.REALTIME);
     }
 
-    public VideoFileInputSource(Context context, String assertFilename) {
+    public VideoFileInputSource(Context context, String assertFilename, PlaybackMode playbackMode) {
+        this(context, new String[]{assertFilename}, playbackMode);
+    }
+
+    /**
+     * Plays the given asset files one after another, starting over after the last one.  A
+     * playlist of more than one clip always uses gapless looping.
+     */
+    public VideoFileInputSource(Context context, String[] assetPlaylist, PlaybackMode playbackMode) {
+        if (assetPlaylist.length == 0) {
+            throw new IllegalArgumentException("Playlist is empty");
+        }
+        this.playbackMode = playbackMode;
         transform = new float[16];
         oldTransform = new float[16];
         onFrameOrientationChangedListener = OnFrameOrientationChangedListener.EMPTY;
         onFrameSizeChangedListener = OnFrameSizeChangedListener.EMPTY;
         ready = false;
         this.context = context;
-        this.filename = assertFilename;
+        this.playlist = assetPlaylist.clone();
+        this.gaplessLooping = playlist.length > 1;
+        this.sampleTables = new SampleTable[playlist.length];
+        this.sampleIndexStore = new SampleIndexStore(context.getCacheDir());
+    }
+
+    /**
+     * Pre-rolls the next pass over the clip on a standby decoder, so the loop boundary costs at
+     * most one frame interval instead of a decoder flush.  Uses a second decoder instance.
+     * <p/>
+     * Must be called before the GL context is created.
+     */
+    public void setGaplessLooping(boolean gaplessLooping) {
+        if (playlist.length > 1 && !gaplessLooping) {
+            throw new IllegalArgumentException("Playlists always loop gaplessly");
+        }
+        this.gaplessLooping = gaplessLooping;
+    }
+
+    /**
+     * Keeps the decoded frames of the clip in the given cache, and replays them from memory
+     * instead of decoding when the clip is already there.  In ON_DEMAND mode, the only one that
+     * draws every decoded frame, the first pass over the clip is recorded and from the second
+     * pass on the decoder is shut down; other modes only replay clips already cached.  Only
+     * used for single clips.
+     * <p/>
+     * Must be called before the GL context is created.
+     *
+     * @param frameSize Size of the cached frames, or null to keep the decoded size.
+     */
+    public void setFrameCache(DecodedFrameCache cache, Size frameSize) {
+        if (playlist.length > 1) {
+            Log.w(TAG, "Frame cache isn't used for playlists");
+            return;
+        }
+        this.frameCache = cache;
+        this.cacheFrameSize = frameSize;
+    }
+
+    /**
+     * Puts a queue of the given depth between the decoder and the render loop: each decoded
+     * frame is copied into a texture from a pool and shown in order, one per nextFrame(), so
+     * a slow draw delays frames instead of losing them.  The policy decides what happens when
+     * the queue is full.  getTextureId() then returns a GL_TEXTURE_2D.
+     * <p/>
+     * Only for realtime playback of a single clip without gapless looping, the frame cache or
+     * a virtual clock.  Must be called before the GL context is created.
+     */
+    public void setFrameQueue(int depth, FrameQueue.Policy policy) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        this.frameQueueDepth = depth;
+        this.frameQueuePolicy = policy;
+    }
+
+    /**
+     * Returns the frame queue, with its occupancy, drop count and latencies, or null when
+     * there is none.
+     */
+    public FrameQueue<TextureFramebuffer> getFrameQueue() {
+        return frameQueue;
+    }
+
+    /**
+     * Presents frames by the given clock.  With anything but {@link FrameClock#SYSTEM} frames
+     * are decoded on demand, whatever the playback mode; only single clips without gapless
+     * looping can be driven by a virtual clock.
+     */
+    @Override
+    public void setFrameClock(FrameClock frameClock) {
+        this.frameClock = frameClock;
+    }
+
+    /**
+     * Turns the picture clockwise by the given multiple of 90 degrees, the way
+     * Camera.setDisplayOrientation() does for the camera source.  The new texture transform
+     * is reported through the OnFrameOrientationChangedListener on the next frame, and a new
+     * frame size right away if the axes flip.  Call on the GL thread, or before playback.
+     */
+    public void setDisplayRotation(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees");
+        }
+        degrees = ((degrees % 360) + 360) % 360;
+        if (degrees == displayRotation) {
+            return;
+        }
+        boolean axesFlip = (degrees - displayRotation) % 180 != 0;
+        displayRotation = degrees;
+        // Rotate texture coordinates around the center of the frame.
+        Matrix.setIdentityM(rotationMatrix, 0);
+        Matrix.translateM(rotationMatrix, 0, 0.5f, 0.5f, 0f);
+        Matrix.rotateM(rotationMatrix, 0, degrees, 0f, 0f, 1f);
+        Matrix.translateM(rotationMatrix, 0, -0.5f, -0.5f, 0f);
+        if (axesFlip && frameSize != null) {
+            onFrameSizeChangedListener.onFrameSizeChanged(getFrameSize());
+        }
+    }
+
+    public int getDisplayRotation() {
+        return displayRotation;
+    }
+
+    private void applyDisplayRotation() {
+        if (displayRotation != 0) {
+            Matrix.multiplyMM(scratchMatrix, 0, transform, 0, rotationMatrix, 0);
+            System.arraycopy(scratchMatrix, 0, transform, 0, transform.length);
+        }
+    }
+
+    private boolean isClockDriven() {
+        return frameClock != FrameClock.SYSTEM;
     }
 
     public void onResume() {
     }
 
     public void onGlContextCreated() {
+        if (isClockDriven() && gaplessLooping) {
+            throw new IllegalStateException("Virtual clocks can't drive gapless playback");
+        }
+        if (frameQueueDepth > 0 && (playbackMode != PlaybackMode.REALTIME || gaplessLooping
+                || isClockDriven() || frameCache != null)) {
+            throw new IllegalStateException("The frame queue only works for plain realtime playback");
+        }
         fullScreen = new FullFrameRect(
                 new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT));
-        textureId = fullScreen.createTextureObject();
-        surfaceTexture = new SurfaceTexture(this.textureId);
+        activeSlot = new DecoderSlot();
+        if (gaplessLooping) {
+            standbySlot = new DecoderSlot();
+        }
         startPreview();
     }
 
     public void nextFrame() {
-        surfaceTexture.updateTexImage();
-        surfaceTexture.getTransformMatrix(this.transform);
-        fullScreen.drawFrame(textureId, this.transform);
+        long startNanos = NEXT_FRAME_TIMER.start();
+        try {
+            presentNextFrame();
+        } finally {
+            NEXT_FRAME_TIMER.stop(startNanos);
+        }
+    }
+
+    private void presentNextFrame() {
+        if (clipPlayer != null) {
+            nextCachedFrame();
+            return;
+        }
+        boolean newFrame = false;
+        if (isClockDriven()) {
+            newFrame = presentFrameAtClock();
+        } else if (playbackMode == PlaybackMode.ON_DEMAND) {
+            boolean available = awaitFrame();
+            switchToPendingSlotIfReady();
+            if (available && activeSlot.hasFrame()) {
+                newFrame = activeSlot.latch();
+                if (pendingSeekFrame != INVALID) {
+                    newFrame = awaitSeekTarget() || newFrame;
+                }
+                // Let the decoder work on the next frame while we draw this one.
+                ((OnDemandFramePacer) pacer).requestFrame();
+            }
+        } else if (frameQueue != null) {
+            nextQueuedFrame();
+            return;
+        } else {
+            switchToPendingSlotIfReady();
+            newFrame = activeSlot.latch();
+        }
+        activeSlot.surfaceTexture.getTransformMatrix(this.transform);
+        if (newFrame && clipRecorder != null && recordFrame()) {
+            return;
+        }
+        applyDisplayRotation();
+        if (latencyTracker != null) {
+            latencyTracker.beginDraw();
+        }
+        fullScreen.drawFrame(activeSlot.textureId, this.transform);
+        if (latencyTracker != null) {
+            latencyTracker.endDraw();
+        }
+        checkOrientationChanged();
+    }
+
+    /**
+     * Moves a newly decoded frame into the queue, then shows the oldest queued frame.
+     */
+    private void nextQueuedFrame() {
+        if (activeSlot.hasFrame()) {
+            if (activeSlot.latch()) {
+                activeSlot.surfaceTexture.getTransformMatrix(transform);
+                applyDisplayRotation();
+                // The pool holds a frame more than the queue and the screen can, so it never
+                // runs dry.
+                TextureFramebuffer frame = freeQueueFrames.poll();
+                if (latencyTracker != null) {
+                    latencyTracker.beginDraw();
+                }
+                frame.bind();
+                fullScreen.drawFrame(activeSlot.textureId, transform);
+                frame.unbind();
+                if (latencyTracker != null) {
+                    latencyTracker.endDraw();
+                }
+                frameQueue.enqueue(frame);
+            }
+            ((QueueingFramePacer) pacer).onFrameIngested();
+        }
+        TextureFramebuffer next = frameQueue.poll();
+        if (next != null) {
+            if (queueFrameOnScreen != null) {
+                freeQueueFrames.add(queueFrameOnScreen);
+            }
+            queueFrameOnScreen = next;
+        }
+        FRAME_QUEUE_GAUGE.set(frameQueue.size());
+        if (frameQueue.size() > 0) {
+            // Ask for another draw even if the decoder has nothing new.
+            onNewFrameListener.requestRedraw();
+        }
+        // Queued frames are upright already.
+        System.arraycopy(GlUtil.IDENTITY_MATRIX, 0, transform, 0, transform.length);
+        if (queueFrameOnScreen != null) {
+            if (latencyTracker != null) {
+                latencyTracker.beginDraw();
+            }
+            queueFrameRect.drawFrame(queueFrameOnScreen.getTextureId(), transform);
+            if (latencyTracker != null) {
+                latencyTracker.endDraw();
+            }
+        }
+        checkOrientationChanged();
+    }
+
+    private void startRecording(Size cacheSize) {
+        int frameCount;
+        try {
+            frameCount = getSampleTable(activeSlot.clipIndex).getSampleCount();
+        } catch (IOException e) {
+            Log.w(TAG, "Not recording into the frame cache: no sample table", e);
+            return;
+        }
+        clipRecorder = new ClipRecorder(cacheSize, frameCount, frameCache.getBudgetBytes());
+        if (clipRecorder.isAbandoned()) {
+            clipRecorder = null;
+            return;
+        }
+        recordingLoopCount = getLoopCount();
+    }
+
+    /**
+     * Adds the latched frame to the clip being recorded for the frame cache.  Once the clip
+     * wraps around, the recording goes into the cache and playback switches to it.
+     *
+     * @return true if playback switched to the cache (and the frame was drawn from it).
+     */
+    private boolean recordFrame() {
+        if (getLoopCount() == recordingLoopCount) {
+            if (!clipRecorder.capture(fullScreen, activeSlot.textureId, transform,
+                    activeSlot.surfaceTexture.getTimestamp())) {
+                clipRecorder.release();
+                clipRecorder = null;
+            }
+            return false;
+        }
+
+        CachedClip clip = clipRecorder.finish();
+        clipRecorder.release();
+        clipRecorder = null;
+        if (clip == null || !frameCache.put(playlist[0], clip)) {
+            return false;
+        }
+        startReplay(clip);
+        nextCachedFrame();
+        return true;
+    }
+
+    /**
+     * Stops decoding and plays the clip from memory from now on.
+     */
+    private void startReplay(CachedClip clip) {
+        pendingSlot = null;
+        if (activeSlot != null) {
+            activeSlot.releaseWithTexture();
+            activeSlot = null;
+        }
+        if (standbySlot != null) {
+            standbySlot.releaseWithTexture();
+            standbySlot = null;
+        }
+        clipPlayer = new ClipPlayer(clip);
+        replayStartNanos = frameClock.nanoTime();
+        replayFrameCount = 0;
+        Size size = clip.getSize();
+        if (frameSize == null || size.width != frameSize.width || size.height != frameSize.height) {
+            frameSize = size;
+            onFrameSizeChangedListener.onFrameSizeChanged(getFrameSize());
+        }
+        Log.d(TAG, "Replaying " + playlist[0] + " from frame cache");
+        // Replay isn't announced frame by frame; get the scheduler to notice.
+        onNewFrameListener.requestRedraw();
+    }
+
+    private void nextCachedFrame() {
+        CachedClip clip = clipPlayer.getClip();
+        if (playbackMode == PlaybackMode.ON_DEMAND && !isClockDriven()) {
+            clipPlayer.showFrame((int) (replayFrameCount % clip.getFrameCount()));
+        } else {
+            clipPlayer.showFrame(clip.getFrameIndexAt(frameClock.nanoTime() - replayStartNanos));
+        }
+        replayFrameCount++;
+        // The cached frames were read back upright.
+        System.arraycopy(GlUtil.IDENTITY_MATRIX, 0, transform, 0, transform.length);
+        applyDisplayRotation();
+        clipPlayer.draw(transform);
         checkOrientationChanged();
     }
 
+    /**
+     * Jumps to the given frame of the clip on screen, decoding from the nearest keyframe
+     * before it.  The clip's sample table is parsed on first use and kept in the cache
+     * directory, so later seeks (and later runs) skip straight to the keyframe.
+     * <p/>
+     * In ON_DEMAND mode, or with a virtual clock, the next nextFrame() shows exactly that
+     * frame.
+     */
+    @Override
+    public void seekToFrame(int frame) {
+        if (clipPlayer != null) {
+            CachedClip clip = clipPlayer.getClip();
+            int index = frame % clip.getFrameCount();
+            replayFrameCount = index;
+            replayStartNanos = frameClock.nanoTime() - clip.getTimestampNanos(index);
+            return;
+        }
+        if (isClockDriven()) {
+            if (clockSampleTable == null) {
+                throw new IllegalStateException("Not playing");
+            }
+            // nextFrame() takes it from here.
+            clockOriginNanos = frameClock.nanoTime() - clockSampleTable.getFrameTimeUs(frame) * 1000;
+            return;
+        }
+        DecoderSlot slot = pendingSlot != null ? pendingSlot : activeSlot;
+        if (slot == null || slot.decoder == null) {
+            throw new IllegalStateException("Not playing");
+        }
+        try {
+            slot.decoder.setSampleTable(getSampleTable(slot.clipIndex));
+        } catch (IOException e) {
+            onDecoderError(e);
+            return;
+        }
+        if (playbackMode == PlaybackMode.ON_DEMAND) {
+            pendingSeekFrame = frame;
+        }
+        slot.decoder.seekToFrame(frame);
+    }
+
+    private SampleTable getSampleTable(int clipIndex) throws IOException {
+        if (sampleTables[clipIndex] != null) {
+            return sampleTables[clipIndex];
+        }
+        String name = playlist[clipIndex];
+        AssetFileDescriptor afd = context.getAssets().openFd(name);
+        try {
+            SampleTable table = sampleIndexStore.get(name, afd.getLength());
+            if (table == null) {
+                FileInputStream in = afd.createInputStream();
+                try {
+                    ByteBuffer clip = in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                            afd.getStartOffset(), afd.getLength());
+                    table = sampleIndexStore.load(name, afd.getLength(), clip);
+                } finally {
+                    in.close();
+                }
+                Log.d(TAG, "Indexed " + table.getSampleCount() + " samples of " + name);
+            }
+            sampleTables[clipIndex] = table;
+            return table;
+        } finally {
+            afd.close();
+        }
+    }
+
+    /**
+     * Brings the texture to the frame the clock has reached.  Steps forward frame by frame
+     * when that is cheaper than decoding from a keyframe, and seeks otherwise.
+     *
+     * @return true if the texture now holds a different frame.
+     */
+    private boolean presentFrameAtClock() {
+        SampleTable table = clockSampleTable;
+        long elapsedUs = (frameClock.nanoTime() - clockOriginNanos
+                + FrameClock.PRESENTATION_TOLERANCE_NANOS) / 1000;
+        long clipTimeUs = elapsedUs % clipDurationUs;
+        if (clipTimeUs < 0) {
+            clipTimeUs += clipDurationUs;
+        }
+        int target = table.getFrameAtTime(clipTimeUs);
+        if (target == presentedFrame) {
+            return false;
+        }
+
+        OnDemandFramePacer onDemandPacer = (OnDemandFramePacer) pacer;
+        int fromSample = table.getSampleForFrame(Math.max(presentedFrame, 0));
+        if (target < presentedFrame
+                || table.getSyncSampleBefore(table.getSampleForFrame(target)) > fromSample) {
+            pendingSeekFrame = target;
+            activeSlot.decoder.seekToFrame(target);
+            awaitSeekTarget();
+            presentedFrame = getLatchedFrame(table);
+            onDemandPacer.requestFrame();
+            return true;
+        }
+        while (presentedFrame < target) {
+            if (!awaitFrame()) {
+                break;
+            }
+            activeSlot.latch();
+            presentedFrame = getLatchedFrame(table);
+            onDemandPacer.requestFrame();
+        }
+        return true;
+    }
+
+    /**
+     * Identifies the frame in the texture by its time stamp, which unlike the decoder's frame
+     * counter can't run ahead of what was latched.
+     */
+    private int getLatchedFrame(SampleTable table) {
+        return table.getFrameAtTime(activeSlot.surfaceTexture.getTimestamp() / 1000);
+    }
+
+    /**
+     * Keeps latching frames until the seek target is in the texture.  The decoder drops
+     * everything before the target itself, but a frame released before the seek took effect
+     * may still arrive first.
+     *
+     * @return true if the target was latched.
+     */
+    private boolean awaitSeekTarget() {
+        int target = pendingSeekFrame;
+        long deadline = System.currentTimeMillis() + FRAME_WAIT_TIMEOUT_MS;
+        while (activeSlot.decoder.getFrameIndex() != target) {
+            if (System.currentTimeMillis() > deadline || !awaitFrame()) {
+                Log.w(TAG, "Seek to frame " + target + " timed out");
+                pendingSeekFrame = INVALID;
+                return false;
+            }
+            activeSlot.latch();
+        }
+        // The target has been queued, possibly after the last latch.
+        activeSlot.latch();
+        pendingSeekFrame = INVALID;
+        return true;
+    }
+
+    /**
+     * Waits for a decoder to release a frame into one of the SurfaceTextures.
+     *
+     * @return false if no frame arrived within the timeout.
+     */
+    private boolean awaitFrame() {
+        synchronized (frameSyncObject) {
+            long deadline = System.currentTimeMillis() + FRAME_WAIT_TIMEOUT_MS;
+            while (!isAnyFrameAvailable() && ready) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    Log.w(TAG, "Timed out waiting for decoded frame");
+                    return false;
+                }
+                try {
+                    frameSyncObject.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return isAnyFrameAvailable();
+        }
+    }
+
+    // Must hold frameSyncObject.
+    private boolean isAnyFrameAvailable() {
+        DecoderSlot pending = pendingSlot;
+        return activeSlot.frameAvailable || (pending != null && pending.frameAvailable);
+    }
+
+    /**
+     * Called on the decoder thread once the active decoder has released its last frame.
+     * Starts the pre-rolled standby decoder; nextFrame() switches over as soon as its first
+     * frame arrives.
+     */
+    private void onClipEnded(DecoderSlot slot) {
+        if (slot != activeSlot || standbySlot == null || standbySlot.decoder == null) {
+            return;
+        }
+        // Keep the real-time pacer's clock running across the boundary.
+        pacer.onLoop();
+        pendingSlot = standbySlot;
+        standbySlot.decoder.play();
+    }
+
+    private void switchToPendingSlotIfReady() {
+        DecoderSlot pending = pendingSlot;
+        if (pending == null || !pending.hasFrame()) {
+            return;
+        }
+        DecoderSlot previous = activeSlot;
+        activeSlot = pending;
+        standbySlot = previous;
+        pendingSlot = null;
+        passCount++;
+        loopGapStats.record(pending.decoder.getFirstReleaseNanos()
+                - previous.decoder.getLastReleaseNanos());
+
+        Size size = pending.decoder.getVideoSize();
+        if (size != null && (size.width != frameSize.width || size.height != frameSize.height)) {
+            frameSize = size;
+            onFrameSizeChangedListener.onFrameSizeChanged(getFrameSize());
+        }
+
+        // The previous decoder is past its last frame and only stops its codec, so this
+        // doesn't block for long; it handed the pacer off, so it doesn't release it.
+        previous.releaseDecoder();
+        try {
+            previous.load((activeSlot.clipIndex + 1) % playlist.length).preroll(previous.surface, previous);
+        } catch (IOException e) {
+            onDecoderError(e);
+        }
+    }
+
+    /**
+     * Returns the index, within the current pass over the clip, of the last decoded frame
+     * released to the texture.
+     */
+    @Override
+    public long getFrameIndex() {
+        if (clipPlayer != null) {
+            return clipPlayer.getFrameIndex();
+        }
+        if (isClockDriven()) {
+            return presentedFrame;
+        }
+        DecoderSlot slot = activeSlot;
+        return slot != null && slot.decoder != null ? slot.decoder.getFrameIndex() : INVALID;
+    }
+
+    /**
+     * Returns how many times the clip (or the playlist position) has looped.
+     */
+    public int getLoopCount() {
+        if (clipPlayer != null) {
+            CachedClip clip = clipPlayer.getClip();
+            long replayLoops = playbackMode == PlaybackMode.ON_DEMAND
+                    ? (replayFrameCount - 1) / clip.getFrameCount()
+                    : (frameClock.nanoTime() - replayStartNanos) / Math.max(1, clip.getDurationNanos());
+            return recordingLoopCount + 1 + (int) replayLoops;
+        }
+        DecoderSlot slot = activeSlot;
+        return passCount + (slot != null && slot.decoder != null ? slot.decoder.getLoopCount() : 0);
+    }
+
+    /**
+     * Returns the time between the last frame of a pass and the first frame of the next one.
+     * Only measured with gapless looping.
+     */
+    public LoopGapStats getLoopGapStats() {
+        return loopGapStats;
+    }
+
     public void checkOrientationChanged() {
         if (!Arrays.equals(this.transform, this.oldTransform)) {
             this.onFrameOrientationChangedListener.onFrameOrientationChanged();
@@ -74,8 +828,18 @@ public class VideoFileInputSource implements TextureVideoInputSource, MediaPlaye
         }
     }
 
+    /**
+     * Returns the texture currently on screen.  With gapless looping this changes at every
+     * loop boundary.
+     */
     public int getTextureId() {
-        return this.textureId;
+        if (clipPlayer != null) {
+            return clipPlayer.getTextureId();
+        }
+        if (queueFrameOnScreen != null) {
+            return queueFrameOnScreen.getTextureId();
+        }
+        return activeSlot != null ? activeSlot.textureId : 0;
     }
 
     public float[] getTextureTransform() {
@@ -84,25 +848,97 @@ public class VideoFileInputSource implements TextureVideoInputSource, MediaPlaye
 
     public void startPreview() {
         try {
-            player = new MediaPlayer();
-            AssetFileDescriptor afd = this.context.getAssets().openFd(this.filename);
-            player.setDataSource(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
-            player.setLooping(false);
-            player.setOnCompletionListener(new VideoOnCompletionListener());
-            player.setOnPreparedListener(this);
-            player.prepareAsync();
-            frameSize = new Size(this.player.getVideoWidth(), this.player.getVideoHeight());
-            player.setSurface(new Surface(this.surfaceTexture));
-            Log.d(TAG, "Video starting playback at: " + this.frameSize.width + "x" + this.frameSize.height);
+            if (playbackMode == PlaybackMode.ON_DEMAND || isClockDriven()) {
+                OnDemandFramePacer onDemandPacer = new OnDemandFramePacer();
+                onDemandPacer.requestFrame();
+                pacer = onDemandPacer;
+            } else if (frameQueueDepth > 0) {
+                frameQueue = new FrameQueue<TextureFramebuffer>(frameQueueDepth, frameQueuePolicy,
+                        new FrameQueue.Recycler<TextureFramebuffer>() {
+                            @Override
+                            public void recycle(TextureFramebuffer frame) {
+                                freeQueueFrames.add(frame);
+                            }
+                        });
+                pacer = new QueueingFramePacer(new RealtimeFramePacer(), frameQueue);
+            } else {
+                pacer = new RealtimeFramePacer();
+            }
+            VideoDecoder decoder = activeSlot.load(0);
+            decoder.prepare();
+            frameSize = decoder.getVideoSize();
+            if (frameQueue != null) {
+                prepareFrameQueue();
+            }
+            if (isClockDriven()) {
+                prepareClock(decoder);
+            }
+            if (frameCache != null) {
+                Size cacheSize = cacheFrameSize != null ? cacheFrameSize : frameSize;
+                CachedClip clip = frameCache.get(playlist[0], cacheSize);
+                if (clip != null) {
+                    startReplay(clip);
+                    ready = true;
+                    return;
+                }
+                if (isClockDriven()) {
+                    // Recording needs one linear pass over the clip; the clock may seek.
+                    Log.w(TAG, "Not recording into the frame cache under a virtual clock");
+                } else if (playbackMode != PlaybackMode.ON_DEMAND) {
+                    // Only on-demand decoding draws every frame; real time drops some.
+                    Log.w(TAG, "Not recording into the frame cache in " + playbackMode + " mode");
+                } else {
+                    startRecording(cacheSize);
+                }
+            }
+            onFrameSizeChangedListener.onFrameSizeChanged(getFrameSize());
+            ready = true;
+            decoder.start(activeSlot.surface, activeSlot);
+            if (standbySlot != null) {
+                standbySlot.load(1 % playlist.length).preroll(standbySlot.surface, standbySlot);
+            }
+            Log.d(TAG, "Video starting playback at: " + this.frameSize.width + "x" + this.frameSize.height
+                    + " (" + playbackMode + (gaplessLooping ? ", gapless" : "") + ")");
         } catch (IOException e) {
             throw new RuntimeException("Could not open input video!", e);
         }
     }
 
-    @Override
-    public void onPrepared(MediaPlayer mp) {
-        player.start();
-        ready = true;
+    private void prepareFrameQueue() {
+        Size size = getFrameSize();
+        freeQueueFrames.clear();
+        queueFrameOnScreen = null;
+        // Queued frames, the one on screen and the one being filled.
+        for (int i = 0; i < frameQueue.getDepth() + 2; i++) {
+            freeQueueFrames.add(new TextureFramebuffer(size.width, size.height));
+        }
+        queueFrameRect = new FullFrameRect(
+                new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        Log.d(TAG, "Frame queue of " + frameQueue.getDepth() + ", " + frameQueue.getPolicy());
+    }
+
+    /**
+     * Loads the sample table the clock maps time to frames with, and starts the clock.
+     */
+    private void prepareClock(VideoDecoder decoder) throws IOException {
+        clockSampleTable = getSampleTable(activeSlot.clipIndex);
+        decoder.setSampleTable(clockSampleTable);
+        int lastFrame = clockSampleTable.getSampleCount() - 1;
+        long lastFrameTimeUs = clockSampleTable.getFrameTimeUs(lastFrame);
+        clipDurationUs = decoder.getDurationUs();
+        if (clipDurationUs <= lastFrameTimeUs) {
+            // Give the last frame the average frame duration.
+            clipDurationUs = lastFrameTimeUs + Math.max(1, lastFrameTimeUs / Math.max(1, lastFrame));
+        }
+        presentedFrame = INVALID;
+        clockOriginNanos = frameClock.nanoTime();
+    }
+
+    private void onDecoderError(Exception e) {
+        ready = false;
+        if (errorListener != null) {
+            errorListener.onError(e, false);
+        }
     }
 
     @Override
@@ -115,14 +951,67 @@ public class VideoFileInputSource implements TextureVideoInputSource, MediaPlaye
         return INVALID;
     }
 
+    @Override
+    public void releaseGlObjects() {
+        if (clipRecorder != null) {
+            clipRecorder.release();
+            clipRecorder = null;
+        }
+        if (clipPlayer != null) {
+            clipPlayer.release();
+            clipPlayer = null;
+        }
+        if (frameQueue != null) {
+            // Returns the queued frames to freeQueueFrames.
+            frameQueue.clear();
+        }
+        if (queueFrameOnScreen != null) {
+            freeQueueFrames.add(queueFrameOnScreen);
+            queueFrameOnScreen = null;
+        }
+        for (TextureFramebuffer frame : freeQueueFrames) {
+            frame.release();
+        }
+        freeQueueFrames.clear();
+        if (queueFrameRect != null) {
+            queueFrameRect.release(true);
+            queueFrameRect = null;
+        }
+        if (activeSlot != null) {
+            GlUtil.deleteTexture(activeSlot.textureId);
+        }
+        if (standbySlot != null) {
+            GlUtil.deleteTexture(standbySlot.textureId);
+        }
+        if (fullScreen != null) {
+            fullScreen.release(true);
+            fullScreen = null;
+        }
+    }
+
     public void release() {
         this.ready = false;
-        if (this.player != null) {
-            this.player.stop();
+        synchronized (frameSyncObject) {
+            frameSyncObject.notifyAll();
+        }
+        pendingSlot = null;
+        if (frameQueue != null) {
+            // Wakes a decoder waiting for room.
+            frameQueue.close();
         }
-        if (this.surfaceTexture != null) {
-            this.surfaceTexture.release();
-            this.surfaceTexture = null;
+        clipRecorder = null;
+        clipPlayer = null;
+        frameQueue = null;
+        freeQueueFrames.clear();
+        queueFrameOnScreen = null;
+        queueFrameRect = null;
+        if (this.activeSlot != null) {
+            this.activeSlot.release();
+            this.activeSlot = null;
+        }
+        if (this.standbySlot != null) {
+            this.standbySlot.release();
+            this.standbySlot = null;
         }
     }
 
@@ -134,7 +1023,37 @@ public class VideoFileInputSource implements TextureVideoInputSource, MediaPlaye
         this.onFrameSizeChangedListener = onFrameSizeChangedListener;
     }
 
+    @Override
+    public void setOnNewFrameListener(OnNewFrameListener onNewFrameListener) {
+        this.onNewFrameListener = onNewFrameListener;
+    }
+
+    /**
+     * With the frame queue, ages are those of the newest decoded frame, not of the queued one
+     * on screen; add the queue's own delay histogram for that.
+     */
+    @Override
+    public void setFrameLatencyTracker(FrameLatencyTracker frameLatencyTracker) {
+        this.latencyTracker = frameLatencyTracker;
+    }
+
+    /**
+     * Only realtime decoding announces frames; in the other modes nextFrame() itself moves
+     * playback along.
+     */
+    @Override
+    public boolean isNotifyingNewFrames() {
+        return playbackMode == PlaybackMode.REALTIME && clipPlayer == null && !isClockDriven();
+    }
+
+    /**
+     * Returns the size of the frames as drawn, which is the decoded size turned by the display
+     * rotation.
+     */
     public Size getFrameSize() {
+        if (frameSize != null && displayRotation % 180 != 0) {
+            return frameSize.flipAxes();
+        }
         return frameSize;
     }
 
@@ -143,5 +1062,6 @@ public class VideoFileInputSource implements TextureVideoInputSource, MediaPlaye
     }
 
     public void setCameraOpenErrorListener(TextureVideoInputSourceErrorListener cameraOpenErrorListener) {
+        this.errorListener = cameraOpenErrorListener;
     }
 }
@@ -4,8 +4,12 @@ import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLSurfaceView.Renderer;
 import android.util.Log;
+import android.view.WindowManager;
 
+import com.muneikh.gles.GlStateCache;
+import com.muneikh.gles.GlUtil;
 import com.muneikh.gles.Size;
+import com.muneikh.metrics.FrameLatencyTracker;
 import com.muneikh.ui.widget.GL2SurfaceView;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -15,9 +19,17 @@ public class VideoRenderer implements Renderer, OnFrameOrientationChangedListene
 
     private static final String TAG = "VideoRenderer";
     private TextureVideoInputSource videoInputSource;
+    private final float refreshRate;
+    private FrameScheduler frameScheduler;
+    private final FrameLatencyTracker frameLatencyTracker = new FrameLatencyTracker();
 
     public VideoRenderer(Context context, TextureVideoInputSource videoInputSource) {
         this.videoInputSource = videoInputSource;
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        this.refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        if (videoInputSource instanceof LatencyTracedInputSource) {
+            ((LatencyTracedInputSource) videoInputSource).setFrameLatencyTracker(frameLatencyTracker);
+        }
     }
 
     @Override
@@ -27,6 +39,8 @@ public class VideoRenderer implements Renderer, OnFrameOrientationChangedListene
 
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
+        // GLSurfaceView makes its contexts current without EglCore.
+        GlStateCache.current().onContextCreated(GL2SurfaceView.OPENGL_VERSION);
         this.videoInputSource.onGlContextCreated();
     }
 
@@ -37,14 +51,58 @@ public class VideoRenderer implements Renderer, OnFrameOrientationChangedListene
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        if (frameScheduler != null) {
+            frameScheduler.onDrawFrame();
+        }
         if (this.videoInputSource.isReady()) {
             this.videoInputSource.nextFrame();
+            frameLatencyTracker.onFrameDrawn();
         }
+        GlStateCache.current().endFrame();
+        GlUtil.onFrameEnd();
     }
 
+    /**
+     * Draws into the view when the source has a new frame, on the following vsync.
+     */
     public void setGLSurfaceView(GL2SurfaceView surfaceView) {
         surfaceView.setRenderer(this);
-        surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        frameScheduler = new FrameScheduler(surfaceView, videoInputSource, refreshRate);
+        if (videoInputSource instanceof FrameNotifyingInputSource) {
+            ((FrameNotifyingInputSource) videoInputSource).setOnNewFrameListener(frameScheduler);
+        }
         this.videoInputSource.setOnFrameOrientationChangedListener(this);
     }
+
+    /**
+     * Starts scheduling draws; call from Activity.onResume(), after the view's onResume().
+     */
+    public void onResume() {
+        if (frameScheduler != null) {
+            frameScheduler.start();
+        }
+    }
+
+    public void onPause() {
+        if (frameScheduler != null) {
+            frameScheduler.stop();
+        }
+    }
+
+    /**
+     * Returns the scheduler and its rendered, skipped and late frame counts, or null before
+     * setGLSurfaceView().
+     */
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * Returns the per-frame latency, from capture to the end of drawing.  GLSurfaceView swaps
+     * out of sight, so the swap stages stay empty; a {@link RenderThread} fills them in.
+     */
+    public FrameLatencyTracker getFrameLatencyTracker() {
+        return frameLatencyTracker;
+    }
 }
@@ -0,0 +1,35 @@
+package com.muneikh.inputsource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FrameClock} that stands still until it is advanced.  Starts at zero.
+ * <p/>
+ * Thread-safe: a test thread can advance it while the GL thread renders.
+ */
+public class VirtualFrameClock implements FrameClock {
+    private volatile long nanos;
+
+    @Override
+    public long nanoTime() {
+        return nanos;
+    }
+
+    public synchronized void setTime(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Moves the clock forward.
+     */
+    public synchronized void advance(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Clocks don't run backwards");
+        }
+        nanos += unit.toNanos(duration);
+    }
+
+    public void advanceMillis(long millis) {
+        advance(millis, TimeUnit.MILLISECONDS);
+    }
+}
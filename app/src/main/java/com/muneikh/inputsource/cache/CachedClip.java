@@ -0,0 +1,79 @@
+package com.muneikh.inputsource.cache;
+
+import com.muneikh.gles.Size;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Every decoded frame of one pass over a clip, as tightly packed RGBA rows in direct
+ * ByteBuffers, bottom row first (the way glReadPixels returns them).
+ */
+public final class CachedClip {
+    private final Size size;
+    private final ByteBuffer[] frames;
+    private final long[] timestampsNanos;
+    private final long durationNanos;
+
+    /**
+     * @param timestampsNanos Presentation time of each frame, relative to the first one.
+     * @param durationNanos   Time from the first frame until the clip starts over.
+     */
+    public CachedClip(Size size, ByteBuffer[] frames, long[] timestampsNanos, long durationNanos) {
+        if (frames.length == 0 || frames.length != timestampsNanos.length) {
+            throw new IllegalArgumentException("Need one timestamp per frame");
+        }
+        this.size = size;
+        this.frames = frames;
+        this.timestampsNanos = timestampsNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    public Size getSize() {
+        return size;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * Returns the pixels of a frame.  Shared with every user of the cache; don't modify.
+     */
+    public ByteBuffer getFrame(int index) {
+        return frames[index];
+    }
+
+    public long getTimestampNanos(int index) {
+        return timestampsNanos[index];
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns the index of the frame that should be on screen at the given time since the
+     * start of the clip.  Wraps around at the end.
+     */
+    public int getFrameIndexAt(long elapsedNanos) {
+        long t = durationNanos > 0 ? elapsedNanos % durationNanos : 0;
+        int low = 0;
+        int high = timestampsNanos.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (timestampsNanos[mid] <= t) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the memory held by the frames, in bytes.
+     */
+    public long getByteCount() {
+        return (long) frames.length * frames[0].capacity();
+    }
+}
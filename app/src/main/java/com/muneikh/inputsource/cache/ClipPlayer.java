@@ -0,0 +1,71 @@
+package com.muneikh.inputsource.cache;
+
+import android.opengl.GLES20;
+
+import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlStateCache;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.Texture2dProgram;
+
+/**
+ * Shows the frames of a {@link CachedClip} by uploading them into a GL_TEXTURE_2D.
+ * <p/>
+ * Must be created, used, and released on the GL thread.
+ */
+public class ClipPlayer {
+    private final CachedClip clip;
+    private final FullFrameRect rect;
+    private final int textureId;
+    private int frameIndex;
+
+    public ClipPlayer(CachedClip clip) {
+        this.clip = clip;
+        rect = new FullFrameRect(new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D));
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        textureId = GlUtil.createImageTexture(clip.getFrame(0), clip.getSize().width,
+                clip.getSize().height, GLES20.GL_RGBA);
+    }
+
+    public CachedClip getClip() {
+        return clip;
+    }
+
+    public int getTextureId() {
+        return textureId;
+    }
+
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * Uploads the given frame into the texture, unless it's already there.
+     */
+    public void showFrame(int index) {
+        if (index == frameIndex) {
+            return;
+        }
+        frameIndex = index;
+        GlStateCache.current().bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, clip.getSize().width,
+                clip.getSize().height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                clip.getFrame(index));
+        GlUtil.checkGlError("glTexSubImage2D");
+    }
+
+    /**
+     * Draws the current frame.  The frames were read back already upright, so the texture
+     * transform is usually the identity.
+     */
+    public void draw(float[] texMatrix) {
+        rect.drawFrame(textureId, texMatrix);
+    }
+
+    public void release() {
+        rect.release(true);
+        int[] textures = {textureId};
+        GlStateCache.current().onTextureDeleted(textureId);
+        GLES20.glDeleteTextures(1, textures, 0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.muneikh.inputsource.cache;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.muneikh.gles.FullFrameRect;
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.Size;
+import com.muneikh.gles.TextureFramebuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies the frames of one pass over a clip into memory as they are shown, so the clip can be
+ * put into a {@link DecodedFrameCache}.  The clip only holds every decoded frame if every one
+ * is shown, as with on-demand decoding; real-time playback replaces frames before a draw.
+ * <p/>
+ * Each frame is drawn with the SurfaceTexture transform into an offscreen texture of the cache
+ * size and read back with glReadPixels, into buffers allocated up front for the whole pass.
+ * Must be used on the GL thread.
+ */
+public class ClipRecorder {
+    private static final String TAG = "ClipRecorder";
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final Size size;
+    private TextureFramebuffer framebuffer;
+    private final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+    private final List<Long> timestamps = new ArrayList<Long>();
+    private long firstTimestampNanos = -1;
+    private boolean abandoned;
+
+    /**
+     * @param size       Size of the cached frames.
+     * @param frameCount Frames in one pass over the clip, e.g. its sample count.
+     * @param maxBytes   Nothing is recorded if the frames would need more memory than this.
+     */
+    public ClipRecorder(Size size, int frameCount, long maxBytes) {
+        this.size = size;
+        long frameBytes = (long) size.width * size.height * BYTES_PER_PIXEL;
+        if (frameCount <= 0 || frameCount * frameBytes > maxBytes) {
+            Log.w(TAG, "Clip of " + frameCount + " frames exceeds " + maxBytes
+                    + " bytes, not caching it");
+            abandoned = true;
+            return;
+        }
+        for (int i = 0; i < frameCount; i++) {
+            frames.add(ByteBuffer.allocateDirect((int) frameBytes));
+        }
+        framebuffer = new TextureFramebuffer(size.width, size.height);
+    }
+
+    /**
+     * Copies the frame currently latched in the external texture.
+     *
+     * @param rect           Draws external textures (TEXTURE_EXT program).
+     * @param timestampNanos The SurfaceTexture time stamp of the frame.
+     * @return false if the clip turned out too large to cache.
+     */
+    public boolean capture(FullFrameRect rect, int textureId, float[] texMatrix, long timestampNanos) {
+        if (abandoned) {
+            return false;
+        }
+        if (timestamps.size() == frames.size()) {
+            Log.w(TAG, "More than " + frames.size() + " frames in one pass, not caching it");
+            abandon();
+            return false;
+        }
+        if (firstTimestampNanos < 0) {
+            firstTimestampNanos = timestampNanos;
+        }
+
+        ByteBuffer pixels = frames.get(timestamps.size());
+        pixels.clear();
+        framebuffer.bind();
+        rect.drawFrame(textureId, texMatrix);
+        GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
+        GLES20.glReadPixels(0, 0, size.width, size.height, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, pixels);
+        GlUtil.checkGlError("glReadPixels");
+        framebuffer.unbind();
+        pixels.rewind();
+
+        timestamps.add(timestampNanos - firstTimestampNanos);
+        return true;
+    }
+
+    /**
+     * Returns the recorded clip, or null if nothing usable was recorded.
+     */
+    public CachedClip finish() {
+        if (abandoned || timestamps.isEmpty()) {
+            return null;
+        }
+        // Fewer frames than expected, e.g. after decoder errors: drop the unused buffers.
+        int count = timestamps.size();
+        long[] timestampsNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            timestampsNanos[i] = timestamps.get(i);
+        }
+        // Assume the last frame stays up for an average frame interval.
+        long lastTimestamp = timestampsNanos[count - 1];
+        long durationNanos = count > 1 ? lastTimestamp + lastTimestamp / (count - 1) : 0;
+        return new CachedClip(size, frames.subList(0, count).toArray(new ByteBuffer[count]),
+                timestampsNanos, durationNanos);
+    }
+
+    private void abandon() {
+        abandoned = true;
+        frames.clear();
+        timestamps.clear();
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Frees the GL objects.  The recorded frames stay valid.
+     */
+    public void release() {
+        if (framebuffer != null) {
+            framebuffer.release();
+            framebuffer = null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.muneikh.inputsource.cache;
+
+import android.util.Log;
+
+import com.muneikh.gles.Size;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps decoded clips in memory so a mock clip is decoded once per process instead of once
+ * per loop.
+ * <p/>
+ * Clips are keyed by asset name and frame size.  When adding a clip would exceed the memory
+ * budget, the least recently used clips are evicted.  Thread-safe.
+ */
+public class DecodedFrameCache {
+    private static final String TAG = "DecodedFrameCache";
+
+    private final long budgetBytes;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    // Access order, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, CachedClip> clips =
+            new LinkedHashMap<String, CachedClip>(8, 0.75f, true);
+
+    /**
+     * @param budgetBytes Maximum memory held by cached frames.
+     */
+    public DecodedFrameCache(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Budget must be positive");
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    private static String key(String assetName, Size size) {
+        return assetName + "@" + size.width + "x" + size.height;
+    }
+
+    /**
+     * Returns the cached clip, or null.
+     */
+    public synchronized CachedClip get(String assetName, Size size) {
+        CachedClip clip = clips.get(key(assetName, size));
+        if (clip != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return clip;
+    }
+
+    /**
+     * Returns true if a clip of this size would fit in the budget after evicting everything
+     * else.
+     */
+    public boolean fits(long byteCount) {
+        return byteCount <= budgetBytes;
+    }
+
+    /**
+     * Adds a clip, evicting least recently used clips as needed.
+     *
+     * @return false if the clip is larger than the whole budget and was not added.
+     */
+    public synchronized boolean put(String assetName, CachedClip clip) {
+        long byteCount = clip.getByteCount();
+        if (!fits(byteCount)) {
+            Log.w(TAG, "Not caching " + assetName + ": " + byteCount + " bytes exceeds budget of "
+                    + budgetBytes);
+            return false;
+        }
+        CachedClip previous = clips.remove(key(assetName, clip.getSize()));
+        if (previous != null) {
+            usedBytes -= previous.getByteCount();
+        }
+        Iterator<Map.Entry<String, CachedClip>> it = clips.entrySet().iterator();
+        while (usedBytes + byteCount > budgetBytes && it.hasNext()) {
+            Map.Entry<String, CachedClip> eldest = it.next();
+            usedBytes -= eldest.getValue().getByteCount();
+            it.remove();
+            evictions++;
+            Log.d(TAG, "Evicted " + eldest.getKey());
+        }
+        clips.put(key(assetName, clip.getSize()), clip);
+        usedBytes += byteCount;
+        Log.d(TAG, "Cached " + assetName + ": " + clip.getFrameCount() + " frames, "
+                + usedBytes + "/" + budgetBytes + " bytes used");
+        return true;
+    }
+
+    public synchronized void clear() {
+        clips.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+}
@@ -0,0 +1,166 @@
+package com.muneikh.inputsource.camera;
+
+import com.muneikh.gles.Size;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Remembers on disk the camera configuration negotiated on an earlier run, so a warm start can
+ * set it right away instead of searching the supported sizes and fps ranges again.
+ * <p/>
+ * Entries are keyed by camera index, device fingerprint, target frame size and screen
+ * rotation, so a system update or a different target gets a fresh negotiation.  A missing or
+ * unreadable entry just reads as null.
+ */
+public class CameraCapabilityCache {
+    private static final String SUFFIX = ".camera";
+    private static final int MAGIC = 0x43415043;
+    private static final int VERSION = 1;
+
+    /**
+     * The configuration picked for one camera.
+     */
+    public static class Entry {
+        public final Size previewSize;
+        public final int[] previewFpsRange;
+        public final int displayOrientation;
+
+        public Entry(Size previewSize, int[] previewFpsRange, int displayOrientation) {
+            this.previewSize = previewSize;
+            this.previewFpsRange = previewFpsRange.clone();
+            this.displayOrientation = displayOrientation;
+        }
+
+        /**
+         * Returns true if the camera still offers this configuration.
+         */
+        public boolean isSupportedBy(CameraParameters parameters) {
+            boolean sizeSupported = false;
+            for (Size size : parameters.getSupportedPreviewSizes()) {
+                if (size.width == previewSize.width && size.height == previewSize.height) {
+                    sizeSupported = true;
+                    break;
+                }
+            }
+            if (!sizeSupported) {
+                return false;
+            }
+            for (int[] range : parameters.getSupportedPreviewFpsRange()) {
+                if (Arrays.equals(range, previewFpsRange)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean sameAs(Entry other) {
+            return other != null && previewSize.width == other.previewSize.width
+                    && previewSize.height == other.previewSize.height
+                    && Arrays.equals(previewFpsRange, other.previewFpsRange)
+                    && displayOrientation == other.displayOrientation;
+        }
+
+        @Override
+        public String toString() {
+            return previewSize + " @[" + previewFpsRange[0] + " - " + previewFpsRange[1]
+                    + "], display orientation " + displayOrientation;
+        }
+    }
+
+    private final File directory;
+    private final String fingerprint;
+
+    /**
+     * @param directory   Where entries go, usually under the app's cache directory.
+     * @param fingerprint Identifies the device and system build, e.g. Build.FINGERPRINT.
+     */
+    public CameraCapabilityCache(File directory, String fingerprint) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the stored entry, or null if there is none.
+     */
+    public Entry get(int cameraIndex, int screenRotation) {
+        File file = getEntryFile(cameraIndex, screenRotation);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a camera entry: " + file);
+                }
+                // The file name is only a hash; check the full key.
+                if (!in.readUTF().equals(getKey(cameraIndex, screenRotation))) {
+                    return null;
+                }
+                Size size = new Size(in.readInt(), in.readInt());
+                int[] fpsRange = new int[]{in.readInt(), in.readInt()};
+                return new Entry(size, fpsRange, in.readInt());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Corrupt; it will be renegotiated and rewritten.
+            file.delete();
+            return null;
+        }
+    }
+
+    public void put(int cameraIndex, int screenRotation, Entry entry) throws IOException {
+        File file = getEntryFile(cameraIndex, screenRotation);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        // Write to a temporary file first so a crash never leaves a half-written entry.
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(getKey(cameraIndex, screenRotation));
+            out.writeInt(entry.previewSize.width);
+            out.writeInt(entry.previewSize.height);
+            out.writeInt(entry.previewFpsRange[0]);
+            out.writeInt(entry.previewFpsRange[1]);
+            out.writeInt(entry.displayOrientation);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    /**
+     * Drops the entry, e.g. after the camera refused it.
+     */
+    public void remove(int cameraIndex, int screenRotation) {
+        getEntryFile(cameraIndex, screenRotation).delete();
+    }
+
+    private String getKey(int cameraIndex, int screenRotation) {
+        return cameraIndex + "|" + fingerprint + "|" + Size.FRAME_WIDTH + "x" + Size.FRAME_HEIGHT
+                + "|" + screenRotation;
+    }
+
+    File getEntryFile(int cameraIndex, int screenRotation) {
+        String key = getKey(cameraIndex, screenRotation);
+        return new File(directory, "camera" + cameraIndex + "-"
+                + Integer.toHexString(key.hashCode()) + SUFFIX);
+    }
+}
@@ -0,0 +1,29 @@
+package com.muneikh.inputsource.camera;
+
+import android.graphics.SurfaceTexture;
+
+import java.io.IOException;
+
+/**
+ * An opened camera: the part of android.hardware.Camera that CameraTextureVideoInputSource
+ * uses.  Methods throw RuntimeException on failure, like Camera does.
+ */
+public interface CameraDevice {
+
+    /**
+     * Returns a copy of the current settings.
+     */
+    CameraParameters getParameters();
+
+    void setParameters(CameraParameters parameters);
+
+    void setDisplayOrientation(int degrees);
+
+    void setPreviewTexture(SurfaceTexture surfaceTexture) throws IOException;
+
+    void startPreview();
+
+    void stopPreview();
+
+    void release();
+}
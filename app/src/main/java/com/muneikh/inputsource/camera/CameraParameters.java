@@ -0,0 +1,87 @@
+package com.muneikh.inputsource.camera;
+
+import com.muneikh.gles.Size;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The camera settings CameraTextureVideoInputSource negotiates: what a camera supports, and
+ * the preview size and fps range picked from that.  Plain data, so it can come from the
+ * hardware camera or a fake one.
+ * <p/>
+ * Fps ranges are in thousandths of a frame per second, as in Camera.Parameters.
+ */
+public class CameraParameters {
+    private final List<Size> supportedPreviewSizes;
+    private final List<int[]> supportedPreviewFpsRanges;
+    private Size previewSize;
+    private int[] previewFpsRange;
+    private boolean recordingHint;
+
+    public CameraParameters(List<Size> supportedPreviewSizes, List<int[]> supportedPreviewFpsRanges,
+                            Size previewSize, int[] previewFpsRange) {
+        this.supportedPreviewSizes = Collections.unmodifiableList(
+                new ArrayList<Size>(supportedPreviewSizes));
+        this.supportedPreviewFpsRanges = Collections.unmodifiableList(
+                new ArrayList<int[]>(supportedPreviewFpsRanges));
+        this.previewSize = previewSize;
+        this.previewFpsRange = previewFpsRange.clone();
+    }
+
+    public List<Size> getSupportedPreviewSizes() {
+        return supportedPreviewSizes;
+    }
+
+    public List<int[]> getSupportedPreviewFpsRange() {
+        return supportedPreviewFpsRanges;
+    }
+
+    public Size getPreviewSize() {
+        return previewSize;
+    }
+
+    public void setPreviewSize(int width, int height) {
+        previewSize = new Size(width, height);
+    }
+
+    public void getPreviewFpsRange(int[] range) {
+        range[0] = previewFpsRange[0];
+        range[1] = previewFpsRange[1];
+    }
+
+    public void setPreviewFpsRange(int min, int max) {
+        previewFpsRange = new int[]{min, max};
+    }
+
+    public boolean getRecordingHint() {
+        return recordingHint;
+    }
+
+    public void setRecordingHint(boolean recordingHint) {
+        this.recordingHint = recordingHint;
+    }
+
+    /**
+     * Returns the settings as a string, for logging.
+     */
+    public String flatten() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("preview-size=").append(previewSize.width).append('x')
+                .append(previewSize.height);
+        builder.append(";preview-fps-range=").append(previewFpsRange[0]).append(',')
+                .append(previewFpsRange[1]);
+        builder.append(";recording-hint=").append(recordingHint);
+        builder.append(";preview-size-values=");
+        for (int i = 0; i < supportedPreviewSizes.size(); i++) {
+            Size size = supportedPreviewSizes.get(i);
+            builder.append(i > 0 ? "," : "").append(size.width).append('x').append(size.height);
+        }
+        builder.append(";preview-fps-range-values=");
+        for (int[] range : supportedPreviewFpsRanges) {
+            builder.append('(').append(range[0]).append(',').append(range[1]).append(')');
+        }
+        return builder.toString();
+    }
+}
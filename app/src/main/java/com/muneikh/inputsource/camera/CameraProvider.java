@@ -0,0 +1,20 @@
+package com.muneikh.inputsource.camera;
+
+import android.hardware.Camera;
+
+/**
+ * Lists and opens cameras: the static side of android.hardware.Camera.
+ */
+public interface CameraProvider {
+
+    int getNumberOfCameras();
+
+    void getCameraInfo(int cameraIndex, Camera.CameraInfo info);
+
+    /**
+     * Opens a camera.
+     *
+     * @throws RuntimeException if the camera can't be opened.
+     */
+    CameraDevice open(int cameraIndex);
+}
@@ -0,0 +1,287 @@
+package com.muneikh.inputsource.camera;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.util.Log;
+import android.view.Surface;
+
+import com.muneikh.gles.Size;
+import com.muneikh.inputsource.decoder.RealtimeFramePacer;
+import com.muneikh.inputsource.decoder.VideoDecoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cameras that play video files from the assets into the preview SurfaceTexture, so the camera
+ * source's negotiation and open / switch / release handling can run without camera hardware.
+ * <p/>
+ * There is a back camera (index 0) and a front camera (index 1).  Supported sizes and fps
+ * ranges, sensor orientation and open latency are configurable, and failures can be injected
+ * into any step.  Frames come at the clip's own rate, whatever fps range is set.
+ */
+public class FakeCameraProvider implements CameraProvider {
+    private static final String TAG = "FakeCameraProvider";
+
+    /**
+     * Steps failures can be injected into.
+     */
+    public enum Operation {
+        OPEN, SET_PARAMETERS, START_PREVIEW
+    }
+
+    private final Context context;
+    private final String[] clips = new String[2];
+    private final int[] sensorOrientations = {90, 270};
+    private List<Size> supportedPreviewSizes = Arrays.asList(
+            new Size(1920, 1080), new Size(1280, 720), new Size(640, 480), new Size(320, 240));
+    private List<int[]> supportedFpsRanges = Arrays.asList(
+            new int[]{15000, 15000}, new int[]{15000, 30000}, new int[]{30000, 30000});
+    private volatile long openLatencyMillis;
+    private final Map<Operation, Integer> pendingFailures =
+            new EnumMap<Operation, Integer>(Operation.class);
+    private final boolean[] open = new boolean[2];
+    private int openCount;
+
+    /**
+     * @param asset Clip both cameras show until {@link #setCameraClip} says otherwise.
+     */
+    public FakeCameraProvider(Context context, String asset) {
+        this.context = context;
+        clips[0] = asset;
+        clips[1] = asset;
+    }
+
+    /**
+     * @param facing Camera.CameraInfo.CAMERA_FACING_BACK or CAMERA_FACING_FRONT.
+     */
+    public void setCameraClip(int facing, String asset) {
+        clips[indexOf(facing)] = asset;
+    }
+
+    public void setSensorOrientation(int facing, int degrees) {
+        sensorOrientations[indexOf(facing)] = degrees;
+    }
+
+    public void setSupportedPreviewSizes(List<Size> sizes) {
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("A camera supports at least one size");
+        }
+        supportedPreviewSizes = new ArrayList<Size>(sizes);
+    }
+
+    /**
+     * @param ranges Ranges in thousandths of a frame per second, like {15000, 30000}.
+     */
+    public void setSupportedPreviewFpsRanges(List<int[]> ranges) {
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("A camera supports at least one fps range");
+        }
+        supportedFpsRanges = new ArrayList<int[]>(ranges);
+    }
+
+    /**
+     * Makes open() block for the given time, like a slow camera HAL.
+     */
+    public void setOpenLatencyMillis(long millis) {
+        openLatencyMillis = millis;
+    }
+
+    /**
+     * Makes the next {@code times} calls of the given operation throw a RuntimeException.
+     */
+    public synchronized void injectFailure(Operation operation, int times) {
+        pendingFailures.put(operation, times);
+    }
+
+    /**
+     * Returns how many times a camera has been opened successfully.
+     */
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    @Override
+    public int getNumberOfCameras() {
+        return 2;
+    }
+
+    @Override
+    public void getCameraInfo(int cameraIndex, Camera.CameraInfo info) {
+        checkIndex(cameraIndex);
+        info.facing = cameraIndex == 0
+                ? Camera.CameraInfo.CAMERA_FACING_BACK : Camera.CameraInfo.CAMERA_FACING_FRONT;
+        info.orientation = sensorOrientations[cameraIndex];
+    }
+
+    @Override
+    public CameraDevice open(int cameraIndex) {
+        checkIndex(cameraIndex);
+        if (openLatencyMillis > 0) {
+            try {
+                Thread.sleep(openLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            maybeFail(Operation.OPEN);
+            if (open[cameraIndex]) {
+                throw new RuntimeException("Fail to connect to camera service");
+            }
+            open[cameraIndex] = true;
+            openCount++;
+        }
+        return new FakeCameraDevice(cameraIndex);
+    }
+
+    private synchronized void maybeFail(Operation operation) {
+        Integer remaining = pendingFailures.get(operation);
+        if (remaining != null && remaining > 0) {
+            pendingFailures.put(operation, remaining - 1);
+            throw new RuntimeException("Injected " + operation + " failure");
+        }
+    }
+
+    private synchronized void onReleased(int cameraIndex) {
+        open[cameraIndex] = false;
+    }
+
+    private static int indexOf(int facing) {
+        return facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? 1 : 0;
+    }
+
+    private static void checkIndex(int cameraIndex) {
+        if (cameraIndex < 0 || cameraIndex > 1) {
+            throw new RuntimeException("Unknown camera " + cameraIndex);
+        }
+    }
+
+    private static boolean containsRange(List<int[]> ranges, int[] range) {
+        for (int[] supported : ranges) {
+            if (Arrays.equals(supported, range)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class FakeCameraDevice implements CameraDevice {
+        private final int cameraIndex;
+        private final List<Size> sizes = supportedPreviewSizes;
+        private final List<int[]> fpsRanges = supportedFpsRanges;
+        private CameraParameters parameters;
+        private SurfaceTexture surfaceTexture;
+        private Surface surface;
+        private VideoDecoder decoder;
+        private int displayOrientation;
+        private boolean released;
+
+        FakeCameraDevice(int cameraIndex) {
+            this.cameraIndex = cameraIndex;
+            parameters = new CameraParameters(sizes, fpsRanges, sizes.get(0), fpsRanges.get(0));
+        }
+
+        @Override
+        public CameraParameters getParameters() {
+            checkNotReleased();
+            CameraParameters copy = new CameraParameters(sizes, fpsRanges,
+                    parameters.getPreviewSize(), currentFpsRange());
+            copy.setRecordingHint(parameters.getRecordingHint());
+            return copy;
+        }
+
+        @Override
+        public void setParameters(CameraParameters newParameters) {
+            checkNotReleased();
+            maybeFail(Operation.SET_PARAMETERS);
+            Size size = newParameters.getPreviewSize();
+            boolean sizeSupported = false;
+            for (Size supported : sizes) {
+                sizeSupported |= supported.width == size.width && supported.height == size.height;
+            }
+            int[] fpsRange = new int[2];
+            newParameters.getPreviewFpsRange(fpsRange);
+            if (!sizeSupported || !containsRange(fpsRanges, fpsRange)) {
+                throw new RuntimeException("setParameters failed");
+            }
+            parameters = newParameters;
+        }
+
+        private int[] currentFpsRange() {
+            int[] range = new int[2];
+            parameters.getPreviewFpsRange(range);
+            return range;
+        }
+
+        @Override
+        public void setDisplayOrientation(int degrees) {
+            checkNotReleased();
+            displayOrientation = degrees;
+        }
+
+        @Override
+        public void setPreviewTexture(SurfaceTexture surfaceTexture) throws IOException {
+            checkNotReleased();
+            this.surfaceTexture = surfaceTexture;
+        }
+
+        @Override
+        public void startPreview() {
+            checkNotReleased();
+            maybeFail(Operation.START_PREVIEW);
+            if (surfaceTexture == null) {
+                throw new RuntimeException("startPreview failed: no preview texture");
+            }
+            if (decoder != null) {
+                return;
+            }
+            AssetFileDescriptor afd;
+            try {
+                afd = context.getAssets().openFd(clips[cameraIndex]);
+            } catch (IOException e) {
+                throw new RuntimeException("startPreview failed", e);
+            }
+            // The decoder closes the descriptor; stopPreview() and release() release it.
+            decoder = new VideoDecoder(afd, new RealtimeFramePacer());
+            surface = new Surface(surfaceTexture);
+            decoder.start(surface, VideoDecoder.Callback.EMPTY);
+            Log.d(TAG, "Camera " + cameraIndex + " previewing " + clips[cameraIndex] + " at "
+                    + parameters.getPreviewSize() + ", display orientation " + displayOrientation);
+        }
+
+        @Override
+        public void stopPreview() {
+            if (decoder != null) {
+                decoder.release();
+                decoder = null;
+            }
+            if (surface != null) {
+                surface.release();
+                surface = null;
+            }
+        }
+
+        @Override
+        public void release() {
+            if (released) {
+                return;
+            }
+            stopPreview();
+            released = true;
+            onReleased(cameraIndex);
+        }
+
+        private void checkNotReleased() {
+            if (released) {
+                throw new RuntimeException("Camera is being used after Camera.release() was called");
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.muneikh.inputsource.camera;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import com.muneikh.gles.Size;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The device's cameras, through android.hardware.Camera.
+ */
+public class HardwareCameraProvider implements CameraProvider {
+
+    @Override
+    public int getNumberOfCameras() {
+        return Camera.getNumberOfCameras();
+    }
+
+    @Override
+    public void getCameraInfo(int cameraIndex, Camera.CameraInfo info) {
+        Camera.getCameraInfo(cameraIndex, info);
+    }
+
+    @Override
+    public CameraDevice open(int cameraIndex) {
+        return new HardwareCameraDevice(Camera.open(cameraIndex));
+    }
+
+    private static class HardwareCameraDevice implements CameraDevice {
+        private final Camera camera;
+        // Kept so settings we don't model survive a round trip.
+        private Camera.Parameters parameters;
+
+        HardwareCameraDevice(Camera camera) {
+            this.camera = camera;
+        }
+
+        @Override
+        public CameraParameters getParameters() {
+            parameters = camera.getParameters();
+            List<Size> sizes = new ArrayList<Size>();
+            for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+                sizes.add(new Size(size.width, size.height));
+            }
+            Camera.Size previewSize = parameters.getPreviewSize();
+            int[] fpsRange = new int[2];
+            parameters.getPreviewFpsRange(fpsRange);
+            CameraParameters result = new CameraParameters(sizes,
+                    parameters.getSupportedPreviewFpsRange(),
+                    new Size(previewSize.width, previewSize.height), fpsRange);
+            result.setRecordingHint("true".equals(parameters.get("recording-hint")));
+            return result;
+        }
+
+        @Override
+        public void setParameters(CameraParameters cameraParameters) {
+            if (parameters == null) {
+                parameters = camera.getParameters();
+            }
+            Size size = cameraParameters.getPreviewSize();
+            parameters.setPreviewSize(size.width, size.height);
+            int[] fpsRange = new int[2];
+            cameraParameters.getPreviewFpsRange(fpsRange);
+            parameters.setPreviewFpsRange(fpsRange[0], fpsRange[1]);
+            parameters.setRecordingHint(cameraParameters.getRecordingHint());
+            camera.setParameters(parameters);
+        }
+
+        @Override
+        public void setDisplayOrientation(int degrees) {
+            camera.setDisplayOrientation(degrees);
+        }
+
+        @Override
+        public void setPreviewTexture(SurfaceTexture surfaceTexture) throws IOException {
+            camera.setPreviewTexture(surfaceTexture);
+        }
+
+        @Override
+        public void startPreview() {
+            camera.startPreview();
+        }
+
+        @Override
+        public void stopPreview() {
+            camera.stopPreview();
+        }
+
+        @Override
+        public void release() {
+            camera.release();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.muneikh.inputsource.decoder;
+
+/**
+ * Decides when a decoded frame is released to the output Surface.
+ * <p/>
+ * All methods except {@link #release()} are called on the decoder thread.
+ */
+public interface FramePacer {
+
+    /**
+     * Blocks until the frame with the given presentation time may be shown.
+     *
+     * @return true to render the frame, false to drop it.
+     */
+    boolean awaitFrameRelease(long presentationTimeUs) throws InterruptedException;
+
+    /**
+     * Called when the decoder restarts from the beginning of the clip.
+     */
+    void onLoop();
+
+    /**
+     * Called when the decoder jumps to another frame.  The next frame offered is the seek
+     * target.
+     */
+    void onSeek();
+
+    /**
+     * Unblocks a decoder thread waiting in {@link #awaitFrameRelease(long)}.  Called from
+     * any thread when the decoder is stopping.
+     */
+    void release();
+}
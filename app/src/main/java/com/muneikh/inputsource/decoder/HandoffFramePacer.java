@@ -0,0 +1,46 @@
+package com.muneikh.inputsource.decoder;
+
+/**
+ * Lets consecutive decoders share one pacer, as the slots of a gapless playlist do.
+ * <p/>
+ * Once its decoder has released its last frame and {@link #handOff()} was called, the next
+ * decoder owns the pacer: {@link #release()} then leaves it alone, so stopping the finished
+ * decoder doesn't stop the one that took over.
+ */
+public class HandoffFramePacer implements FramePacer {
+    private final FramePacer delegate;
+    private volatile boolean handedOff;
+
+    public HandoffFramePacer(FramePacer delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Called on the decoder thread once it won't wait for the pacer again.
+     */
+    public void handOff() {
+        handedOff = true;
+    }
+
+    @Override
+    public boolean awaitFrameRelease(long presentationTimeUs) throws InterruptedException {
+        return delegate.awaitFrameRelease(presentationTimeUs);
+    }
+
+    @Override
+    public void onLoop() {
+        delegate.onLoop();
+    }
+
+    @Override
+    public void onSeek() {
+        delegate.onSeek();
+    }
+
+    @Override
+    public void release() {
+        if (!handedOff) {
+            delegate.release();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.muneikh.inputsource.decoder;
+
+/**
+ * Time between the last frame of one pass over a clip and the first frame of the next.
+ * <p/>
+ * With gapless looping this should stay close to one frame interval.
+ */
+public class LoopGapStats {
+    private long count;
+    private long lastNanos;
+    private long maxNanos;
+    private long totalNanos;
+
+    public synchronized void record(long gapNanos) {
+        count++;
+        lastNanos = gapNanos;
+        totalNanos += gapNanos;
+        if (gapNanos > maxNanos) {
+            maxNanos = gapNanos;
+        }
+    }
+
+    /**
+     * Returns the number of loop boundaries measured.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getLastNanos() {
+        return lastNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public synchronized long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public synchronized void reset() {
+        count = lastNanos = maxNanos = totalNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LoopGapStats { count=" + count + " last=" + lastNanos / 1000 + "us max="
+                + maxNanos / 1000 + "us mean=" + getMeanNanos() / 1000 + "us }";
+    }
+}
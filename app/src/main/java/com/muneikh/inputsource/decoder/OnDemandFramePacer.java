@@ -0,0 +1,47 @@
+package com.muneikh.inputsource.decoder;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Releases one frame per {@link #requestFrame()} call, ignoring presentation time stamps.
+ * <p/>
+ * Lets the consumer pull frames as fast as it can render them.
+ */
+public class OnDemandFramePacer implements FramePacer {
+    private final Semaphore requests = new Semaphore(0);
+    private volatile boolean released;
+
+    /**
+     * Allows the decoder to release one more frame.
+     */
+    public void requestFrame() {
+        requests.release();
+    }
+
+    @Override
+    public boolean awaitFrameRelease(long presentationTimeUs) throws InterruptedException {
+        requests.acquire();
+        return !released;
+    }
+
+    @Override
+    public void onLoop() {
+    }
+
+    /**
+     * Leaves exactly one request outstanding, for the seek target, so frames decoded before
+     * the seek can't use up requests and the target isn't immediately replaced by the frame
+     * after it.
+     */
+    @Override
+    public void onSeek() {
+        requests.drainPermits();
+        requests.release();
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        requests.release();
+    }
+}
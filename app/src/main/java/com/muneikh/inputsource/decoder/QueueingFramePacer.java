@@ -0,0 +1,81 @@
+package com.muneikh.inputsource.decoder;
+
+import com.muneikh.inputsource.queue.FrameQueue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces like the wrapped pacer, but first waits until the render loop has copied the previous
+ * frame out of the SurfaceTexture into a {@link FrameQueue}, and with BLOCK_PRODUCER until
+ * the queue has room.
+ * <p/>
+ * A SurfaceTexture holds a single frame, so without the first wait a frame released before
+ * the render loop got to the previous one would silently replace it.  With LATEST_ONLY that
+ * is the point, and this pacer doesn't wait at all.
+ */
+public class QueueingFramePacer implements FramePacer {
+    private final FramePacer delegate;
+    private final FrameQueue<?> queue;
+    private final Semaphore ingested = new Semaphore(1);
+    private volatile boolean released;
+
+    public QueueingFramePacer(FramePacer delegate, FrameQueue<?> queue) {
+        this.delegate = delegate;
+        this.queue = queue;
+    }
+
+    /**
+     * Called by the render loop once it has taken the released frame out of the SurfaceTexture.
+     */
+    public void onFrameIngested() {
+        ingested.drainPermits();
+        ingested.release();
+    }
+
+    @Override
+    public boolean awaitFrameRelease(long presentationTimeUs) throws InterruptedException {
+        if (queue.getPolicy() == FrameQueue.Policy.LATEST_ONLY) {
+            return !released && !queue.isClosed()
+                    && delegate.awaitFrameRelease(presentationTimeUs) && !released;
+        }
+        ingested.acquire();
+        boolean render = false;
+        try {
+            while (!released && !queue.awaitCapacity(100, TimeUnit.MILLISECONDS)) {
+                if (queue.isClosed()) {
+                    // The source is being released; awaitCapacity() won't wait any more.
+                    return false;
+                }
+            }
+            if (released || queue.isClosed()) {
+                return false;
+            }
+            render = delegate.awaitFrameRelease(presentationTimeUs) && !released;
+            return render;
+        } finally {
+            if (!render) {
+                // No frame will reach the SurfaceTexture, so none will be ingested.  Also
+                // when a seek interrupted the wait.
+                ingested.release();
+            }
+        }
+    }
+
+    @Override
+    public void onLoop() {
+        delegate.onLoop();
+    }
+
+    @Override
+    public void onSeek() {
+        delegate.onSeek();
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        ingested.release();
+        delegate.release();
+    }
+}
@@ -0,0 +1,77 @@
+package com.muneikh.inputsource.decoder;
+
+/**
+ * Releases frames at the rate given by their presentation time stamps, like a player would.
+ * <p/>
+ * We sleep on the decoder thread so the SurfaceTexture never queues up more than one frame.
+ */
+public class RealtimeFramePacer implements FramePacer {
+    private static final long ONE_MILLION = 1000000L;
+    private static final long FALLBACK_FRAME_DURATION_USEC = ONE_MILLION / 30;
+
+    private long prevPresentUsec;
+    private long prevMonoUsec;
+    private long frameDurationUsec = FALLBACK_FRAME_DURATION_USEC;
+    private boolean loopReset;
+    private volatile boolean released;
+
+    @Override
+    public boolean awaitFrameRelease(long presentationTimeUs) throws InterruptedException {
+        if (released) {
+            return false;
+        }
+        long nowUsec = System.nanoTime() / 1000;
+        if (prevMonoUsec == 0) {
+            // First frame, show it right away.
+            prevMonoUsec = nowUsec;
+            prevPresentUsec = presentationTimeUs;
+            return true;
+        }
+
+        if (loopReset) {
+            // Timestamps went back to zero; pretend the previous frame was one frame earlier.
+            prevPresentUsec = presentationTimeUs - frameDurationUsec;
+            loopReset = false;
+        }
+
+        long frameDelta = presentationTimeUs - prevPresentUsec;
+        if (frameDelta < 0) {
+            frameDelta = 0;
+        } else if (frameDelta > 10 * ONE_MILLION) {
+            // Broken time stamps shouldn't stall playback for ages.
+            frameDelta = 5 * ONE_MILLION;
+        } else if (frameDelta > 0) {
+            frameDurationUsec = frameDelta;
+        }
+
+        long desiredUsec = prevMonoUsec + frameDelta;
+        while (nowUsec < desiredUsec - 100 && !released) {
+            long sleepTimeUsec = desiredUsec - nowUsec;
+            if (sleepTimeUsec > 500000) {
+                sleepTimeUsec = 500000;
+            }
+            Thread.sleep(sleepTimeUsec / 1000, (int) (sleepTimeUsec % 1000) * 1000);
+            nowUsec = System.nanoTime() / 1000;
+        }
+
+        prevMonoUsec += frameDelta;
+        prevPresentUsec += frameDelta;
+        return !released;
+    }
+
+    @Override
+    public void onLoop() {
+        loopReset = true;
+    }
+
+    @Override
+    public void onSeek() {
+        // Show the target right away and carry on from there.
+        loopReset = true;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+}
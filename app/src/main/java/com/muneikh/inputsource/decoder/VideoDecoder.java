@@ -0,0 +1,422 @@
+package com.muneikh.inputsource.decoder;
+
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import com.muneikh.gles.Size;
+import com.muneikh.inputsource.mp4.SampleTable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Decodes the video track of a file with MediaExtractor and MediaCodec, rendering every frame
+ * into an output Surface (usually one wrapping the SurfaceTexture of an input source).
+ * <p/>
+ * Decoding runs on a dedicated thread.  A {@link FramePacer} decides when each decoded frame is
+ * released to the Surface, so the same engine can play in real time or as fast as the consumer
+ * pulls frames.
+ * <p/>
+ * A decoder can also be pre-rolled: it decodes its first frame and holds it until
+ * {@link #play()} is called, which lets a standby decoder take over from another one at a loop
+ * or clip boundary within one frame interval.
+ * <p/>
+ * Given the clip's {@link SampleTable}, it can also seek straight to any frame: decoding restarts
+ * at the nearest preceding keyframe and the frames before the target are dropped unpaced.
+ */
+public class VideoDecoder {
+    private static final String TAG = "VideoDecoder";
+    private static final int TIMEOUT_USEC = 10000;
+
+    /**
+     * Receives decoder events.  Called on the decoder thread.
+     */
+    public interface Callback {
+        Callback EMPTY = new Callback() {
+            @Override
+            public void onEndOfStream() {
+
+            }
+
+            @Override
+            public void onDecoderError(Exception e) {
+
+            }
+        };
+
+        /**
+         * The last frame of a non-looping clip has been released.
+         */
+        void onEndOfStream();
+
+        void onDecoderError(Exception e);
+    }
+
+    private final AssetFileDescriptor source;
+    private final HandoffFramePacer pacer;
+    private MediaExtractor extractor;
+    private MediaFormat format;
+    private int trackIndex = -1;
+    private Size videoSize;
+    private long durationUs;
+    private volatile boolean looping = true;
+    private volatile SampleTable sampleTable;
+
+    private Thread decodeThread;
+    private final CountDownLatch playGate = new CountDownLatch(1);
+    private volatile boolean stopRequested;
+    private volatile long frameIndex = -1;
+    private volatile int loopCount;
+    private volatile int pendingSeekFrame = -1;
+    private volatile long firstReleaseNanos;
+    private volatile long lastReleaseNanos;
+
+    /**
+     * @param source The file to decode.  The decoder takes ownership: the descriptor is closed
+     *               once the extractor holds its own copy, or on {@link #release()}.
+     */
+    public VideoDecoder(AssetFileDescriptor source, FramePacer pacer) {
+        this.source = source;
+        this.pacer = new HandoffFramePacer(pacer);
+    }
+
+    /**
+     * Opens the file and selects the first video track.  Safe to call on any thread; the
+     * codec itself is only created when decoding starts.
+     */
+    public void prepare() throws IOException {
+        extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(source.getFileDescriptor(), source.getStartOffset(),
+                    source.getLength());
+        } finally {
+            // The extractor dups the descriptor.
+            closeSource();
+        }
+        trackIndex = selectVideoTrack(extractor);
+        if (trackIndex < 0) {
+            extractor.release();
+            extractor = null;
+            throw new IOException("No video track found in input file");
+        }
+        extractor.selectTrack(trackIndex);
+        format = extractor.getTrackFormat(trackIndex);
+        videoSize = new Size(format.getInteger(MediaFormat.KEY_WIDTH),
+                format.getInteger(MediaFormat.KEY_HEIGHT));
+        durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+                ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+        Log.d(TAG, "Video is " + videoSize.width + "x" + videoSize.height + ", " + durationUs + "us");
+    }
+
+    /**
+     * Returns the size of the decoded frames.  Valid after {@link #prepare()}.
+     */
+    public Size getVideoSize() {
+        return videoSize;
+    }
+
+    /**
+     * Returns the clip duration in microseconds, or -1 if the container doesn't say.
+     */
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    /**
+     * Restart from the first frame after the end of the clip instead of stopping.  Defaults
+     * to true.
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * Sets the sample table of the clip, which {@link #seekToFrame(int)} needs.
+     */
+    public void setSampleTable(SampleTable sampleTable) {
+        this.sampleTable = sampleTable;
+    }
+
+    /**
+     * Jumps to the given frame (in presentation order).  The next frame released to the
+     * Surface is that frame.  Can be called from any thread, before or during playback.
+     */
+    public void seekToFrame(int frame) {
+        SampleTable table = sampleTable;
+        if (table == null) {
+            throw new IllegalStateException("No sample table set");
+        }
+        if (frame < 0 || frame >= table.getSampleCount()) {
+            throw new IllegalArgumentException("Frame " + frame + " out of range");
+        }
+        frameIndex = -1;
+        pendingSeekFrame = frame;
+        Thread thread = decodeThread;
+        if (thread != null) {
+            // Wake the decoder if it's waiting on the pacer.
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Returns the index, within the current pass over the clip, of the last frame released to
+     * the output Surface, or -1 if none has been released yet.
+     */
+    public long getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * Returns how many times playback has wrapped around to the start of the clip.
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * Returns the System.nanoTime() at which the first frame was released to the Surface, or 0.
+     */
+    public long getFirstReleaseNanos() {
+        return firstReleaseNanos;
+    }
+
+    /**
+     * Returns the System.nanoTime() at which the latest frame was released to the Surface, or 0.
+     */
+    public long getLastReleaseNanos() {
+        return lastReleaseNanos;
+    }
+
+    /**
+     * Starts decoding into the given Surface on a new thread.
+     */
+    public void start(Surface surface, Callback callback) {
+        preroll(surface, callback);
+        play();
+    }
+
+    /**
+     * Starts decoding into the given Surface on a new thread, but holds the first decoded frame
+     * until {@link #play()} is called.  If {@link #prepare()} hasn't been called yet it runs on
+     * the decoder thread, so this never blocks the caller on I/O.
+     */
+    public void preroll(final Surface surface, final Callback callback) {
+        if (decodeThread != null) {
+            throw new IllegalStateException("Decoder already started.");
+        }
+        decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                MediaCodec decoder = null;
+                try {
+                    if (extractor == null) {
+                        prepare();
+                    }
+                    decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+                    decoder.configure(format, surface, null, 0);
+                    decoder.start();
+                    doDecode(decoder, callback);
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Decoder interrupted");
+                } catch (Exception e) {
+                    Log.e(TAG, "Decoding failed", e);
+                    callback.onDecoderError(e);
+                } finally {
+                    if (decoder != null) {
+                        decoder.stop();
+                        decoder.release();
+                    }
+                    if (extractor != null) {
+                        extractor.release();
+                        extractor = null;
+                    }
+                }
+            }
+        }, TAG);
+        decodeThread.start();
+    }
+
+    /**
+     * Releases the first frame of a pre-rolled decoder and lets playback continue.
+     */
+    public void play() {
+        playGate.countDown();
+    }
+
+    /**
+     * Stops decoding and waits for the decoder thread to finish.
+     * <p/>
+     * Once the clip has ended the pacer isn't released, even though the decoder thread may
+     * still be shutting the codec down: a decoder that took over may be using it already.
+     */
+    public void release() {
+        stopRequested = true;
+        playGate.countDown();
+        closeSource();
+        if (decodeThread != null && decodeThread.isAlive()) {
+            pacer.release();
+        }
+        if (decodeThread == null) {
+            if (extractor != null) {
+                extractor.release();
+                extractor = null;
+            }
+            return;
+        }
+        try {
+            decodeThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        decodeThread = null;
+    }
+
+    private synchronized void closeSource() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close the input file", e);
+        }
+    }
+
+    private void doDecode(MediaCodec decoder, Callback callback) throws InterruptedException {
+        ByteBuffer[] inputBuffers = decoder.getInputBuffers();
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        long passFrameIndex = 0;
+        long seekTargetUs = -1;
+
+        while (!stopRequested) {
+            int seekFrame = pendingSeekFrame;
+            if (seekFrame >= 0) {
+                pendingSeekFrame = -1;
+                // Clear an interrupt that arrived while we weren't waiting.
+                Thread.interrupted();
+                SampleTable table = sampleTable;
+                int syncSample = table.getSyncSampleBefore(table.getSampleForFrame(seekFrame));
+                extractor.seekTo(table.getPresentationTimeUs(syncSample),
+                        MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                decoder.flush();
+                inputDone = false;
+                seekTargetUs = table.getFrameTimeUs(seekFrame);
+                passFrameIndex = seekFrame;
+                pacer.onSeek();
+            }
+
+            if (!inputDone) {
+                int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_USEC);
+                if (inputIndex >= 0) {
+                    int chunkSize = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                    if (chunkSize < 0) {
+                        decoder.queueInputBuffer(inputIndex, 0, 0, 0L,
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(inputIndex, 0, chunkSize,
+                                extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int outputIndex = decoder.dequeueOutputBuffer(info, TIMEOUT_USEC);
+            if (outputIndex < 0) {
+                // No output yet, or a format / buffer change we don't care about when
+                // decoding to a Surface.
+                continue;
+            }
+
+            boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            boolean render = false;
+            if (info.size != 0 && !endOfStream && seekTargetUs >= 0
+                    && info.presentationTimeUs < seekTargetUs) {
+                // Decoding from the keyframe up to the seek target.
+                decoder.releaseOutputBuffer(outputIndex, false);
+                continue;
+            }
+            if (info.size != 0) {
+                seekTargetUs = -1;
+                render = awaitRelease(info.presentationTimeUs);
+                if (stopRequested) {
+                    decoder.releaseOutputBuffer(outputIndex, false);
+                    return;
+                }
+                if (pendingSeekFrame >= 0) {
+                    // Superseded by a seek, handled at the top of the loop.
+                    decoder.releaseOutputBuffer(outputIndex, false);
+                    continue;
+                }
+                if (render) {
+                    lastReleaseNanos = System.nanoTime();
+                    if (firstReleaseNanos == 0) {
+                        firstReleaseNanos = lastReleaseNanos;
+                    }
+                }
+            }
+            decoder.releaseOutputBuffer(outputIndex, render);
+            if (info.size != 0) {
+                if (render) {
+                    // Only once the frame has been queued, so a seek can wait for it.
+                    frameIndex = passFrameIndex;
+                }
+                passFrameIndex++;
+            }
+
+            if (endOfStream) {
+                if (!looping) {
+                    // Before the callback, which may start the next decoder on the same pacer.
+                    pacer.handOff();
+                    callback.onEndOfStream();
+                    return;
+                }
+                extractor.seekTo(0, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+                decoder.flush();
+                inputDone = false;
+                passFrameIndex = 0;
+                loopCount++;
+                pacer.onLoop();
+            }
+        }
+    }
+
+    /**
+     * Waits for the play gate and then the pacer.  A seek interrupts the wait and makes it
+     * return false.
+     */
+    private boolean awaitRelease(long presentationTimeUs) throws InterruptedException {
+        while (true) {
+            try {
+                if (firstReleaseNanos == 0) {
+                    playGate.await();
+                    if (stopRequested) {
+                        return false;
+                    }
+                }
+                return pacer.awaitFrameRelease(presentationTimeUs);
+            } catch (InterruptedException e) {
+                if (stopRequested) {
+                    throw e;
+                }
+                if (pendingSeekFrame >= 0) {
+                    return false;
+                }
+                // Interrupted by a seek that has already been handled; keep waiting.
+            }
+        }
+    }
+
+    private static int selectVideoTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,290 @@
+package com.muneikh.inputsource.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Minimal ISO BMFF (MP4) parser that builds the {@link SampleTable} of the first video track.
+ * <p/>
+ * Only the boxes needed to locate samples are read: moov (mvhd), trak (edts/elst), mdia (hdlr,
+ * mdhd) and the stbl tables stsd, stts, ctts, stss, stsz, stsc and stco/co64.  Presentation
+ * times are shifted by the edit list like MediaExtractor shifts the times it hands the
+ * decoder, so they match the decoder's output; edit lists with more than one media segment
+ * and fragmented files are not supported.  Pure Java, so it runs on the JVM as well as on the
+ * device.
+ */
+public final class Mp4Demuxer {
+    private static final int BOX_HEADER_SIZE = 8;
+
+    private Mp4Demuxer() {
+    }
+
+    /**
+     * Parses a file by memory-mapping it.
+     */
+    public static SampleTable parse(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Parses a whole file held in the buffer, from its position to its limit.  Sample offsets
+     * are relative to the buffer position.
+     */
+    public static SampleTable parse(ByteBuffer file) throws IOException {
+        ByteBuffer data = file.slice().order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer moov = findBox(data, "moov");
+        if (moov == null) {
+            throw new IOException("No moov box; fragmented or truncated file?");
+        }
+        long movieTimescale = readTimescale(require(findBox(moov.duplicate(), "mvhd"), "mvhd"));
+        ByteBuffer trak;
+        while ((trak = findBox(moov, "trak")) != null) {
+            ByteBuffer mdia = findBox(trak.duplicate(), "mdia");
+            if (mdia != null && isVideoTrack(mdia)) {
+                return parseTrack(trak, mdia, movieTimescale);
+            }
+        }
+        throw new IOException("No video track found");
+    }
+
+    private static boolean isVideoTrack(ByteBuffer mdia) {
+        ByteBuffer hdlr = findBox(mdia.duplicate(), "hdlr");
+        if (hdlr == null || hdlr.remaining() < 12) {
+            return false;
+        }
+        // version/flags, pre_defined, handler_type
+        return "vide".equals(fourCc(hdlr.getInt(8)));
+    }
+
+    private static long readTimescale(ByteBuffer header) throws IOException {
+        // mvhd and mdhd start alike: version/flags, creation and modification times (64-bit
+        // in version 1), timescale.
+        long timescale = header.getInt(header.get(0) == 1 ? 20 : 12) & 0xffffffffL;
+        if (timescale == 0) {
+            throw new IOException("Zero timescale");
+        }
+        return timescale;
+    }
+
+    private static SampleTable parseTrack(ByteBuffer trak, ByteBuffer mdia, long movieTimescale)
+            throws IOException {
+        long timescale = readTimescale(require(findBox(mdia.duplicate(), "mdhd"), "mdhd"));
+
+        ByteBuffer minf = require(findBox(mdia.duplicate(), "minf"), "minf");
+        ByteBuffer stbl = require(findBox(minf, "stbl"), "stbl");
+
+        ByteBuffer stsd = require(findBox(stbl.duplicate(), "stsd"), "stsd");
+        // version/flags, entry_count, then the first entry: size, format, 6 reserved bytes,
+        // data_reference_index, 16 bytes of pre_defined/reserved, width, height.
+        String sampleType = fourCc(stsd.getInt(12));
+        int width = stsd.getShort(8 + BOX_HEADER_SIZE + 24) & 0xffff;
+        int height = stsd.getShort(8 + BOX_HEADER_SIZE + 26) & 0xffff;
+
+        int[] sizes = readSampleSizes(require(findBox(stbl.duplicate(), "stsz"), "stsz"));
+        int count = sizes.length;
+        long[] offsets = readSampleOffsets(stbl, sizes);
+        long[] decodeTimes = readDecodeTimes(require(findBox(stbl.duplicate(), "stts"), "stts"),
+                count);
+
+        ByteBuffer ctts = findBox(stbl.duplicate(), "ctts");
+        if (ctts != null) {
+            applyCompositionOffsets(ctts, decodeTimes);
+        }
+        long editShift = 0;
+        ByteBuffer edts = findBox(trak.duplicate(), "edts");
+        ByteBuffer elst = edts != null ? findBox(edts, "elst") : null;
+        if (elst != null) {
+            editShift = readEditShift(elst, timescale, movieTimescale);
+        }
+        long[] presentationTimesUs = new long[count];
+        for (int i = 0; i < count; i++) {
+            presentationTimesUs[i] = (decodeTimes[i] + editShift) * 1000000L / timescale;
+        }
+
+        int[] syncSamples = null;
+        ByteBuffer stss = findBox(stbl.duplicate(), "stss");
+        if (stss != null) {
+            int entries = stss.getInt(4);
+            syncSamples = new int[entries];
+            for (int i = 0; i < entries; i++) {
+                // 1-based in the file
+                syncSamples[i] = stss.getInt(8 + 4 * i) - 1;
+            }
+        }
+        return new SampleTable(sampleType, width, height, offsets, sizes, presentationTimesUs,
+                syncSamples);
+    }
+
+    private static int[] readSampleSizes(ByteBuffer stsz) {
+        int uniformSize = stsz.getInt(4);
+        int count = stsz.getInt(8);
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = uniformSize != 0 ? uniformSize : stsz.getInt(12 + 4 * i);
+        }
+        return sizes;
+    }
+
+    private static long[] readSampleOffsets(ByteBuffer stbl, int[] sizes) throws IOException {
+        int sampleCount = sizes.length;
+        long[] chunkOffsets;
+        ByteBuffer stco = findBox(stbl.duplicate(), "stco");
+        if (stco != null) {
+            chunkOffsets = new long[stco.getInt(4)];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = stco.getInt(8 + 4 * i) & 0xffffffffL;
+            }
+        } else {
+            ByteBuffer co64 = require(findBox(stbl.duplicate(), "co64"), "stco");
+            chunkOffsets = new long[co64.getInt(4)];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = co64.getLong(8 + 8 * i);
+            }
+        }
+
+        ByteBuffer stsc = require(findBox(stbl.duplicate(), "stsc"), "stsc");
+        int entries = stsc.getInt(4);
+        long[] offsets = new long[sampleCount];
+        int sample = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            int firstChunk = stsc.getInt(8 + 12 * entry) - 1;
+            int samplesPerChunk = stsc.getInt(8 + 12 * entry + 4);
+            int lastChunk = entry + 1 < entries
+                    ? stsc.getInt(8 + 12 * (entry + 1)) - 1 : chunkOffsets.length;
+            for (int chunk = firstChunk; chunk < lastChunk && sample < sampleCount; chunk++) {
+                long offset = chunkOffsets[chunk];
+                for (int i = 0; i < samplesPerChunk && sample < sampleCount; i++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample != sampleCount) {
+            throw new IOException("stsc covers " + sample + " of " + sampleCount + " samples");
+        }
+        return offsets;
+    }
+
+    private static long[] readDecodeTimes(ByteBuffer stts, int sampleCount) throws IOException {
+        int entries = stts.getInt(4);
+        long[] times = new long[sampleCount];
+        long time = 0;
+        int sample = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            int count = stts.getInt(8 + 8 * entry);
+            long delta = stts.getInt(8 + 8 * entry + 4) & 0xffffffffL;
+            for (int i = 0; i < count && sample < sampleCount; i++) {
+                times[sample++] = time;
+                time += delta;
+            }
+        }
+        if (sample != sampleCount) {
+            throw new IOException("stts covers " + sample + " of " + sampleCount + " samples");
+        }
+        return times;
+    }
+
+    /**
+     * Returns what the edit list adds to composition times, in the media timescale: the delay
+     * of a leading empty edit, minus the media time the first media segment starts at.  B-frame
+     * clips use the latter to make the first frame start at 0 despite their ctts offsets.
+     */
+    static long readEditShift(ByteBuffer elst, long timescale, long movieTimescale)
+            throws IOException {
+        boolean version1 = elst.get(0) == 1;
+        int entries = elst.getInt(4);
+        int entrySize = version1 ? 20 : 12;
+        long emptyDuration = 0;
+        long mediaTime = -1;
+        for (int entry = 0; entry < entries; entry++) {
+            int offset = 8 + entrySize * entry;
+            long segmentDuration = version1
+                    ? elst.getLong(offset) : elst.getInt(offset) & 0xffffffffL;
+            long segmentMediaTime = version1
+                    ? elst.getLong(offset + 8) : elst.getInt(offset + 4);
+            if (segmentMediaTime == -1) {
+                if (mediaTime != -1) {
+                    throw new IOException("Unsupported edit list: empty edit after media");
+                }
+                emptyDuration += segmentDuration;
+            } else if (mediaTime == -1) {
+                mediaTime = segmentMediaTime;
+            } else {
+                throw new IOException("Unsupported edit list: " + entries + " entries");
+            }
+        }
+        return emptyDuration * timescale / movieTimescale - Math.max(mediaTime, 0);
+    }
+
+    private static void applyCompositionOffsets(ByteBuffer ctts, long[] times) {
+        // Version 1 offsets are signed; version 0 ones are too in practice.
+        int entries = ctts.getInt(4);
+        int sample = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            int count = ctts.getInt(8 + 8 * entry);
+            int offset = ctts.getInt(8 + 8 * entry + 4);
+            for (int i = 0; i < count && sample < times.length; i++) {
+                times[sample++] += offset;
+            }
+        }
+    }
+
+    /**
+     * Scans the buffer, from its position, for the next box of the given type.  Returns its
+     * payload as a new buffer and moves the position past it, or returns null at the end.
+     */
+    private static ByteBuffer findBox(ByteBuffer parent, String type) {
+        while (parent.remaining() >= BOX_HEADER_SIZE) {
+            int start = parent.position();
+            long size = parent.getInt() & 0xffffffffL;
+            String boxType = fourCc(parent.getInt());
+            int headerSize = BOX_HEADER_SIZE;
+            if (size == 1) {
+                size = parent.getLong();
+                headerSize += 8;
+            } else if (size == 0) {
+                size = parent.limit() - start;
+            }
+            if (size < headerSize || size > parent.limit() - start) {
+                // Corrupt or truncated; stop looking.
+                parent.position(parent.limit());
+                return null;
+            }
+            int end = start + (int) size;
+            if (boxType.equals(type)) {
+                ByteBuffer payload = parent.duplicate();
+                payload.position(start + headerSize).limit(end);
+                parent.position(end);
+                return payload.slice().order(ByteOrder.BIG_ENDIAN);
+            }
+            parent.position(end);
+        }
+        return null;
+    }
+
+    private static ByteBuffer require(ByteBuffer box, String type) throws IOException {
+        if (box == null) {
+            throw new IOException("Missing " + type + " box");
+        }
+        return box;
+    }
+
+    private static String fourCc(int value) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) ((value >>> (24 - 8 * i)) & 0xff);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,98 @@
+package com.muneikh.inputsource.mp4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps parsed {@link SampleTable}s on disk so a clip's moov only has to be parsed once.
+ * <p/>
+ * Entries are keyed by the clip name and length, so a replaced clip of a different size gets a
+ * new index.  A missing or unreadable entry is rebuilt and rewritten.
+ */
+public class SampleIndexStore {
+    private static final String SUFFIX = ".sampleindex";
+
+    private final File directory;
+
+    /**
+     * @param directory Where index files go, usually the app's cache directory.
+     */
+    public SampleIndexStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the stored table for the clip, or parses the mapped clip and stores the result.
+     *
+     * @param name   Name identifying the clip, e.g. the asset name.
+     * @param length Length of the clip in bytes.
+     * @param clip   The whole clip, mapped; only read if there's no stored index.
+     */
+    public SampleTable load(String name, long length, ByteBuffer clip) throws IOException {
+        File file = getIndexFile(name, length);
+        SampleTable table = read(file);
+        if (table == null) {
+            table = Mp4Demuxer.parse(clip);
+            write(file, table);
+        }
+        return table;
+    }
+
+    /**
+     * Returns the stored table for the clip, or null if there is none.
+     */
+    public SampleTable get(String name, long length) {
+        return read(getIndexFile(name, length));
+    }
+
+    File getIndexFile(String name, long length) {
+        String safeName = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(directory, safeName + "-" + length + SUFFIX);
+    }
+
+    private static SampleTable read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return SampleTable.readFrom(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Stale or corrupt; it will be rebuilt.
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void write(File file, SampleTable table) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        // Write to a temporary file first so a crash never leaves a half-written index.
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            table.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to write " + file);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.muneikh.inputsource.mp4;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Where every sample (frame) of a video track lives in the file, and when it is presented.
+ * <p/>
+ * Samples are indexed in decode order, as stored in the file.  Frames are indexed in
+ * presentation order, which differs from decode order when the stream uses B-frames.
+ * Immutable.
+ */
+public final class SampleTable {
+    private static final int MAGIC = 0x4d584958; // "MXIX"
+    // 2: presentation times include the edit list shift.
+    private static final int VERSION = 2;
+
+    private final String sampleType;
+    private final int width;
+    private final int height;
+    private final long[] offsets;
+    private final int[] sizes;
+    private final long[] presentationTimesUs;
+    // Sorted sample indices of the sync samples, or null if every sample is one.
+    private final int[] syncSamples;
+    // Frame index -> sample index.
+    private final int[] frameToSample;
+    // Sample index -> frame index.
+    private final int[] sampleToFrame;
+
+    SampleTable(String sampleType, int width, int height, long[] offsets, int[] sizes,
+                long[] presentationTimesUs, int[] syncSamples) {
+        if (offsets.length != sizes.length || offsets.length != presentationTimesUs.length) {
+            throw new IllegalArgumentException("Inconsistent sample table");
+        }
+        this.sampleType = sampleType;
+        this.width = width;
+        this.height = height;
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.presentationTimesUs = presentationTimesUs;
+        this.syncSamples = syncSamples;
+
+        int count = offsets.length;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = SampleTable.this.presentationTimesUs[lhs];
+                long r = SampleTable.this.presentationTimesUs[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        frameToSample = new int[count];
+        sampleToFrame = new int[count];
+        for (int frame = 0; frame < count; frame++) {
+            frameToSample[frame] = order[frame];
+            sampleToFrame[order[frame]] = frame;
+        }
+    }
+
+    /**
+     * Returns the four-character code of the sample entry, e.g. "avc1".
+     */
+    public String getSampleType() {
+        return sampleType;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSampleCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the offset of a sample from the start of the file (or of the mapped region the
+     * table was parsed from).
+     */
+    public long getOffset(int sample) {
+        return offsets[sample];
+    }
+
+    public int getSize(int sample) {
+        return sizes[sample];
+    }
+
+    public long getPresentationTimeUs(int sample) {
+        return presentationTimesUs[sample];
+    }
+
+    public boolean isSyncSample(int sample) {
+        return syncSamples == null || Arrays.binarySearch(syncSamples, sample) >= 0;
+    }
+
+    /**
+     * Returns the sample that holds the given frame.
+     */
+    public int getSampleForFrame(int frame) {
+        return frameToSample[frame];
+    }
+
+    public int getFrameForSample(int sample) {
+        return sampleToFrame[sample];
+    }
+
+    /**
+     * Returns the presentation time of the given frame.
+     */
+    public long getFrameTimeUs(int frame) {
+        return presentationTimesUs[frameToSample[frame]];
+    }
+
+    /**
+     * Returns the last sync sample at or before the given sample in decode order.  Decoding
+     * has to start there to reach the sample.
+     */
+    public int getSyncSampleBefore(int sample) {
+        if (syncSamples == null) {
+            return sample;
+        }
+        int index = Arrays.binarySearch(syncSamples, sample);
+        if (index >= 0) {
+            return sample;
+        }
+        int insertion = -index - 1;
+        return insertion == 0 ? 0 : syncSamples[insertion - 1];
+    }
+
+    /**
+     * Returns the last frame presented at or before the given time, or 0.
+     */
+    public int getFrameAtTime(long timeUs) {
+        int low = 0;
+        int high = frameToSample.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getFrameTimeUs(mid) <= timeUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the table in a compact binary form that {@link #readFrom} understands.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(sampleType);
+        out.writeInt(width);
+        out.writeInt(height);
+        int count = offsets.length;
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(offsets[i]);
+            out.writeInt(sizes[i]);
+            out.writeLong(presentationTimesUs[i]);
+        }
+        if (syncSamples == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(syncSamples.length);
+            for (int sample : syncSamples) {
+                out.writeInt(sample);
+            }
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo}.
+     *
+     * @throws IOException if the data is not a sample table of this version.
+     */
+    public static SampleTable readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a sample table, or an unsupported version");
+        }
+        String sampleType = in.readUTF();
+        int width = in.readInt();
+        int height = in.readInt();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Bad sample count " + count);
+        }
+        long[] offsets = new long[count];
+        int[] sizes = new int[count];
+        long[] presentationTimesUs = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = in.readLong();
+            sizes[i] = in.readInt();
+            presentationTimesUs[i] = in.readLong();
+        }
+        int syncCount = in.readInt();
+        int[] syncSamples = null;
+        if (syncCount >= 0) {
+            syncSamples = new int[syncCount];
+            for (int i = 0; i < syncCount; i++) {
+                syncSamples[i] = in.readInt();
+            }
+        }
+        return new SampleTable(sampleType, width, height, offsets, sizes, presentationTimesUs,
+                syncSamples);
+    }
+}
@@ -0,0 +1,208 @@
+package com.muneikh.inputsource.queue;
+
+import com.muneikh.metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded FIFO of decoded frames between a producer and the render loop, so a few frames can
+ * wait out a render hiccup instead of the latest frame replacing the one before.
+ * <p/>
+ * What happens when the queue is full depends on the {@link Policy}.  Frames the queue drops
+ * are handed to the {@link Recycler}, so they can go back to a pool: nothing is allocated
+ * per frame.  Thread-safe.
+ *
+ * @param <T> The frame type, e.g. a texture in a pool.
+ */
+public class FrameQueue<T> {
+
+    public enum Policy {
+        /**
+         * A new frame pushes out the oldest queued one.  Bounded latency, smooth when the
+         * consumer catches up.
+         */
+        DROP_OLDEST,
+        /**
+         * The producer waits in {@link #awaitCapacity} until there's room.  No frame is lost.
+         */
+        BLOCK_PRODUCER,
+        /**
+         * Only the newest frame is kept: lowest latency, as with a single SurfaceTexture.
+         */
+        LATEST_ONLY
+    }
+
+    /**
+     * Takes back frames the queue drops.
+     */
+    public interface Recycler<T> {
+        void recycle(T frame);
+    }
+
+    private final Policy policy;
+    private final int depth;
+    private final Recycler<T> recycler;
+    private final Object[] frames;
+    private final long[] enqueueNanos;
+    private int head;
+    private int size;
+    private long droppedCount;
+    private int maxOccupancy;
+    private boolean closed;
+    private final LatencyHistogram enqueueWait = new LatencyHistogram("frame queue enqueue wait");
+    private final LatencyHistogram queueDelay = new LatencyHistogram("frame queue delay");
+
+    /**
+     * @param depth Number of frames the queue holds; LATEST_ONLY always holds one.
+     */
+    public FrameQueue(int depth, Policy policy, Recycler<T> recycler) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1");
+        }
+        this.policy = policy;
+        this.depth = policy == Policy.LATEST_ONLY ? 1 : depth;
+        this.recycler = recycler;
+        frames = new Object[this.depth];
+        enqueueNanos = new long[this.depth];
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * With BLOCK_PRODUCER, waits until the queue has room for one more frame; returns right
+     * away with the other policies.  The wait is recorded as the enqueue latency.
+     *
+     * @return false on timeout, or if the queue was closed.
+     */
+    public synchronized boolean awaitCapacity(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (policy != Policy.BLOCK_PRODUCER) {
+            return !closed;
+        }
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + unit.toNanos(timeout);
+        while (size == depth && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        enqueueWait.record(System.nanoTime() - startNanos);
+        return !closed;
+    }
+
+    /**
+     * Adds a frame.  Never blocks: when full, DROP_OLDEST and LATEST_ONLY drop the oldest
+     * frame; BLOCK_PRODUCER expects {@link #awaitCapacity} first and throws otherwise.
+     */
+    public void enqueue(T frame) {
+        T dropped = null;
+        synchronized (this) {
+            if (size == depth) {
+                if (policy == Policy.BLOCK_PRODUCER) {
+                    throw new IllegalStateException("Queue full; call awaitCapacity() first");
+                }
+                dropped = removeHead();
+                droppedCount++;
+            }
+            int tail = (head + size) % depth;
+            frames[tail] = frame;
+            enqueueNanos[tail] = System.nanoTime();
+            size++;
+            maxOccupancy = Math.max(maxOccupancy, size);
+        }
+        if (dropped != null) {
+            recycler.recycle(dropped);
+        }
+    }
+
+    /**
+     * Takes the oldest frame, or returns null if the queue is empty.  The time it spent in the
+     * queue is recorded as the dequeue latency.
+     */
+    public synchronized T poll() {
+        if (size == 0) {
+            return null;
+        }
+        queueDelay.record(System.nanoTime() - enqueueNanos[head]);
+        T frame = removeHead();
+        notifyAll();
+        return frame;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeHead() {
+        T frame = (T) frames[head];
+        frames[head] = null;
+        head = (head + 1) % depth;
+        size--;
+        return frame;
+    }
+
+    /**
+     * Recycles every queued frame.
+     */
+    public void clear() {
+        while (true) {
+            T frame;
+            synchronized (this) {
+                if (size == 0) {
+                    notifyAll();
+                    return;
+                }
+                frame = removeHead();
+            }
+            recycler.recycle(frame);
+        }
+    }
+
+    /**
+     * Clears the queue and wakes a waiting producer for good.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        clear();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the highest number of frames that were queued at once.
+     */
+    public synchronized int getMaxOccupancy() {
+        return maxOccupancy;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns how long producers waited for room (BLOCK_PRODUCER only).
+     */
+    public LatencyHistogram getEnqueueWaitHistogram() {
+        return enqueueWait;
+    }
+
+    /**
+     * Returns how long frames spent in the queue before the consumer took them.
+     */
+    public LatencyHistogram getQueueDelayHistogram() {
+        return queueDelay;
+    }
+}
@@ -0,0 +1,282 @@
+package com.muneikh.inputsource.scenario;
+
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A scripted camera timeline: which clip each camera shows, and the steps to go through, e.g.
+ * the back clip for 300 frames, a switch to the front camera, a rotation, then a failure.
+ * <p/>
+ * Built with {@link Builder} and played by {@link ScenarioInputSource}.  Immutable.
+ */
+public final class Scenario {
+
+    /**
+     * One entry of the timeline.
+     */
+    public static final class Step {
+        public enum Type {
+            /**
+             * Shows frames of a clip.
+             */
+            PLAY,
+            /**
+             * Switches to the other camera, as TextureVideoInputSource.switchCamera() does.
+             */
+            SWITCH_CAMERA,
+            /**
+             * Changes the display rotation, which changes the texture transform.
+             */
+            ROTATE,
+            /**
+             * Reports an UnableToOpenCameraException to the error listener.
+             */
+            FAIL
+        }
+
+        private final Type type;
+        private final String clip;
+        private final int frames;
+        private final int degrees;
+        private final String message;
+
+        private Step(Type type, String clip, int frames, int degrees, String message) {
+            this.type = type;
+            this.clip = clip;
+            this.frames = frames;
+            this.degrees = degrees;
+            this.message = message;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the asset a PLAY step shows, or null for the clip of the current camera.
+         */
+        public String getClip() {
+            return clip;
+        }
+
+        /**
+         * Returns the number of frames a PLAY step lasts.  The other steps take no frames of
+         * their own; they happen on the first frame of the step after them.
+         */
+        public int getFrames() {
+            return frames;
+        }
+
+        public int getDegrees() {
+            return degrees;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case PLAY:
+                    return "PLAY " + (clip != null ? clip : "camera clip") + " x" + frames;
+                case ROTATE:
+                    return "ROTATE " + degrees;
+                case FAIL:
+                    return "FAIL \"" + message + "\"";
+                default:
+                    return type.toString();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final String name;
+        private String backClip;
+        private String frontClip;
+        private int initialFacing = Camera.CameraInfo.CAMERA_FACING_BACK;
+        private int nominalFrameRate = 30;
+        private final List<Step> steps = new ArrayList<Step>();
+
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Sets the clip the given camera shows.
+         *
+         * @param facing Camera.CameraInfo.CAMERA_FACING_BACK or CAMERA_FACING_FRONT.
+         */
+        public Builder setCameraClip(int facing, String asset) {
+            if (facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+                frontClip = asset;
+            } else {
+                backClip = asset;
+            }
+            return this;
+        }
+
+        /**
+         * Sets the camera the scenario starts with.  Defaults to the back camera.
+         */
+        public Builder setInitialFacing(int facing) {
+            initialFacing = facing;
+            return this;
+        }
+
+        /**
+         * Sets the frame rate the timeline is meant to run at, which execution speed is
+         * reported against.  Defaults to 30.
+         */
+        public Builder setNominalFrameRate(int framesPerSecond) {
+            if (framesPerSecond <= 0) {
+                throw new IllegalArgumentException("Frame rate must be positive");
+            }
+            nominalFrameRate = framesPerSecond;
+            return this;
+        }
+
+        /**
+         * Shows the current camera's clip for the given number of frames.
+         */
+        public Builder play(int frames) {
+            return playClip(null, frames);
+        }
+
+        /**
+         * Shows the given clip for the given number of frames.
+         */
+        public Builder playClip(String asset, int frames) {
+            if (frames <= 0) {
+                throw new IllegalArgumentException("A clip must play for at least one frame");
+            }
+            steps.add(new Step(Step.Type.PLAY, asset, frames, 0, null));
+            return this;
+        }
+
+        public Builder switchCamera() {
+            steps.add(new Step(Step.Type.SWITCH_CAMERA, null, 0, 0, null));
+            return this;
+        }
+
+        /**
+         * Rotates the picture to the given absolute display rotation, a multiple of 90.
+         */
+        public Builder rotate(int degrees) {
+            if (degrees % 90 != 0) {
+                throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees");
+            }
+            steps.add(new Step(Step.Type.ROTATE, null, 0, degrees, null));
+            return this;
+        }
+
+        /**
+         * Fails with an UnableToOpenCameraException carrying the given message.
+         */
+        public Builder fail(String message) {
+            steps.add(new Step(Step.Type.FAIL, null, 0, 0, message));
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if a step needs a camera clip that wasn't set.
+         */
+        public Scenario build() {
+            int facing = initialFacing;
+            for (Step step : steps) {
+                if (step.type == Step.Type.SWITCH_CAMERA) {
+                    facing = facing == Camera.CameraInfo.CAMERA_FACING_FRONT
+                            ? Camera.CameraInfo.CAMERA_FACING_BACK
+                            : Camera.CameraInfo.CAMERA_FACING_FRONT;
+                } else if (step.type == Step.Type.PLAY && step.clip == null
+                        && clipFor(facing) == null) {
+                    throw new IllegalStateException("No clip set for camera facing " + facing);
+                }
+            }
+            return new Scenario(this);
+        }
+
+        private String clipFor(int facing) {
+            return facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? frontClip : backClip;
+        }
+    }
+
+    private final String name;
+    private final String backClip;
+    private final String frontClip;
+    private final int initialFacing;
+    private final int nominalFrameRate;
+    private final List<Step> steps;
+
+    private Scenario(Builder builder) {
+        name = builder.name;
+        backClip = builder.backClip;
+        frontClip = builder.frontClip;
+        initialFacing = builder.initialFacing;
+        nominalFrameRate = builder.nominalFrameRate;
+        steps = Collections.unmodifiableList(new ArrayList<Step>(builder.steps));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the clip the given camera shows, or null if none was set.
+     */
+    public String getCameraClip(int facing) {
+        return facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? frontClip : backClip;
+    }
+
+    public int getInitialFacing() {
+        return initialFacing;
+    }
+
+    public int getNominalFrameRate() {
+        return nominalFrameRate;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns every clip the scenario can show, so they can all be loaded up front.
+     */
+    public Set<String> getClips() {
+        Set<String> clips = new LinkedHashSet<String>();
+        if (backClip != null) {
+            clips.add(backClip);
+        }
+        if (frontClip != null) {
+            clips.add(frontClip);
+        }
+        for (Step step : steps) {
+            if (step.clip != null) {
+                clips.add(step.clip);
+            }
+        }
+        return clips;
+    }
+
+    /**
+     * Returns the number of frames the timeline lasts.
+     */
+    public long getFrameCount() {
+        long frames = 0;
+        for (Step step : steps) {
+            frames += step.frames;
+        }
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return "Scenario " + name + " " + steps;
+    }
+}
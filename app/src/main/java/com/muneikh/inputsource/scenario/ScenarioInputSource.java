@@ -0,0 +1,310 @@
+package com.muneikh.inputsource.scenario;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.util.Log;
+
+import com.muneikh.gles.Size;
+import com.muneikh.inputsource.OnFrameOrientationChangedListener;
+import com.muneikh.inputsource.OnFrameSizeChangedListener;
+import com.muneikh.inputsource.TextureVideoInputSource;
+import com.muneikh.inputsource.TextureVideoInputSourceErrorListener;
+import com.muneikh.inputsource.VideoFileInputSource;
+import com.muneikh.inputsource.exception.UnableToOpenCameraException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plays a {@link Scenario} through the TextureVideoInputSource interface, standing in for the
+ * camera in lifecycle tests.
+ * <p/>
+ * Every clip the scenario can show gets its own on-demand VideoFileInputSource, all started
+ * when the GL context is created.  Each holds its next frame decoded, so a clip change, camera
+ * switch or rotation only swaps which source draws and happens within one frame.  Since frames
+ * are pulled on demand, the timeline runs as fast as the device can render.
+ * <p/>
+ * After the last step the current clip keeps playing.
+ */
+public class ScenarioInputSource implements TextureVideoInputSource {
+
+    private static final String TAG = "ScenarioInputSource";
+
+    private final Context context;
+    private final Scenario scenario;
+    private final Map<String, VideoFileInputSource> sources =
+            new LinkedHashMap<String, VideoFileInputSource>();
+    private OnFrameOrientationChangedListener onFrameOrientationChangedListener;
+    private OnFrameSizeChangedListener onFrameSizeChangedListener;
+    private TextureVideoInputSourceErrorListener errorListener;
+    private ScenarioListener scenarioListener;
+    private volatile boolean ready;
+
+    private VideoFileInputSource current;
+    private int facing;
+    private int rotation;
+    private volatile boolean switchRequested;
+    private int stepIndex;
+    private int framesLeftInStep;
+    private boolean finished;
+    private long frameCount;
+    private long startNanos;
+    private int transitionCount;
+    private long maxTransitionNanos;
+
+    public ScenarioInputSource(Context context, Scenario scenario) {
+        this.context = context;
+        this.scenario = scenario;
+        onFrameOrientationChangedListener = OnFrameOrientationChangedListener.EMPTY;
+        onFrameSizeChangedListener = OnFrameSizeChangedListener.EMPTY;
+        scenarioListener = ScenarioListener.EMPTY;
+    }
+
+    public void setScenarioListener(ScenarioListener scenarioListener) {
+        this.scenarioListener = scenarioListener;
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void onGlContextCreated() {
+        for (String clip : scenario.getClips()) {
+            final VideoFileInputSource source = new VideoFileInputSource(context, clip,
+                    VideoFileInputSource.PlaybackMode.ON_DEMAND);
+            // Only the source on screen speaks for the scenario.
+            source.setOnFrameSizeChangedListener(new OnFrameSizeChangedListener() {
+                @Override
+                public void onFrameSizeChanged(Size size) {
+                    if (source == current) {
+                        onFrameSizeChangedListener.onFrameSizeChanged(size);
+                    }
+                }
+            });
+            source.setOnFrameOrientationChangedListener(new OnFrameOrientationChangedListener() {
+                @Override
+                public void onFrameOrientationChanged() {
+                    if (source == current) {
+                        onFrameOrientationChangedListener.onFrameOrientationChanged();
+                    }
+                }
+            });
+            source.setCameraOpenErrorListener(errorListener);
+            source.onGlContextCreated();
+            sources.put(clip, source);
+        }
+        startPreview();
+    }
+
+    @Override
+    public void startPreview() {
+        facing = scenario.getInitialFacing();
+        rotation = 0;
+        stepIndex = -1;
+        framesLeftInStep = 0;
+        finished = false;
+        frameCount = 0;
+        transitionCount = 0;
+        maxTransitionNanos = 0;
+        startNanos = 0;
+        current = null;
+        String clip = scenario.getCameraClip(facing);
+        if (clip == null && !scenario.getSteps().isEmpty()) {
+            clip = scenario.getSteps().get(0).getClip();
+        }
+        if (clip != null) {
+            show(sources.get(clip));
+        }
+        ready = current != null;
+        Log.d(TAG, "Starting " + scenario + " with " + sources.size() + " clips loaded");
+    }
+
+    @Override
+    public void nextFrame() {
+        long frameStartNanos = System.nanoTime();
+        if (startNanos == 0) {
+            startNanos = frameStartNanos;
+        }
+        boolean transition = false;
+        if (switchRequested) {
+            switchRequested = false;
+            transition |= switchFacing();
+        }
+        if (!finished && framesLeftInStep == 0) {
+            transition |= advanceTimeline();
+        }
+        if (current == null) {
+            return;
+        }
+        current.nextFrame();
+        if (!finished) {
+            frameCount++;
+            framesLeftInStep--;
+        }
+        if (transition) {
+            transitionCount++;
+            maxTransitionNanos = Math.max(maxTransitionNanos, System.nanoTime() - frameStartNanos);
+        }
+    }
+
+    /**
+     * Runs steps until one that shows frames, or the end of the scenario.
+     *
+     * @return true if anything on screen changed.
+     */
+    private boolean advanceTimeline() {
+        List<Scenario.Step> steps = scenario.getSteps();
+        boolean transition = false;
+        while (++stepIndex < steps.size()) {
+            Scenario.Step step = steps.get(stepIndex);
+            scenarioListener.onStepStarted(stepIndex, step);
+            switch (step.getType()) {
+                case PLAY:
+                    String clip = step.getClip() != null
+                            ? step.getClip() : scenario.getCameraClip(facing);
+                    transition |= show(sources.get(clip));
+                    framesLeftInStep = step.getFrames();
+                    return transition;
+                case SWITCH_CAMERA:
+                    transition |= switchFacing();
+                    break;
+                case ROTATE:
+                    rotation = step.getDegrees();
+                    current.setDisplayRotation(rotation);
+                    transition = true;
+                    break;
+                case FAIL:
+                    if (errorListener != null) {
+                        errorListener.onError(new UnableToOpenCameraException(step.getMessage()),
+                                false);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unhandled step " + step);
+            }
+        }
+        finish();
+        return transition;
+    }
+
+    private boolean switchFacing() {
+        facing = facing == Camera.CameraInfo.CAMERA_FACING_FRONT
+                ? Camera.CameraInfo.CAMERA_FACING_BACK : Camera.CameraInfo.CAMERA_FACING_FRONT;
+        String clip = scenario.getCameraClip(facing);
+        return clip != null && show(sources.get(clip));
+    }
+
+    /**
+     * Puts the given source on screen.
+     *
+     * @return true if it wasn't already.
+     */
+    private boolean show(VideoFileInputSource source) {
+        if (source == current) {
+            return false;
+        }
+        // Rotate before it's current, so its size callback isn't forwarded twice.
+        source.setDisplayRotation(rotation);
+        current = source;
+        onFrameSizeChangedListener.onFrameSizeChanged(current.getFrameSize());
+        return true;
+    }
+
+    private void finish() {
+        finished = true;
+        ScenarioReport report = new ScenarioReport(scenario.getName(), frameCount,
+                scenario.getSteps().size(), System.nanoTime() - startNanos, transitionCount,
+                maxTransitionNanos, scenario.getNominalFrameRate());
+        Log.i(TAG, report.toString());
+        scenarioListener.onScenarioFinished(report);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the index of the step being played, or -1 before the first frame.
+     */
+    public int getStepIndex() {
+        return stepIndex;
+    }
+
+    @Override
+    public void checkOrientationChanged() {
+        if (current != null) {
+            current.checkOrientationChanged();
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return current != null ? current.getFrameSize() : null;
+    }
+
+    @Override
+    public int getTextureId() {
+        return current != null ? current.getTextureId() : 0;
+    }
+
+    @Override
+    public float[] getTextureTransform() {
+        return current != null ? current.getTextureTransform() : null;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready && current != null && current.isReady();
+    }
+
+    @Override
+    public void releaseGlObjects() {
+        for (VideoFileInputSource source : sources.values()) {
+            source.releaseGlObjects();
+        }
+    }
+
+    @Override
+    public void release() {
+        ready = false;
+        for (VideoFileInputSource source : sources.values()) {
+            source.release();
+        }
+        sources.clear();
+        current = null;
+    }
+
+    @Override
+    public void setCameraOpenErrorListener(TextureVideoInputSourceErrorListener textureVideoInputSourceErrorListener) {
+        this.errorListener = textureVideoInputSourceErrorListener;
+        for (VideoFileInputSource source : sources.values()) {
+            source.setCameraOpenErrorListener(textureVideoInputSourceErrorListener);
+        }
+    }
+
+    @Override
+    public void setOnFrameOrientationChangedListener(OnFrameOrientationChangedListener onFrameOrientationChangedListener) {
+        this.onFrameOrientationChangedListener = onFrameOrientationChangedListener;
+    }
+
+    @Override
+    public void setOnFrameSizeChangedListener(OnFrameSizeChangedListener onFrameSizeChangedListener) {
+        this.onFrameSizeChangedListener = onFrameSizeChangedListener;
+    }
+
+    /**
+     * Switches to the other camera's clip on the next frame, as the real camera source would.
+     * Scripted switches are steps of the scenario instead.
+     */
+    @Override
+    public void switchCamera() {
+        switchRequested = true;
+    }
+
+    @Override
+    public int getCameraFacing() {
+        return facing;
+    }
+}
@@ -0,0 +1,22 @@
+package com.muneikh.inputsource.scenario;
+
+/**
+ * Follows the progress of a {@link ScenarioInputSource}.  Called on the GL thread.
+ */
+public interface ScenarioListener {
+    ScenarioListener EMPTY = new ScenarioListener() {
+        @Override
+        public void onStepStarted(int index, Scenario.Step step) {
+
+        }
+
+        @Override
+        public void onScenarioFinished(ScenarioReport report) {
+
+        }
+    };
+
+    void onStepStarted(int index, Scenario.Step step);
+
+    void onScenarioFinished(ScenarioReport report);
+}
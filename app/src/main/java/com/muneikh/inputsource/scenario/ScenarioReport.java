@@ -0,0 +1,78 @@
+package com.muneikh.inputsource.scenario;
+
+/**
+ * How fast a {@link Scenario} ran.  Immutable.
+ */
+public final class ScenarioReport {
+    private final String name;
+    private final long frameCount;
+    private final int stepCount;
+    private final long elapsedNanos;
+    private final int transitionCount;
+    private final long maxTransitionNanos;
+    private final int nominalFrameRate;
+
+    ScenarioReport(String name, long frameCount, int stepCount, long elapsedNanos,
+                   int transitionCount, long maxTransitionNanos, int nominalFrameRate) {
+        this.name = name;
+        this.frameCount = frameCount;
+        this.stepCount = stepCount;
+        this.elapsedNanos = elapsedNanos;
+        this.transitionCount = transitionCount;
+        this.maxTransitionNanos = maxTransitionNanos;
+        this.nominalFrameRate = nominalFrameRate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Returns the time from the first frame to the end of the last step.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getFramesPerSecond() {
+        return elapsedNanos > 0 ? frameCount * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Returns how many times faster than real time, at the nominal frame rate, the timeline
+     * ran.
+     */
+    public double getSpeedFactor() {
+        return getFramesPerSecond() / nominalFrameRate;
+    }
+
+    /**
+     * Returns the number of frames on which the clip, camera or rotation changed.
+     */
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    /**
+     * Returns the longest nextFrame() call that carried out a transition.
+     */
+    public long getMaxTransitionNanos() {
+        return maxTransitionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d frames, %d steps in %.1f ms (%.1f fps, %.1fx real time),"
+                        + " %d transitions, slowest %.2f ms", name, frameCount, stepCount,
+                elapsedNanos / 1e6, getFramesPerSecond(), getSpeedFactor(), transitionCount,
+                maxTransitionNanos / 1e6);
+    }
+}
@@ -0,0 +1,44 @@
+package com.muneikh.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named count of events, e.g. errors or dropped frames.  Lock-free.
+ */
+public class Counter {
+    private final String name;
+    private final MetricsRegistry registry;
+    private final AtomicLong value = new AtomicLong();
+
+    Counter(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        if (registry.isEnabled()) {
+            value.addAndGet(delta);
+        }
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    public void reset() {
+        value.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + get();
+    }
+}
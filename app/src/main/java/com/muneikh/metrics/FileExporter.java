@@ -0,0 +1,42 @@
+package com.muneikh.metrics;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes a summary of every metric to a file, replacing the previous one, e.g. for a test
+ * run to pull off the device.
+ */
+public class FileExporter implements MetricsExporter {
+    private static final String TAG = "FileExporter";
+
+    private final File file;
+
+    public FileExporter(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void export(MetricsRegistry registry) {
+        File temp = new File(file.getPath() + ".tmp");
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new FileWriter(temp));
+            registry.writeTo(writer);
+            writer.close();
+            if (writer.checkError() || !temp.renameTo(file)) {
+                Log.w(TAG, "Unable to write " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
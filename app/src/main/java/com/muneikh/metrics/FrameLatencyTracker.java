@@ -0,0 +1,161 @@
+package com.muneikh.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Follows each new frame from capture through the latch, the draw passes and the buffer swap,
+ * answering "how old is the frame on screen?".
+ * <p/>
+ * Capture time is whatever the source knows best: the SurfaceTexture timestamp for the camera,
+ * the decoder's release time for video.  All calls come from the GL thread; recording doesn't
+ * allocate.  Frames redrawn without a new latch only count towards the draw and swap stages.
+ */
+public class FrameLatencyTracker {
+    // Anything older isn't on the monotonic clock (e.g. a media time stamp).
+    private static final long MAX_PLAUSIBLE_AGE_NANOS = 10 * 1000000000L;
+
+    private final LatencyHistogram ageAtLatch = new LatencyHistogram("capture to latch");
+    private final LatencyHistogram latch = new LatencyHistogram("updateTexImage");
+    private final LatencyHistogram draw = new LatencyHistogram("draw passes");
+    private final LatencyHistogram swap = new LatencyHistogram("eglSwapBuffers");
+    private final LatencyHistogram captureToDrawn = new LatencyHistogram("capture to drawn");
+    private final LatencyHistogram captureToSwap = new LatencyHistogram("capture to swap");
+
+    // Of the latest new frame, until it's drawn, and until it's swapped; 0 once it was.
+    private long captureNanos;
+    private long swapCaptureNanos;
+    private long drawStartNanos;
+    private long drawNanos;
+    private long swapStartNanos;
+
+    /**
+     * Called by the source right after it latched a new frame.
+     *
+     * @param latchStartNanos System.nanoTime() before updateTexImage().
+     * @param captureNanos    When the frame was captured or released, on the System.nanoTime()
+     *                        clock, or 0 if unknown.
+     */
+    public void onFrameLatched(long latchStartNanos, long captureNanos) {
+        long now = System.nanoTime();
+        latch.record(now - latchStartNanos);
+        long age = now - captureNanos;
+        if (captureNanos > 0 && age >= 0 && age < MAX_PLAUSIBLE_AGE_NANOS) {
+            ageAtLatch.record(age);
+            this.captureNanos = captureNanos;
+        } else {
+            this.captureNanos = 0;
+        }
+        swapCaptureNanos = this.captureNanos;
+    }
+
+    public void beginDraw() {
+        drawStartNanos = System.nanoTime();
+    }
+
+    public void endDraw() {
+        drawNanos += System.nanoTime() - drawStartNanos;
+    }
+
+    /**
+     * Called by the renderer once the frame is fully drawn, before the swap.
+     */
+    public void onFrameDrawn() {
+        if (drawNanos > 0) {
+            draw.record(drawNanos);
+            drawNanos = 0;
+        }
+        if (captureNanos > 0) {
+            captureToDrawn.record(System.nanoTime() - captureNanos);
+            // Also without a swap bracket, so a redraw doesn't age the frame again.
+            captureNanos = 0;
+        }
+    }
+
+    /**
+     * Brackets eglSwapBuffers(), for renderers that swap themselves.  GLSurfaceView swaps out
+     * of sight, so with it the frame's age ends at {@link #onFrameDrawn()}.
+     */
+    public void beginSwap() {
+        swapStartNanos = System.nanoTime();
+    }
+
+    public void endSwap() {
+        long now = System.nanoTime();
+        swap.record(now - swapStartNanos);
+        if (swapCaptureNanos > 0) {
+            captureToSwap.record(now - swapCaptureNanos);
+            swapCaptureNanos = 0;
+        }
+    }
+
+    public LatencyHistogram getAgeAtLatchHistogram() {
+        return ageAtLatch;
+    }
+
+    public LatencyHistogram getLatchHistogram() {
+        return latch;
+    }
+
+    public LatencyHistogram getDrawHistogram() {
+        return draw;
+    }
+
+    public LatencyHistogram getSwapHistogram() {
+        return swap;
+    }
+
+    public LatencyHistogram getCaptureToDrawnHistogram() {
+        return captureToDrawn;
+    }
+
+    /**
+     * Returns the end-to-end latency, from capture to the end of the swap.
+     */
+    public LatencyHistogram getCaptureToSwapHistogram() {
+        return captureToSwap;
+    }
+
+    public void reset() {
+        ageAtLatch.reset();
+        latch.reset();
+        draw.reset();
+        swap.reset();
+        captureToDrawn.reset();
+        captureToSwap.reset();
+    }
+
+    /**
+     * Writes one line per stage, with p50/p95/p99.
+     */
+    public void writeTo(PrintWriter writer) {
+        writer.println(ageAtLatch);
+        writer.println(latch);
+        writer.println(draw);
+        writer.println(swap);
+        writer.println(captureToDrawn);
+        writer.println(captureToSwap);
+    }
+
+    /**
+     * Writes the summary to a file, e.g. a CI artifact.
+     */
+    public void dump(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writeTo(writer);
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "capture to swap: " + captureToSwap + ", capture to drawn: " + captureToDrawn;
+    }
+}
@@ -0,0 +1,34 @@
+package com.muneikh.metrics;
+
+/**
+ * A named value that is set rather than accumulated, e.g. a queue size or a state.
+ */
+public class Gauge {
+    private final String name;
+    private final MetricsRegistry registry;
+    private volatile long value;
+
+    Gauge(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void set(long value) {
+        if (registry.isEnabled()) {
+            this.value = value;
+        }
+    }
+
+    public long get() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + get();
+    }
+}
@@ -0,0 +1,119 @@
+package com.muneikh.metrics;
+
+/**
+ * Histogram of durations with log-linear buckets: exact below 16 ns, then 16 buckets per
+ * power of two, so percentiles are within about 6% of the true value.
+ * <p/>
+ * Recording never allocates, so it's safe on the render and camera threads.  All methods are
+ * synchronized; recording and reading may happen on different threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one duration.  Negative values count as zero.
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[indexOf(nanos)]++;
+        count++;
+        sum += nanos;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMinNanos() {
+        return count > 0 ? min : 0;
+    }
+
+    public synchronized long getMaxNanos() {
+        return max;
+    }
+
+    public synchronized long getMeanNanos() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded durations fall, rounded
+     * up to the top of its bucket (but never above the largest recorded value).
+     *
+     * @param percentile Between 0 and 100.
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms", name, count,
+                getPercentileNanos(50) / 1e6, getPercentileNanos(95) / 1e6,
+                getPercentileNanos(99) / 1e6, max / 1e6);
+    }
+}
@@ -0,0 +1,28 @@
+package com.muneikh.metrics;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logs a summary of every metric, one line each.
+ */
+public class LogcatExporter implements MetricsExporter {
+    private final String tag;
+
+    public LogcatExporter(String tag) {
+        this.tag = tag;
+    }
+
+    @Override
+    public void export(MetricsRegistry registry) {
+        StringWriter summary = new StringWriter();
+        registry.writeTo(new PrintWriter(summary));
+        for (String line : summary.toString().split("\n")) {
+            if (!line.isEmpty()) {
+                Log.i(tag, line);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.muneikh.metrics;
+
+/**
+ * Publishes the metrics of a registry somewhere: logcat, a file, the screen.
+ */
+public interface MetricsExporter {
+
+    /**
+     * Called on the {@link MetricsReporter}'s thread, or by whoever wants a snapshot.
+     */
+    void export(MetricsRegistry registry);
+}
@@ -0,0 +1,112 @@
+package com.muneikh.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Named timers, counters and gauges for the pipeline's stages.
+ * <p/>
+ * Looking a metric up by name takes a lock and may allocate; do it once and keep the metric,
+ * e.g. in a static final field.  Recording into it is lock-free and allocation-free.  While
+ * the registry is disabled, recording does nothing but read a volatile.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, Timer> timers = new LinkedHashMap<String, Timer>();
+    private final Map<String, Counter> counters = new LinkedHashMap<String, Counter>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+    private volatile boolean enabled = true;
+
+    /**
+     * Returns the registry the pipeline records into.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns recording on (the default) or off, for every metric of this registry.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the timer with the given name, creating it on first use.
+     */
+    public synchronized Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = new Timer(name, this);
+            timers.put(name, timer);
+        }
+        return timer;
+    }
+
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name, this);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new Gauge(name, this);
+            gauges.put(name, gauge);
+        }
+        return gauge;
+    }
+
+    public synchronized List<Timer> getTimers() {
+        return new ArrayList<Timer>(timers.values());
+    }
+
+    public synchronized List<Counter> getCounters() {
+        return new ArrayList<Counter>(counters.values());
+    }
+
+    public synchronized List<Gauge> getGauges() {
+        return new ArrayList<Gauge>(gauges.values());
+    }
+
+    /**
+     * Clears timers and counters.  Gauges keep their last value.
+     */
+    public void reset() {
+        for (Timer timer : getTimers()) {
+            timer.reset();
+        }
+        for (Counter counter : getCounters()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Writes one line per metric that has something to show.
+     */
+    public void writeTo(PrintWriter writer) {
+        for (Timer timer : getTimers()) {
+            if (timer.getCount() > 0) {
+                writer.println(timer);
+            }
+        }
+        for (Counter counter : getCounters()) {
+            writer.println(counter);
+        }
+        for (Gauge gauge : getGauges()) {
+            writer.println(gauge);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.muneikh.metrics;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hands a registry to its exporters at a fixed period, on a thread of its own so file and log
+ * output stay off the render and camera threads.
+ */
+public class MetricsReporter {
+    private final MetricsRegistry registry;
+    private final long periodMillis;
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<MetricsExporter>();
+    private HandlerThread thread;
+    private volatile Handler handler;
+    private final Runnable exportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Handler current = handler;
+            exportNow();
+            if (current != null) {
+                // Dropped by the looper once stop() has quit it.
+                current.postDelayed(this, periodMillis);
+            }
+        }
+    };
+
+    public MetricsReporter(MetricsRegistry registry, long periodMillis) {
+        this.registry = registry;
+        this.periodMillis = periodMillis;
+    }
+
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public void removeExporter(MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    /**
+     * Starts exporting, the first time one period from now.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new HandlerThread("MetricsReporter");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.postDelayed(exportRunnable, periodMillis);
+    }
+
+    /**
+     * Stops exporting after one last export.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        handler.removeCallbacks(exportRunnable);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                exportNow();
+            }
+        });
+        thread.quitSafely();
+        thread = null;
+        handler = null;
+    }
+
+    /**
+     * Runs every exporter on the calling thread.
+     */
+    public void exportNow() {
+        for (MetricsExporter exporter : exporters) {
+            exporter.export(registry);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.muneikh.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the stages of a startup that runs on several threads, up to the first frame.
+ * <p/>
+ * Stages may overlap; each is recorded with its start offset and duration.  Once
+ * {@link #finish()} has been called further calls are ignored, so code shared with later
+ * restarts (like a camera switch) can keep calling begin / end.  Thread-safe.
+ */
+public class StartupTrace {
+
+    /**
+     * One timed stage.
+     */
+    public static final class Stage {
+        private final String name;
+        private final long startNanos;
+        private long endNanos;
+
+        private Stage(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns when the stage started, relative to the start of the trace.
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /**
+         * Returns how long the stage took, or -1 if it hasn't ended.
+         */
+        public long getDurationNanos() {
+            return endNanos > 0 ? endNanos - startNanos : -1;
+        }
+    }
+
+    private final String name;
+    private final long originNanos;
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private long totalNanos = -1;
+
+    /**
+     * Starts the trace now.
+     */
+    public StartupTrace(String name) {
+        this.name = name;
+        this.originNanos = System.nanoTime();
+    }
+
+    public synchronized void begin(String stage) {
+        if (totalNanos < 0) {
+            stages.add(new Stage(stage, System.nanoTime() - originNanos));
+        }
+    }
+
+    /**
+     * Ends the latest stage of the given name.
+     */
+    public synchronized void end(String stage) {
+        if (totalNanos >= 0) {
+            return;
+        }
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            Stage candidate = stages.get(i);
+            if (candidate.name.equals(stage) && candidate.endNanos == 0) {
+                // Keep 0 meaning "not ended".
+                candidate.endNanos = Math.max(1, System.nanoTime() - originNanos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marks the end of the startup.
+     *
+     * @return false if it had already finished.
+     */
+    public synchronized boolean finish() {
+        if (totalNanos >= 0) {
+            return false;
+        }
+        totalNanos = System.nanoTime() - originNanos;
+        return true;
+    }
+
+    public synchronized boolean isFinished() {
+        return totalNanos >= 0;
+    }
+
+    /**
+     * Returns the time from the start of the trace to {@link #finish()}, or -1.
+     */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public synchronized List<Stage> getStages() {
+        return new ArrayList<Stage>(stages);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(name).append(':');
+        for (Stage stage : stages) {
+            builder.append(String.format(" [%s @%.1fms ", stage.name, stage.startNanos / 1e6));
+            long duration = stage.getDurationNanos();
+            builder.append(duration >= 0 ? String.format("%.1fms]", duration / 1e6) : "unfinished]");
+        }
+        if (totalNanos >= 0) {
+            builder.append(String.format(" total %.1fms", totalNanos / 1e6));
+        }
+        return builder.toString();
+    }
+}
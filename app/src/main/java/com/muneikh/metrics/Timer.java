@@ -0,0 +1,115 @@
+package com.muneikh.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A named duration metric, with the same buckets as {@link LatencyHistogram} but lock-free:
+ * the buckets are preallocated and recording is a few atomic adds, so it can stay on in
+ * production, on any thread.
+ * <p/>
+ * Readers see each recording as a whole only once it's done, so a snapshot taken while
+ * threads record may be off by the recordings in flight.
+ */
+public class Timer {
+    private final String name;
+    private final MetricsRegistry registry;
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Timer(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the start time to pass to {@link #stop(long)}, or 0 while the registry is
+     * disabled.
+     */
+    public long start() {
+        return registry.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since {@link #start()}.
+     */
+    public void stop(long startNanos) {
+        if (startNanos != 0) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records one duration.  Negative values count as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(LatencyHistogram.indexOf(nanos));
+        sum.addAndGet(nanos);
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (nanos > currentMax && !max.compareAndSet(currentMax, nanos));
+        count.incrementAndGet();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n > 0 ? sum.get() / n : 0;
+    }
+
+    /**
+     * Same as {@link LatencyHistogram#getPercentileNanos(double)}.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        long largest = max.get();
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.upperBoundOf(i), largest);
+            }
+        }
+        return largest;
+    }
+
+    public void reset() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: n=%d p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms", name,
+                getCount(), getPercentileNanos(50) / 1e6, getPercentileNanos(95) / 1e6,
+                getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+    }
+}
@@ -9,29 +9,42 @@ import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
+import android.view.View;
 
+import com.muneikh.gles.GlUtil;
+import com.muneikh.gles.ProgramCache;
 import com.muneikh.inputsource.CameraTextureVideoInputSource;
 import com.muneikh.inputsource.TextureVideoInputSource;
 import com.muneikh.inputsource.TextureVideoInputSourceErrorListener;
 import com.muneikh.inputsource.VideoFileInputSource;
 import com.muneikh.inputsource.VideoRenderer;
+import com.muneikh.metrics.LogcatExporter;
+import com.muneikh.metrics.MetricsRegistry;
+import com.muneikh.metrics.MetricsReporter;
 import com.muneikh.mockcamera.BuildConfig;
 import com.muneikh.mockcamera.R;
 import com.muneikh.ui.widget.GL2SurfaceView;
+import com.muneikh.ui.widget.MetricsOverlayView;
+
+import java.io.File;
 
 public class CameraActivity extends Activity implements TextureVideoInputSourceErrorListener {
 
     private static final String TAG = "CameraActivity";
     private static final int GRANT_PERMISSIONS_REQUEST_CODE = 101;
+    private static final long METRICS_PERIOD_MILLIS = 1000;
+    private static final String PROGRAM_BINARY_DIRECTORY = "program-binaries";
 
     private TextureVideoInputSource textureVideoInputSource;
     private GL2SurfaceView glSurfaceView;
     private VideoRenderer videoRenderer;
+    private MetricsReporter metricsReporter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_camera);
+        ProgramCache.setBinaryDirectory(new File(getCacheDir(), PROGRAM_BINARY_DIRECTORY));
         glSurfaceView = (GL2SurfaceView) findViewById(R.id.gl_surface_view);
 
         if (BuildConfig.AUTO_TEST) {
@@ -43,6 +56,17 @@ public class CameraActivity extends Activity implements TextureVideoInputSourceE
         this.videoRenderer = new VideoRenderer(CameraActivity.this, this.textureVideoInputSource);
         this.videoRenderer.setGLSurfaceView(this.glSurfaceView);
         this.textureVideoInputSource.setCameraOpenErrorListener(this);
+
+        if (BuildConfig.DEBUG) {
+            MetricsOverlayView metricsOverlay = (MetricsOverlayView) findViewById(R.id.metrics_overlay);
+            metricsOverlay.setVisibility(View.VISIBLE);
+            metricsReporter = new MetricsReporter(MetricsRegistry.getDefault(), METRICS_PERIOD_MILLIS);
+            metricsReporter.addExporter(metricsOverlay);
+            metricsReporter.addExporter(new LogcatExporter(TAG));
+        } else {
+            // Catch GL errors without a glGetError() stall after every call.
+            GlUtil.setErrorCheckPolicy(GlUtil.ErrorCheckPolicy.SAMPLED);
+        }
     }
 
     @Override
@@ -50,15 +74,31 @@ public class CameraActivity extends Activity implements TextureVideoInputSourceE
         super.onResume();
         this.textureVideoInputSource.onResume();
         this.glSurfaceView.onResume();
+        this.videoRenderer.onResume();
+        if (metricsReporter != null) {
+            metricsReporter.start();
+        }
     }
 
     @Override
     protected void onPause() {
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+        }
+        this.videoRenderer.onPause();
         this.glSurfaceView.onPause();
         this.textureVideoInputSource.release();
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (textureVideoInputSource instanceof CameraTextureVideoInputSource) {
+            ((CameraTextureVideoInputSource) textureVideoInputSource).shutdown();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onError(Exception exception, boolean value) {
         Log.d(TAG, "No camera permission");
@@ -0,0 +1,40 @@
+package com.muneikh.ui.widget;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.widget.TextView;
+
+import com.muneikh.metrics.MetricsExporter;
+import com.muneikh.metrics.MetricsRegistry;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Shows a summary of every metric on top of the preview.  Add it to a
+ * {@link com.muneikh.metrics.MetricsReporter} as an exporter.
+ */
+public class MetricsOverlayView extends TextView implements MetricsExporter {
+
+    public MetricsOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setTypeface(Typeface.MONOSPACE);
+        setTextColor(Color.WHITE);
+        setBackgroundColor(0x80000000);
+    }
+
+    @Override
+    public void export(MetricsRegistry registry) {
+        StringWriter summary = new StringWriter();
+        registry.writeTo(new PrintWriter(summary));
+        final String text = summary.toString();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                setText(text);
+            }
+        });
+    }
+}
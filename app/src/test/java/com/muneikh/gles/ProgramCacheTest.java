@@ -0,0 +1,85 @@
+package com.muneikh.gles;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProgramCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void programKey_changesWithEitherSource() {
+        String key = ProgramCache.programKey("p", "vertex", "fragment");
+        assertEquals(key, ProgramCache.programKey("p", "vertex", "fragment"));
+        assertNotEquals(key, ProgramCache.programKey("p", "vertex2", "fragment"));
+        assertNotEquals(key, ProgramCache.programKey("p", "vertex", "fragment2"));
+        // The sources don't run together.
+        assertNotEquals(ProgramCache.programKey("p", "ab", "c"),
+                ProgramCache.programKey("p", "a", "bc"));
+    }
+
+    @Test
+    public void binary_roundTrips() throws IOException {
+        File file = new File(folder.getRoot(), "program");
+        byte[] data = {1, 2, 3, 4, 5};
+        ProgramCache.writeBinary(file, new ProgramCache.ProgramBinary(0x1234, data));
+
+        ProgramCache.ProgramBinary binary = ProgramCache.readBinary(file);
+        assertEquals(0x1234, binary.format);
+        assertArrayEquals(data, binary.data);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void readBinary_rejectsTruncatedFile() throws IOException {
+        File file = new File(folder.getRoot(), "program");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            // Magic, format 1 and a length of 100, but only 8 bytes of data.
+            out.write(new byte[]{0x4d, 0x43, 0x50, 0x42, 0, 0, 0, 1, 0, 0, 0, 100});
+            out.write(new byte[8]);
+        } finally {
+            out.close();
+        }
+        try {
+            ProgramCache.readBinary(file);
+            fail("Truncated binary accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void deleteOtherDrivers_keepsEverythingElseInRoot() throws IOException {
+        File root = folder.getRoot();
+        String driver = ProgramCache.driverKey("renderer", "version");
+        String otherDriver = ProgramCache.driverKey("renderer", "old version");
+        File current = new File(root, driver);
+        File other = new File(root, otherDriver);
+        File unrelated = new File(root, "http-cache");
+        assertTrue(current.mkdir() && other.mkdir() && unrelated.mkdir());
+        assertTrue(new File(other, "program").createNewFile());
+        assertTrue(new File(unrelated, "entry").createNewFile());
+        assertTrue(new File(root, "notes.txt").createNewFile());
+
+        ProgramCache.deleteOtherDrivers(root, driver);
+
+        assertTrue(root.isDirectory());
+        assertTrue(current.isDirectory());
+        assertFalse(other.exists());
+        assertTrue(new File(unrelated, "entry").exists());
+        assertTrue(new File(root, "notes.txt").exists());
+    }
+}
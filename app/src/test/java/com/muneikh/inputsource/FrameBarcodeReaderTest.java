@@ -0,0 +1,57 @@
+package com.muneikh.inputsource;
+
+import com.muneikh.gles.TestPatternProgram;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameBarcodeReaderTest {
+    private static final int WIDTH = 640;
+
+    /**
+     * Builds a row of RGBA pixels the way the test pattern shader draws the barcode.
+     */
+    private static ByteBuffer barcodeRow(long frameNumber) {
+        ByteBuffer row = ByteBuffer.allocate(WIDTH * 4);
+        for (int x = 0; x < WIDTH; x++) {
+            int bit = x * TestPatternProgram.BARCODE_BITS / WIDTH;
+            byte value = (byte) (((frameNumber >> bit) & 1) != 0 ? 0xff : 0);
+            row.put(value).put(value).put(value).put((byte) 0xff);
+        }
+        row.rewind();
+        return row;
+    }
+
+    @Test
+    public void decode_roundTripsFrameNumbers() throws Exception {
+        long[] frameNumbers = {0, 1, 2, 120, 0x555555, 0xffffff};
+        for (long frameNumber : frameNumbers) {
+            assertEquals(frameNumber, FrameBarcodeReader.decode(barcodeRow(frameNumber), WIDTH));
+        }
+    }
+
+    @Test
+    public void onFrameNumber_countsDropsAndDuplicates() throws Exception {
+        FrameBarcodeReader reader = new FrameBarcodeReader();
+        long[] sequence = {10, 11, 11, 14, 13, 15};
+        for (long frameNumber : sequence) {
+            reader.onFrameNumber(frameNumber);
+        }
+        assertEquals(6, reader.getFrameCount());
+        assertEquals(1, reader.getDuplicatedCount());
+        assertEquals(2 + 1, reader.getDroppedCount());
+        assertEquals(1, reader.getOutOfOrderCount());
+    }
+
+    @Test
+    public void onFrameNumber_handlesWrapAround() throws Exception {
+        FrameBarcodeReader reader = new FrameBarcodeReader();
+        reader.onFrameNumber(0xffffff);
+        reader.onFrameNumber(0);
+        assertEquals(0, reader.getDroppedCount());
+        assertEquals(0, reader.getOutOfOrderCount());
+    }
+}
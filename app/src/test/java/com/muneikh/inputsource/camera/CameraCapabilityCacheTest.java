@@ -0,0 +1,73 @@
+package com.muneikh.inputsource.camera;
+
+import com.muneikh.gles.Size;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CameraCapabilityCacheTest {
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    private final CameraCapabilityCache.Entry entry = new CameraCapabilityCache.Entry(
+            new Size(1280, 720), new int[]{15000, 30000}, 90);
+
+    @Test
+    public void put_roundTripsPerKey() throws Exception {
+        CameraCapabilityCache cache = new CameraCapabilityCache(cacheDir.getRoot(), "build/1");
+        cache.put(1, 0, entry);
+
+        CameraCapabilityCache.Entry read = cache.get(1, 0);
+        assertEquals(1280, read.previewSize.width);
+        assertEquals(720, read.previewSize.height);
+        assertArrayEquals(new int[]{15000, 30000}, read.previewFpsRange);
+        assertEquals(90, read.displayOrientation);
+        assertTrue(entry.sameAs(read));
+
+        assertNull(cache.get(0, 0));
+        assertNull(cache.get(1, 90));
+        // A system update invalidates everything.
+        assertNull(new CameraCapabilityCache(cacheDir.getRoot(), "build/2").get(1, 0));
+
+        cache.remove(1, 0);
+        assertNull(cache.get(1, 0));
+    }
+
+    @Test
+    public void get_dropsCorruptEntry() throws Exception {
+        CameraCapabilityCache cache = new CameraCapabilityCache(cacheDir.getRoot(), "build/1");
+        cache.put(0, 0, entry);
+        FileOutputStream out = new FileOutputStream(cache.getEntryFile(0, 0));
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        assertNull(cache.get(0, 0));
+        assertFalse(cache.getEntryFile(0, 0).exists());
+    }
+
+    @Test
+    public void isSupportedBy_checksSizeAndFpsRange() {
+        CameraParameters supported = new CameraParameters(
+                Arrays.asList(new Size(640, 480), new Size(1280, 720)),
+                Collections.singletonList(new int[]{15000, 30000}),
+                new Size(640, 480), new int[]{15000, 30000});
+        CameraParameters other = new CameraParameters(
+                Collections.singletonList(new Size(1280, 720)),
+                Collections.singletonList(new int[]{30000, 30000}),
+                new Size(1280, 720), new int[]{30000, 30000});
+
+        assertTrue(entry.isSupportedBy(supported));
+        assertFalse(entry.isSupportedBy(other));
+    }
+}
@@ -0,0 +1,30 @@
+package com.muneikh.inputsource.decoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HandoffFramePacerTest {
+
+    @Test(timeout = 1000)
+    public void releasingEndedDecoders_keepsSharedPacerRunning() throws InterruptedException {
+        RealtimeFramePacer shared = new RealtimeFramePacer();
+        HandoffFramePacer playing = new HandoffFramePacer(shared);
+        assertTrue(playing.awaitFrameRelease(0));
+
+        // Two gapless loops: each decoder ends, the next takes over, then the old one is
+        // released while the new one plays.
+        for (int loop = 0; loop < 2; loop++) {
+            playing.handOff();
+            HandoffFramePacer next = new HandoffFramePacer(shared);
+            next.onLoop();
+            playing.release();
+            assertTrue(next.awaitFrameRelease(0));
+            playing = next;
+        }
+
+        playing.release();
+        assertFalse(shared.awaitFrameRelease(0));
+    }
+}
@@ -0,0 +1,102 @@
+package com.muneikh.inputsource.decoder;
+
+import com.muneikh.inputsource.queue.FrameQueue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueueingFramePacerTest {
+    private final FramePacer releaseAll = new FramePacer() {
+        @Override
+        public boolean awaitFrameRelease(long presentationTimeUs) {
+            return true;
+        }
+
+        @Override
+        public void onLoop() {
+        }
+
+        @Override
+        public void onSeek() {
+        }
+
+        @Override
+        public void release() {
+        }
+    };
+
+    @Test(timeout = 1000)
+    public void closedQueue_dropsFrameInsteadOfWaiting() throws InterruptedException {
+        FrameQueue<Integer> queue = new FrameQueue<Integer>(1, FrameQueue.Policy.BLOCK_PRODUCER,
+                new FrameQueue.Recycler<Integer>() {
+                    @Override
+                    public void recycle(Integer frame) {
+                    }
+                });
+        QueueingFramePacer pacer = new QueueingFramePacer(releaseAll, queue);
+        queue.close();
+
+        assertFalse(pacer.awaitFrameRelease(0));
+    }
+
+    @Test(timeout = 2000)
+    public void interruptedWait_keepsIngestPermit() throws Exception {
+        final AtomicBoolean block = new AtomicBoolean(true);
+        FramePacer blocking = new FramePacer() {
+            @Override
+            public boolean awaitFrameRelease(long presentationTimeUs)
+                    throws InterruptedException {
+                if (block.get()) {
+                    Thread.sleep(10000);
+                }
+                return true;
+            }
+
+            @Override
+            public void onLoop() {
+            }
+
+            @Override
+            public void onSeek() {
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        FrameQueue<Integer> queue = new FrameQueue<Integer>(2, FrameQueue.Policy.BLOCK_PRODUCER,
+                new FrameQueue.Recycler<Integer>() {
+                    @Override
+                    public void recycle(Integer frame) {
+                    }
+                });
+        final QueueingFramePacer pacer = new QueueingFramePacer(blocking, queue);
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread decoder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pacer.awaitFrameRelease(0);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        });
+        decoder.start();
+        Thread.sleep(50);
+        // What a seek does to the decode thread.
+        decoder.interrupt();
+        decoder.join();
+        assertTrue(thrown.get() instanceof InterruptedException);
+
+        // The interrupted frame never reached the SurfaceTexture, so the next one mustn't
+        // wait for it to be ingested.
+        block.set(false);
+        assertTrue(pacer.awaitFrameRelease(0));
+    }
+}
@@ -0,0 +1,157 @@
+package com.muneikh.inputsource.mp4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4DemuxerTest {
+    // Unit tests run with the module directory as the working directory.
+    private static final File CLIP = new File("src/main/assets/mock_input_video.mp4");
+
+    @Rule
+    public TemporaryFolder cacheDir = new TemporaryFolder();
+
+    @Test
+    public void parse_readsBundledClip() throws Exception {
+        SampleTable table = Mp4Demuxer.parse(CLIP);
+
+        assertEquals("avc1", table.getSampleType());
+        assertEquals(720, table.getWidth());
+        assertEquals(1280, table.getHeight());
+        assertEquals(1429, table.getSampleCount());
+        // The clip's only chunk starts right after the mdat header.
+        assertEquals(3227, table.getOffset(0));
+        assertEquals(table.getOffset(0) + table.getSize(0), table.getOffset(1));
+        assertEquals(0, table.getPresentationTimeUs(0));
+        assertEquals(2150 * 1000000L / 90000, table.getPresentationTimeUs(1));
+
+        assertTrue(table.isSyncSample(0));
+        assertTrue(table.isSyncSample(601));
+        assertTrue(table.isSyncSample(1202));
+        assertFalse(table.isSyncSample(1));
+        assertEquals(0, table.getSyncSampleBefore(600));
+        assertEquals(601, table.getSyncSampleBefore(601));
+        assertEquals(1202, table.getSyncSampleBefore(1428));
+    }
+
+    @Test
+    public void frameLookup_matchesPresentationOrder() throws Exception {
+        SampleTable table = Mp4Demuxer.parse(CLIP);
+
+        for (int frame = 1; frame < table.getSampleCount(); frame++) {
+            assertTrue(table.getFrameTimeUs(frame) > table.getFrameTimeUs(frame - 1));
+            assertEquals(frame, table.getFrameForSample(table.getSampleForFrame(frame)));
+        }
+        assertEquals(700, table.getFrameAtTime(table.getFrameTimeUs(700)));
+        assertEquals(700, table.getFrameAtTime(table.getFrameTimeUs(701) - 1));
+    }
+
+    @Test
+    public void indexStore_persistsTable() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(CLIP, "r");
+        ByteBuffer mapped;
+        try {
+            mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, CLIP.length());
+        } finally {
+            file.close();
+        }
+        SampleIndexStore store = new SampleIndexStore(cacheDir.getRoot());
+        SampleTable parsed = store.load("mock_input_video.mp4", CLIP.length(), mapped);
+
+        SampleTable stored = store.get("mock_input_video.mp4", CLIP.length());
+        assertEquals(parsed.getSampleCount(), stored.getSampleCount());
+        for (int i = 0; i < parsed.getSampleCount(); i++) {
+            assertEquals(parsed.getOffset(i), stored.getOffset(i));
+            assertEquals(parsed.getSize(i), stored.getSize(i));
+            assertEquals(parsed.getPresentationTimeUs(i), stored.getPresentationTimeUs(i));
+            assertEquals(parsed.isSyncSample(i), stored.isSyncSample(i));
+        }
+        assertNull(store.get("mock_input_video.mp4", CLIP.length() + 1));
+    }
+
+    @Test
+    public void parse_appliesEditListToBFrameClip() throws Exception {
+        // Decode order I P B B, 40 ms apart; ctts delays presentation by 80 ms, as ffmpeg
+        // writes it, and the edit list starts the media at 80 ms again.
+        SampleTable table = Mp4Demuxer.parse(ByteBuffer.wrap(bFrameClip()));
+
+        assertEquals(4, table.getSampleCount());
+        assertEquals(0, table.getPresentationTimeUs(0));
+        assertEquals(120000, table.getPresentationTimeUs(1));
+        assertEquals(40000, table.getPresentationTimeUs(2));
+        assertEquals(80000, table.getPresentationTimeUs(3));
+        assertEquals(0, table.getFrameTimeUs(0));
+        assertEquals(3, table.getFrameForSample(1));
+        assertEquals(2, table.getFrameAtTime(80000));
+    }
+
+    @Test
+    public void readEditShift_delaysByLeadingEmptyEdit() throws Exception {
+        ByteBuffer elst = ByteBuffer.wrap(payload(new int[]{0, 2, 300, -1, 0x10000, 600, 80,
+                0x10000}));
+
+        // 300 of 600 movie units is 500 ms; the media starts at 80 ms.
+        assertEquals(500 - 80, Mp4Demuxer.readEditShift(elst, 1000, 600));
+    }
+
+    private static byte[] bFrameClip() throws IOException {
+        byte[] stbl = concat(
+                box("stsd", concat(payload(new int[]{0, 1, 36}), "avc1".getBytes("US-ASCII"),
+                        new byte[24], new byte[]{0, 64, 0, 48})),
+                box("stts", payload(new int[]{0, 1, 4, 40})),
+                box("ctts", payload(new int[]{0, 4, 1, 80, 1, 160, 1, 40, 1, 40})),
+                box("stss", payload(new int[]{0, 1, 1})),
+                box("stsz", payload(new int[]{0, 0, 4, 10, 10, 10, 10})),
+                box("stsc", payload(new int[]{0, 1, 1, 4, 1})),
+                box("stco", payload(new int[]{0, 1, 0})));
+        byte[] mdia = concat(
+                box("mdhd", payload(new int[]{0, 0, 0, 1000, 160, 0})),
+                box("hdlr", concat(payload(new int[]{0, 0}), "vide".getBytes("US-ASCII"),
+                        new byte[13])),
+                box("minf", box("stbl", stbl)));
+        byte[] trak = concat(
+                box("edts", box("elst", payload(new int[]{0, 1, 96, 80, 0x10000}))),
+                box("mdia", mdia));
+        return box("moov", concat(box("mvhd", payload(new int[]{0, 0, 0, 600, 96})),
+                box("trak", trak)));
+    }
+
+    private static byte[] box(String type, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(8 + payload.length);
+        out.write(type.getBytes("US-ASCII"));
+        out.write(payload);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] payload(int[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package com.muneikh.inputsource.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQueueTest {
+    private final List<Integer> recycled = new ArrayList<Integer>();
+    private final FrameQueue.Recycler<Integer> recycler = new FrameQueue.Recycler<Integer>() {
+        @Override
+        public void recycle(Integer frame) {
+            recycled.add(frame);
+        }
+    };
+
+    @Test
+    public void dropOldest_keepsNewestInOrder() {
+        FrameQueue<Integer> queue = new FrameQueue<Integer>(3, FrameQueue.Policy.DROP_OLDEST, recycler);
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(i);
+        }
+
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(3, queue.getMaxOccupancy());
+        assertEquals("[0, 1]", recycled.toString());
+        assertEquals(2, (int) queue.poll());
+        assertEquals(3, (int) queue.poll());
+        assertEquals(4, (int) queue.poll());
+        assertNull(queue.poll());
+        assertEquals(3, queue.getQueueDelayHistogram().getCount());
+    }
+
+    @Test
+    public void latestOnly_holdsOneFrame() {
+        FrameQueue<Integer> queue = new FrameQueue<Integer>(4, FrameQueue.Policy.LATEST_ONLY, recycler);
+        queue.enqueue(1);
+        queue.enqueue(2);
+
+        assertEquals(1, queue.getDepth());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(2, (int) queue.poll());
+    }
+
+    @Test
+    public void blockProducer_waitsForRoom() throws Exception {
+        final FrameQueue<Integer> queue =
+                new FrameQueue<Integer>(1, FrameQueue.Policy.BLOCK_PRODUCER, recycler);
+        queue.enqueue(1);
+        assertFalse(queue.awaitCapacity(10, TimeUnit.MILLISECONDS));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    if (queue.awaitCapacity(5, TimeUnit.SECONDS)) {
+                        queue.enqueue(2);
+                        done.countDown();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        producer.start();
+        Thread.sleep(20);
+        assertEquals(1, done.getCount());
+
+        assertEquals(1, (int) queue.poll());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, (int) queue.poll());
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals(1, queue.getEnqueueWaitHistogram().getCount());
+    }
+}
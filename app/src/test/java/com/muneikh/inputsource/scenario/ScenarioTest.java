@@ -0,0 +1,51 @@
+package com.muneikh.inputsource.scenario;
+
+import android.hardware.Camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ScenarioTest {
+
+    @Test
+    public void build_collectsClipsAndFrames() {
+        Scenario scenario = new Scenario.Builder("switch and fail")
+                .setCameraClip(Camera.CameraInfo.CAMERA_FACING_BACK, "back.mp4")
+                .setCameraClip(Camera.CameraInfo.CAMERA_FACING_FRONT, "front.mp4")
+                .play(300)
+                .switchCamera()
+                .play(60)
+                .rotate(90)
+                .playClip("extra.mp4", 10)
+                .fail("camera disconnected")
+                .build();
+
+        assertEquals(Arrays.asList("back.mp4", "front.mp4", "extra.mp4"),
+                new ArrayList<String>(scenario.getClips()));
+        assertEquals(370, scenario.getFrameCount());
+        assertEquals(6, scenario.getSteps().size());
+        assertEquals(Scenario.Step.Type.FAIL, scenario.getSteps().get(5).getType());
+        assertEquals("camera disconnected", scenario.getSteps().get(5).getMessage());
+        assertNull(scenario.getSteps().get(0).getClip());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void build_rejectsSwitchToCameraWithoutClip() {
+        new Scenario.Builder("missing front clip")
+                .setCameraClip(Camera.CameraInfo.CAMERA_FACING_BACK, "back.mp4")
+                .play(10)
+                .switchCamera()
+                .play(10)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rotate_rejectsOddAngles() {
+        new Scenario.Builder("bad rotation").rotate(45);
+    }
+}
@@ -0,0 +1,55 @@
+package com.muneikh.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameLatencyTrackerTest {
+
+    @Test
+    public void newFrame_isFollowedToTheSwap() {
+        FrameLatencyTracker tracker = new FrameLatencyTracker();
+        long captureNanos = System.nanoTime() - 20000000L;
+        tracker.onFrameLatched(System.nanoTime(), captureNanos);
+        tracker.beginDraw();
+        tracker.endDraw();
+        tracker.onFrameDrawn();
+        tracker.beginSwap();
+        tracker.endSwap();
+
+        assertEquals(1, tracker.getAgeAtLatchHistogram().getCount());
+        assertEquals(1, tracker.getCaptureToSwapHistogram().getCount());
+        assertTrue(tracker.getCaptureToSwapHistogram().getMinNanos() >= 20000000L);
+
+        // A redraw of the same frame doesn't age it again.
+        tracker.onFrameDrawn();
+        tracker.beginSwap();
+        tracker.endSwap();
+        assertEquals(1, tracker.getCaptureToSwapHistogram().getCount());
+        assertEquals(2, tracker.getSwapHistogram().getCount());
+    }
+
+    @Test
+    public void captureTimeOffTheMonotonicClock_isIgnored() {
+        FrameLatencyTracker tracker = new FrameLatencyTracker();
+        tracker.onFrameLatched(System.nanoTime(), System.nanoTime() + 1000000000L);
+        tracker.onFrameDrawn();
+
+        assertEquals(1, tracker.getLatchHistogram().getCount());
+        assertEquals(0, tracker.getAgeAtLatchHistogram().getCount());
+        assertEquals(0, tracker.getCaptureToDrawnHistogram().getCount());
+    }
+
+    @Test
+    public void redrawWithoutSwapBracket_doesNotAgeFrameAgain() {
+        // GLSurfaceView: no beginSwap()/endSwap().
+        FrameLatencyTracker tracker = new FrameLatencyTracker();
+        tracker.onFrameLatched(System.nanoTime(), System.nanoTime() - 20000000L);
+        tracker.onFrameDrawn();
+        tracker.onFrameDrawn();
+        tracker.onFrameDrawn();
+
+        assertEquals(1, tracker.getCaptureToDrawnHistogram().getCount());
+    }
+}
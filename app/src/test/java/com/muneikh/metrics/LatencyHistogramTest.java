@@ -0,0 +1,47 @@
+package com.muneikh.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverTheirValues() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 999999, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value + " above its bucket", value <= LatencyHistogram.upperBoundOf(index));
+            if (index > 0) {
+                assertTrue(value + " below its bucket",
+                        value > LatencyHistogram.upperBoundOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMinNanos());
+        assertEquals(1000000000L, histogram.getMaxNanos());
+        assertEquals(500500000L, histogram.getMeanNanos());
+        assertWithin(500000000L, histogram.getPercentileNanos(50));
+        assertWithin(950000000L, histogram.getPercentileNanos(95));
+        assertWithin(990000000L, histogram.getPercentileNanos(99));
+        assertEquals(1000000000L, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
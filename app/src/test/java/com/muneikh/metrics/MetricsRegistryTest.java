@@ -0,0 +1,79 @@
+package com.muneikh.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void metrics_areLookedUpByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.timer("draw"), registry.timer("draw"));
+        assertSame(registry.counter("errors"), registry.counter("errors"));
+        assertSame(registry.gauge("queue"), registry.gauge("queue"));
+    }
+
+    @Test
+    public void timer_matchesLatencyHistogram() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Timer timer = registry.timer("test");
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            timer.record(i * 1000L);
+            histogram.record(i * 1000L);
+        }
+        assertEquals(histogram.getCount(), timer.getCount());
+        assertEquals(histogram.getMaxNanos(), timer.getMaxNanos());
+        assertEquals(histogram.getMeanNanos(), timer.getMeanNanos());
+        assertEquals(histogram.getPercentileNanos(50), timer.getPercentileNanos(50));
+        assertEquals(histogram.getPercentileNanos(99), timer.getPercentileNanos(99));
+    }
+
+    @Test
+    public void timer_recordsFromManyThreads() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        final Timer timer = registry.timer("test");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        timer.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, timer.getCount());
+        assertEquals(9999, timer.getMaxNanos());
+    }
+
+    @Test
+    public void disabledRegistry_recordsNothing() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.setEnabled(false);
+        Timer timer = registry.timer("draw");
+        timer.stop(timer.start());
+        registry.counter("errors").increment();
+        assertEquals(0, timer.getCount());
+        assertEquals(0, registry.counter("errors").get());
+
+        registry.setEnabled(true);
+        timer.stop(timer.start());
+        registry.counter("errors").increment();
+        StringWriter summary = new StringWriter();
+        registry.writeTo(new PrintWriter(summary));
+        assertTrue(summary.toString().contains("draw: n=1"));
+        assertTrue(summary.toString().contains("errors: 1"));
+    }
+}